@@ -20,6 +20,7 @@ import android.graphics.ColorFilter;
 import android.util.DisplayMetrics;
 import com.android.internal.app.AlertActivity;
 import com.android.internal.app.AlertController;
+import com.android.settings.applications.AppCatalog;
 
 import android.app.Activity;
 import android.content.Context;
@@ -27,7 +28,6 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Intent.ShortcutIconResource;
 import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
@@ -40,16 +40,23 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.PaintDrawable;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.Parcelable;
+import android.util.Log;
+import android.util.LruCache;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.TextView;
 
+import java.text.CollationKey;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Displays a list of all activities matching the incoming
@@ -57,6 +64,7 @@ import java.util.List;
  */
 public class ActivityPicker extends AlertActivity implements
         DialogInterface.OnClickListener, DialogInterface.OnCancelListener {
+    private static final String TAG = "ActivityPicker";
     
     /**
      * Adapter of items that are displayed in this dialog.
@@ -67,6 +75,37 @@ public class ActivityPicker extends AlertActivity implements
      * Base {@link Intent} used when building list.
      */
     private Intent mBaseIntent;
+
+    /**
+     * List the activities matching {@link #mBaseIntent} are kept in, and
+     * their place in it, while the catalog keeps delivering them.
+     */
+    private List<PickAdapter.Item> mIntentItems;
+    private int mIntentItemsStart;
+    private int mIntentItemsCount;
+    private List<AppCatalog.Entry> mIntentEntries;
+
+    private final AppCatalog.Listener mCatalogListener = new AppCatalog.Listener() {
+        public void onEntriesLoaded(List<AppCatalog.Entry> entries, boolean complete) {
+            // Icons are loaded as rows are shown, so only a new list matters
+            if (entries == mIntentEntries) {
+                return;
+            }
+            mIntentEntries = entries;
+
+            final ArrayList<PickAdapter.Item> items = new ArrayList<PickAdapter.Item>();
+            for (AppCatalog.Entry entry : entries) {
+                items.add(new PickAdapter.Item(ActivityPicker.this, entry));
+            }
+            mIntentItems.subList(mIntentItemsStart,
+                    mIntentItemsStart + mIntentItemsCount).clear();
+            mIntentItems.addAll(mIntentItemsStart, items);
+            mIntentItemsCount = items.size();
+            if (mAdapter != null) {
+                mAdapter.notifyDataSetChanged();
+            }
+        }
+    };
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -102,6 +141,12 @@ public class ActivityPicker extends AlertActivity implements
 
         setupAlert();
     }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        AppCatalog.getInstance(this).cancel(mCatalogListener);
+    }
     
     /**
      * Handle clicking of dialog item by passing back
@@ -177,19 +222,15 @@ public class ActivityPicker extends AlertActivity implements
     }
 
     /**
-     * Fill the given list with any activities matching the base {@link Intent}. 
+     * Fill the given list with any activities matching the base {@link Intent}.
+     * The shared catalog loads them in the background and they are put in
+     * the list as they come, sorted by label.
      */
     protected void putIntentItems(Intent baseIntent, List<PickAdapter.Item> items) {
-        PackageManager packageManager = getPackageManager();
-        List<ResolveInfo> list = packageManager.queryIntentActivities(baseIntent,
-                0 /* no flags */);
-        Collections.sort(list, new ResolveInfo.DisplayNameComparator(packageManager));
-        
-        final int listSize = list.size();
-        for (int i = 0; i < listSize; i++) {
-            ResolveInfo resolveInfo = list.get(i);
-            items.add(new PickAdapter.Item(this, packageManager, resolveInfo));
-        }
+        mIntentItems = items;
+        mIntentItemsStart = items.size();
+        mIntentItemsCount = 0;
+        AppCatalog.getInstance(this).loadActivities(baseIntent, mCatalogListener);
     }
     
     /**
@@ -204,7 +245,7 @@ public class ActivityPicker extends AlertActivity implements
         public static class Item {
             protected static IconResizer sResizer;
             
-            protected IconResizer getResizer(Context context) {
+            protected static synchronized IconResizer getResizer(Context context) {
                 if (sResizer == null) {
                     final Resources resources = context.getResources();
                     int size = (int) resources.getDimension(android.R.dimen.app_icon_size);
@@ -214,10 +255,20 @@ public class ActivityPicker extends AlertActivity implements
             }
             
             CharSequence label;
+            /** Thumbnail, or null until loaded if the item has an icon source. */
             Drawable icon;
             String packageName;
             String className;
             Bundle extras;
+
+            /** Precomputed collation key of the label, set when sorting. */
+            CollationKey sortKey;
+
+            // Where to load the icon from when the item is first shown
+            AppCatalog.Entry entry;
+            String iconPackage;
+            int iconResource;
+            boolean iconRequested;
             
             /**
              * Create a list item from given label and icon.
@@ -229,17 +280,61 @@ public class ActivityPicker extends AlertActivity implements
 
             /**
              * Create a list item and fill it with details from the given
-             * {@link ResolveInfo} object.
+             * {@link AppCatalog.Entry}.
              */
-            Item(Context context, PackageManager pm, ResolveInfo resolveInfo) {
-                label = resolveInfo.loadLabel(pm);
-                if (label == null && resolveInfo.activityInfo != null) {
-                    label = resolveInfo.activityInfo.name;
+            Item(Context context, AppCatalog.Entry entry) {
+                label = entry.getLabel();
+                if (label == null) {
+                    label = entry.className;
                 }
 
-                icon = getResizer(context).createIconThumbnail(resolveInfo.loadIcon(pm));
-                packageName = resolveInfo.activityInfo.applicationInfo.packageName;
-                className = resolveInfo.activityInfo.name;
+                this.entry = entry;
+                packageName = entry.resolveInfo.activityInfo.applicationInfo.packageName;
+                className = entry.className;
+            }
+
+            /**
+             * Create a list item with the given label, whose icon is loaded
+             * from the given package resource when it is first shown.
+             */
+            Item(Context context, CharSequence label, String iconPackage, int iconResource) {
+                this.label = label;
+                this.iconPackage = iconPackage;
+                this.iconResource = iconResource;
+                if (iconResource == 0) {
+                    icon = getResizer(context).createIconThumbnail(null);
+                }
+            }
+
+            /**
+             * Key of this item's icon in the thumbnail cache, or null if the
+             * item has no icon to load.
+             */
+            String getIconKey() {
+                if (entry != null) {
+                    return entry.packageName + "/" + entry.className;
+                } else if (iconResource != 0) {
+                    return iconPackage + ":" + iconResource;
+                }
+                return null;
+            }
+
+            /**
+             * Load the icon and create its thumbnail. Called on the icon loader
+             * thread.
+             */
+            Drawable loadThumbnail(Context context) {
+                Drawable full = null;
+                if (entry != null) {
+                    full = AppCatalog.getInstance(context).loadIcon(entry);
+                } else if (iconResource != 0) {
+                    full = context.getPackageManager().getDrawable(iconPackage, iconResource, null);
+                    if (full == null) {
+                        Log.w(TAG, "Can't load icon drawable 0x" + Integer.toHexString(iconResource)
+                                + " for package: " + iconPackage);
+                    }
+                }
+                return getResizer(context).createIconThumbnail(full);
             }
 
             /**
@@ -264,15 +359,76 @@ public class ActivityPicker extends AlertActivity implements
             }
         }
         
+        /** Thumbnails are cached across pickers, as the same icons come up. */
+        private static final int MAX_THUMBNAILS = 128;
+
+        private static final LruCache<String, Drawable.ConstantState> sThumbnails =
+                new LruCache<String, Drawable.ConstantState>(MAX_THUMBNAILS);
+
+        /** One thread, as the shared {@link IconResizer} draws on one canvas. */
+        private static final ThreadPoolExecutor sIconExecutor = new ThreadPoolExecutor(
+                1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "ActivityPicker Icon Loader");
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+
+        static {
+            sIconExecutor.allowCoreThreadTimeOut(true);
+        }
+
+        private final Context mContext;
         private final LayoutInflater mInflater;
         private final List<Item> mItems;
+        private final Handler mHandler = new Handler();
+        /** Shown in place of icons that aren't loaded yet. */
+        private final Drawable mEmptyIcon;
         
         /**
          * Create an adapter for the given items.
          */
         public PickAdapter(Context context, List<Item> items) {
+            mContext = context.getApplicationContext();
             mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
             mItems = items;
+            mEmptyIcon = Item.getResizer(context).createIconThumbnail(null);
+        }
+
+        /**
+         * Set the item's icon from the thumbnail cache, or start loading it
+         * in the background.
+         */
+        private void requestIcon(final Item item) {
+            if (item.iconRequested) {
+                return;
+            }
+            item.iconRequested = true;
+
+            final String key = item.getIconKey();
+            final Drawable.ConstantState cached = sThumbnails.get(key);
+            if (cached != null) {
+                item.icon = cached.newDrawable();
+                return;
+            }
+
+            sIconExecutor.execute(new Runnable() {
+                public void run() {
+                    final Drawable thumbnail = item.loadThumbnail(mContext);
+                    final Drawable.ConstantState state = thumbnail.getConstantState();
+                    if (state != null) {
+                        sThumbnails.put(key, state);
+                    }
+                    mHandler.post(new Runnable() {
+                        public void run() {
+                            item.icon = thumbnail;
+                            notifyDataSetChanged();
+                        }
+                    });
+                }
+            });
         }
 
         /**
@@ -305,9 +461,13 @@ public class ActivityPicker extends AlertActivity implements
             }
             
             Item item = (Item) getItem(position);
+            if (item.icon == null) {
+                requestIcon(item);
+            }
             TextView textView = (TextView) convertView;
             textView.setText(item.label);
-            textView.setCompoundDrawablesWithIntrinsicBounds(item.icon, null, null, null);
+            textView.setCompoundDrawablesWithIntrinsicBounds(
+                    item.icon != null ? item.icon : mEmptyIcon, null, null, null);
             
             return convertView;
         }
@@ -339,14 +499,14 @@ public class ActivityPicker extends AlertActivity implements
          * The size of the thumbnail is defined by the dimension
          * android.R.dimen.launcher_application_icon_size.
          *
-         * This method is not thread-safe and should be invoked on the UI thread only.
+         * Calls are serialized, as the thumbnail is drawn on a shared canvas.
          *
          * @param icon The icon to get a thumbnail of.
          *
          * @return A thumbnail for the specified icon or the icon itself if the
          *         thumbnail could not be created. 
          */
-        public Drawable createIconThumbnail(Drawable icon) {
+        public synchronized Drawable createIconThumbnail(Drawable icon) {
             int width = mIconWidth;
             int height = mIconHeight;
 
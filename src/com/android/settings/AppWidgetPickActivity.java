@@ -20,8 +20,6 @@ import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.pm.PackageManager;
-import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.os.Parcelable;
 import android.util.Log;
@@ -46,7 +44,6 @@ public class AppWidgetPickActivity extends ActivityPicker {
     private static final String TAG = "AppWidgetPickActivity";
     private static final boolean LOGD = false;
 
-    private PackageManager mPackageManager;
     private AppWidgetManager mAppWidgetManager;
     
     /**
@@ -57,7 +54,6 @@ public class AppWidgetPickActivity extends ActivityPicker {
     
     @Override
     public void onCreate(Bundle icicle) {
-        mPackageManager = getPackageManager();
         mAppWidgetManager = AppWidgetManager.getInstance(this);
         
         super.onCreate(icicle);
@@ -172,18 +168,9 @@ public class AppWidgetPickActivity extends ActivityPicker {
         for (int i = 0; i < size; i++) {
             AppWidgetProviderInfo info = appWidgets.get(i);
             
-            CharSequence label = info.label;
-            Drawable icon = null;
-
-            if (info.icon != 0) {
-                icon = mPackageManager.getDrawable(info.provider.getPackageName(), info.icon, null);
-                if (icon == null) {
-                    Log.w(TAG, "Can't load icon drawable 0x" + Integer.toHexString(info.icon)
-                            + " for provider: " + info.provider);
-                }
-            }
-            
-            PickAdapter.Item item = new PickAdapter.Item(this, label, icon);
+            // The icon is loaded when the item is first shown
+            PickAdapter.Item item = new PickAdapter.Item(this, info.label,
+                    info.provider.getPackageName(), info.icon);
             
             item.packageName = info.provider.getPackageName();
             item.className = info.provider.getClassName();
@@ -208,11 +195,15 @@ public class AppWidgetPickActivity extends ActivityPicker {
         putInstalledAppWidgets(items);
         putCustomAppWidgets(items);
         
-        // Sort all items together by label
+        // Sort all items together by label, collating each label only once
+        final Collator collator = Collator.getInstance();
+        for (PickAdapter.Item item : items) {
+            item.sortKey = collator.getCollationKey(
+                    item.label != null ? item.label.toString() : "");
+        }
         Collections.sort(items, new Comparator<PickAdapter.Item>() {
-                Collator mCollator = Collator.getInstance();
                 public int compare(PickAdapter.Item lhs, PickAdapter.Item rhs) {
-                    return mCollator.compare(lhs.label, rhs.label);
+                    return lhs.sortKey.compareTo(rhs.sortKey);
                 }
             });
 
@@ -122,7 +122,10 @@ import com.android.settings.drawable.InsetBoundsDrawable;
 import com.android.settings.net.ChartData;
 import com.android.settings.net.ChartDataLoader;
 import com.android.settings.net.NetworkPolicyEditor;
+import com.android.settings.net.NetworkStatsCache;
 import com.android.settings.net.SummaryForAllUidLoader;
+import com.android.settings.net.UidUsageMatrix;
+import com.android.settings.net.UidUsageMatrixLoader;
 import com.android.settings.net.UidDetail;
 import com.android.settings.net.UidDetailProvider;
 import com.android.settings.widget.ChartDataUsageView;
@@ -171,6 +174,7 @@ public class DataUsageSummary extends Fragment {
 
     private static final int LOADER_CHART_DATA = 2;
     private static final int LOADER_SUMMARY = 3;
+    private static final int LOADER_USAGE_MATRIX = 4;
 
     private static final long KB_IN_BYTES = 1024;
     private static final long MB_IN_BYTES = KB_IN_BYTES * 1024;
@@ -178,6 +182,7 @@ public class DataUsageSummary extends Fragment {
 
     private INetworkManagementService mNetworkService;
     private INetworkStatsService mStatsService;
+    private NetworkStatsCache mStatsCache;
     private INetworkPolicyManager mPolicyService;
     private ConnectivityManager mConnService;
 
@@ -234,6 +239,13 @@ public class DataUsageSummary extends Fragment {
     private NetworkTemplate mTemplate;
     private ChartData mChartData;
 
+    /** Usage of all UIDs during the selected cycle, once loaded. */
+    private UidUsageMatrix mUsageMatrix;
+    /** Template and cycle {@link #LOADER_USAGE_MATRIX} was last started for. */
+    private NetworkTemplate mUsageMatrixTemplate;
+    private long mUsageMatrixStart;
+    private long mUsageMatrixEnd;
+
     private int[] mAppDetailUids = null;
 
     private Intent mAppSettingsIntent;
@@ -259,6 +271,7 @@ public class DataUsageSummary extends Fragment {
                 ServiceManager.getService(Context.NETWORKMANAGEMENT_SERVICE));
         mStatsService = INetworkStatsService.Stub.asInterface(
                 ServiceManager.getService(Context.NETWORK_STATS_SERVICE));
+        mStatsCache = new NetworkStatsCache(mStatsService);
         mPolicyService = INetworkPolicyManager.Stub.asInterface(
                 ServiceManager.getService(Context.NETWORK_POLICY_SERVICE));
         mConnService = (ConnectivityManager) getActivity().getSystemService(
@@ -408,6 +421,7 @@ public class DataUsageSummary extends Fragment {
                     // wait a few seconds before kicking off
                     Thread.sleep(2 * DateUtils.SECOND_IN_MILLIS);
                     mStatsService.forceUpdate();
+                    mStatsCache.invalidate();
                 } catch (InterruptedException e) {
                 } catch (RemoteException e) {
                 }
@@ -417,6 +431,9 @@ public class DataUsageSummary extends Fragment {
             @Override
             protected void onPostExecute(Void result) {
                 if (isAdded()) {
+                    // forget usage matrix built from older stats
+                    mUsageMatrix = null;
+                    mUsageMatrixTemplate = null;
                     updateBody();
                 }
             }
@@ -1137,6 +1154,7 @@ public class DataUsageSummary extends Fragment {
 
         final Context context = getActivity();
 
+        long totalBytes = 0;
         NetworkStatsHistory.Entry entry = null;
         if (isAppDetailMode() && mChartData != null && mChartData.detail != null) {
             // bind foreground/background to piechart and labels
@@ -1158,20 +1176,30 @@ public class DataUsageSummary extends Fragment {
 
             // and finally leave with summary data for label below
             entry = mChartData.detail.getValues(start, end, now, null);
+            totalBytes = entry.rxBytes + entry.txBytes;
 
             getLoaderManager().destroyLoader(LOADER_SUMMARY);
 
         } else {
             if (mChartData != null) {
-                entry = mChartData.network.getValues(start, end, now, null);
+                totalBytes = mChartData.networkUsage.getTotal(start, end, now);
             }
 
-            // kick off loader for detailed stats
-            getLoaderManager().restartLoader(LOADER_SUMMARY,
-                    SummaryForAllUidLoader.buildArgs(mTemplate, start, end), mSummaryCallbacks);
+            if (canSummarizeLocally()) {
+                // answer from the usage matrix without asking the service
+                getLoaderManager().destroyLoader(LOADER_SUMMARY);
+                mAdapter.bindStats(mUsageMatrix.getSummary(start, end, now));
+                updateEmptyVisible();
+            } else {
+                // kick off loader for detailed stats
+                getLoaderManager().restartLoader(LOADER_SUMMARY,
+                        SummaryForAllUidLoader.buildArgs(mTemplate, start, end),
+                        mSummaryCallbacks);
+            }
+
+            updateUsageMatrix();
         }
 
-        final long totalBytes = entry != null ? entry.rxBytes + entry.txBytes : 0;
         final String totalPhrase = Formatter.formatFileSize(context, totalBytes);
         final String rangePhrase = formatDateRange(context, start, end, false);
 
@@ -1179,11 +1207,47 @@ public class DataUsageSummary extends Fragment {
                 getString(R.string.data_usage_total_during_range, totalPhrase, rangePhrase));
     }
 
+    /**
+     * Return whether {@link #mUsageMatrix} covers the current template and
+     * inspection range.
+     */
+    private boolean canSummarizeLocally() {
+        return mUsageMatrix != null && mUsageMatrix.covers(
+                mTemplate, mChart.getInspectStart(), mChart.getInspectEnd());
+    }
+
+    /**
+     * Kick off loading {@link #mUsageMatrix} for the current template and
+     * selected cycle, unless it is already loaded or loading.
+     */
+    private void updateUsageMatrix() {
+        final CycleItem cycle = (CycleItem) mCycleSpinner.getSelectedItem();
+        if (cycle == null || cycle.end <= cycle.start) return;
+
+        if (Objects.equal(mUsageMatrixTemplate, mTemplate) && mUsageMatrixStart == cycle.start
+                && mUsageMatrixEnd == cycle.end) {
+            return;
+        }
+
+        mUsageMatrix = null;
+        mUsageMatrixTemplate = mTemplate;
+        mUsageMatrixStart = cycle.start;
+        mUsageMatrixEnd = cycle.end;
+        getLoaderManager().restartLoader(LOADER_USAGE_MATRIX,
+                UidUsageMatrixLoader.buildArgs(mTemplate, cycle.start, cycle.end),
+                mUsageMatrixCallbacks);
+    }
+
+    private void updateEmptyVisible() {
+        final boolean isEmpty = mAdapter.isEmpty() && !isAppDetailMode();
+        mEmpty.setVisibility(isEmpty ? View.VISIBLE : View.GONE);
+    }
+
     private final LoaderCallbacks<ChartData> mChartDataCallbacks = new LoaderCallbacks<
             ChartData>() {
         /** {@inheritDoc} */
         public Loader<ChartData> onCreateLoader(int id, Bundle args) {
-            return new ChartDataLoader(getActivity(), mStatsService, args);
+            return new ChartDataLoader(getActivity(), mStatsCache, args);
         }
 
         /** {@inheritDoc} */
@@ -1214,7 +1278,7 @@ public class DataUsageSummary extends Fragment {
             NetworkStats>() {
         /** {@inheritDoc} */
         public Loader<NetworkStats> onCreateLoader(int id, Bundle args) {
-            return new SummaryForAllUidLoader(getActivity(), mStatsService, args);
+            return new SummaryForAllUidLoader(getActivity(), mStatsCache, args);
         }
 
         /** {@inheritDoc} */
@@ -1228,10 +1292,23 @@ public class DataUsageSummary extends Fragment {
             mAdapter.bindStats(null);
             updateEmptyVisible();
         }
+    };
 
-        private void updateEmptyVisible() {
-            final boolean isEmpty = mAdapter.isEmpty() && !isAppDetailMode();
-            mEmpty.setVisibility(isEmpty ? View.VISIBLE : View.GONE);
+    private final LoaderCallbacks<UidUsageMatrix> mUsageMatrixCallbacks = new LoaderCallbacks<
+            UidUsageMatrix>() {
+        /** {@inheritDoc} */
+        public Loader<UidUsageMatrix> onCreateLoader(int id, Bundle args) {
+            return new UidUsageMatrixLoader(getActivity(), mStatsCache, args);
+        }
+
+        /** {@inheritDoc} */
+        public void onLoadFinished(Loader<UidUsageMatrix> loader, UidUsageMatrix data) {
+            mUsageMatrix = data;
+        }
+
+        /** {@inheritDoc} */
+        public void onLoaderReset(Loader<UidUsageMatrix> loader) {
+            mUsageMatrix = null;
         }
     };
 
@@ -1257,6 +1334,14 @@ public class DataUsageSummary extends Fragment {
     }
 
     private DataUsageChartListener mChartListener = new DataUsageChartListener() {
+        /** {@inheritDoc} */
+        public void onInspectRangeChanging() {
+            // follow the sweeps live only when that needs no service calls
+            if (!isAppDetailMode() && canSummarizeLocally()) {
+                updateDetailData();
+            }
+        }
+
         /** {@inheritDoc} */
         public void onInspectRangeChanged() {
             if (LOGD) Log.d(TAG, "onInspectRangeChanged()");
@@ -1421,6 +1506,9 @@ public class DataUsageSummary extends Fragment {
      * Adapter of applications, sorted by total usage descending.
      */
     public static class DataUsageAdapter extends BaseAdapter {
+        /** Number of top items whose {@link UidDetail} is resolved ahead of time. */
+        private static final int PREFETCH_COUNT = 16;
+
         private final UidDetailProvider mProvider;
         private final int mInsetSide;
 
@@ -1470,6 +1558,15 @@ public class DataUsageSummary extends Fragment {
 
             Collections.sort(mItems);
             mLargest = (mItems.size() > 0) ? mItems.get(0).total : 0;
+
+            // resolve labels and icons for the rows about to be shown
+            final int prefetchCount = Math.min(mItems.size(), PREFETCH_COUNT);
+            final int[] prefetchUids = new int[prefetchCount];
+            for (int i = 0; i < prefetchCount; i++) {
+                prefetchUids[i] = mItems.get(i).uids[0];
+            }
+            mProvider.prefetch(prefetchUids);
+
             notifyDataSetChanged();
         }
 
@@ -44,7 +44,6 @@ import android.widget.CompoundButton.OnCheckedChangeListener;
 import android.widget.DatePicker;
 import android.widget.LinearLayout;
 import android.widget.ListPopupWindow;
-import android.widget.SimpleAdapter;
 import android.widget.TextView;
 import android.widget.TimePicker;
 
@@ -71,7 +70,7 @@ public class DateTimeSettingsSetupWizard extends Activity
 
     private Button mTimeZoneButton;
     private ListPopupWindow mTimeZonePopup;
-    private SimpleAdapter mTimeZoneAdapter;
+    private ZonePicker.ZoneAdapter mTimeZoneAdapter;
     private TimeZone mSelectedTimeZone;
 
     private TimePicker mTimePicker;
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.os.SystemClock;
+
+import java.util.HashMap;
+
+/**
+ * Times at which the phases of the last launch of {@link Settings} were
+ * reached, read by the launch performance instrumentation.
+ */
+public final class LaunchTimings {
+    /** {@link Settings#onCreate} was entered. */
+    public static final String PHASE_CREATE = "create";
+    /** The top-level headers were built. */
+    public static final String PHASE_HEADERS_BUILT = "headers_built";
+    /** The first frame was drawn. */
+    public static final String PHASE_FIRST_DRAW = "first_draw";
+    /** The Wi-Fi and Bluetooth switches were hooked up. */
+    public static final String PHASE_ENABLERS_READY = "enablers_ready";
+
+    private static final HashMap<String, Long> sTimes = new HashMap<String, Long>();
+
+    private LaunchTimings() {
+    }
+
+    /**
+     * Forgets the previous launch and marks {@link #PHASE_CREATE}.
+     */
+    static synchronized void start() {
+        sTimes.clear();
+        mark(PHASE_CREATE);
+    }
+
+    static synchronized void mark(String phase) {
+        if (!sTimes.containsKey(phase)) {
+            sTimes.put(phase, SystemClock.uptimeMillis());
+            LaunchTimings.class.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the milliseconds from {@link #PHASE_CREATE} to the given
+     * phase, or -1 if it wasn't reached.
+     */
+    public static synchronized long getElapsed(String phase) {
+        final Long start = sTimes.get(PHASE_CREATE);
+        final Long time = sTimes.get(phase);
+        if (start == null || time == null) return -1;
+        return time - start;
+    }
+
+    /**
+     * Waits up to the given time for the given phase to be reached, and
+     * returns whether it was.
+     */
+    public static synchronized boolean await(String phase, long timeoutMillis)
+            throws InterruptedException {
+        final long end = SystemClock.uptimeMillis() + timeoutMillis;
+        while (!sTimes.containsKey(phase)) {
+            final long remaining = end - SystemClock.uptimeMillis();
+            if (remaining <= 0) return false;
+            LaunchTimings.class.wait(remaining);
+        }
+        return true;
+    }
+}
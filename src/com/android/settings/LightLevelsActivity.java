@@ -6,16 +6,22 @@ import android.app.AlertDialog;
 import android.content.ContentResolver;
 import android.content.DialogInterface;
 import android.content.res.Configuration;
+import android.database.ContentObserver;
 import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IPowerManager;
 import android.os.ServiceManager;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.text.InputType;
 import android.util.Log;
 import android.view.Gravity;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.WindowManager;
 import android.view.View.OnClickListener;
@@ -28,6 +34,7 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.android.settings.R;
+import com.android.settings.cyanogenmod.LightLevelsRecording;
 
 public class LightLevelsActivity extends Activity implements OnClickListener {
 
@@ -38,7 +45,14 @@ public class LightLevelsActivity extends Activity implements OnClickListener {
     // Buttons buttons 4000-4999
     // Keyboard buttons 5000-5999
 
-    private static final int UPDATE_RATE = 400;
+    // The values shown are refreshed shortly after the sensor reports a
+    // change, and once more after the power manager had time to debounce
+    // and filter it
+    private static final int REFRESH_DELAY = 100;
+    private static final int SETTLE_DELAY = 3000;
+
+    private static final int MENU_RECORD = Menu.FIRST;
+    private static final int MENU_REPLAY = Menu.FIRST + 1;
 
     private boolean mHasKeyboard;
     private boolean mHasChanges;
@@ -60,6 +74,16 @@ public class LightLevelsActivity extends Activity implements OnClickListener {
     private int mEditedId;
 
     private Handler mHandler;
+    private SensorManager mSensorManager;
+    private Sensor mLightSensor;
+    private IPowerManager mPower;
+    private ContentObserver mSettingsObserver;
+    private boolean mAutoLcd;
+    private boolean mFilterEnabled;
+    private int mRawLux = -1;
+
+    private final LightLevelsRecording mRecording = new LightLevelsRecording();
+    private boolean mRecordingActive;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -67,9 +91,18 @@ public class LightLevelsActivity extends Activity implements OnClickListener {
         setTitle(R.string.ll_title);
         setContentView(R.layout.lightlevels);
 
-        mSensorRange = (int) ((SensorManager) getSystemService(SENSOR_SERVICE)).getDefaultSensor(
-                Sensor.TYPE_LIGHT).getMaximumRange();
+        mSensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
+        mLightSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
+        mSensorRange = (int) mLightSensor.getMaximumRange();
+        mPower = IPowerManager.Stub.asInterface(ServiceManager.getService("power"));
         mHandler = new Handler();
+        mSettingsObserver = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                readSettings();
+                refresh();
+            }
+        };
         mSave = (Button) findViewById(R.id.btn_save);
         mSave.setOnClickListener(this);
         mDefaults = (Button) findViewById(R.id.btn_default);
@@ -123,13 +156,62 @@ public class LightLevelsActivity extends Activity implements OnClickListener {
     @Override
     public void onResume() {
         super.onResume();
-        mUpdateTask.run();
+        ContentResolver cr = getContentResolver();
+        cr.registerContentObserver(Settings.System.getUriFor(
+                Settings.System.SCREEN_BRIGHTNESS_MODE), false, mSettingsObserver);
+        cr.registerContentObserver(Settings.System.getUriFor(
+                Settings.System.LIGHT_FILTER), false, mSettingsObserver);
+        readSettings();
+        mSensorManager.registerListener(mSensorListener, mLightSensor,
+                SensorManager.SENSOR_DELAY_NORMAL);
+        refresh();
     }
 
     @Override
     public void onPause() {
         super.onPause();
-        mHandler.removeCallbacks(mUpdateTask);
+        mSensorManager.unregisterListener(mSensorListener);
+        getContentResolver().unregisterContentObserver(mSettingsObserver);
+        mHandler.removeCallbacks(mRefreshTask);
+        mHandler.removeCallbacks(mSettleTask);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        menu.add(0, MENU_RECORD, 0, R.string.ll_record_start);
+        menu.add(0, MENU_REPLAY, 0, R.string.ll_replay);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(MENU_RECORD).setTitle(mRecordingActive
+                ? R.string.ll_record_stop : R.string.ll_record_start);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case MENU_RECORD:
+                mRecordingActive = !mRecordingActive;
+                if (mRecordingActive) {
+                    mRecording.clear();
+                    refresh();
+                }
+                invalidateOptionsMenu();
+                return true;
+            case MENU_REPLAY:
+                // Replays against the levels being edited, saved or not
+                new AlertDialog.Builder(this)
+                        .setTitle(R.string.ll_replay_title)
+                        .setMessage(mRecording.describeReplay(this, mLevels, mLcdValues,
+                                mBtnValues, mKbValues, mHasKeyboard))
+                        .setPositiveButton(android.R.string.ok, null)
+                        .show();
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
     }
 
     @Override
@@ -351,49 +433,83 @@ public class LightLevelsActivity extends Activity implements OnClickListener {
         return sb.toString();
     }
 
-    private Runnable mUpdateTask = new Runnable() {
+    private final SensorEventListener mSensorListener = new SensorEventListener() {
+        public void onSensorChanged(SensorEvent event) {
+            mRawLux = (int) event.values[0];
+            mHandler.removeCallbacks(mRefreshTask);
+            mHandler.postDelayed(mRefreshTask, REFRESH_DELAY);
+            mHandler.removeCallbacks(mSettleTask);
+            mHandler.postDelayed(mSettleTask, SETTLE_DELAY);
+        }
+
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    };
+
+    private final Runnable mRefreshTask = new Runnable() {
         public void run() {
-            boolean autoLcd = Settings.System.getInt(getContentResolver(),
-                    Settings.System.SCREEN_BRIGHTNESS_MODE, 1337) == Settings.System.SCREEN_BRIGHTNESS_MODE_AUTOMATIC;
-            boolean filterEnabled = Settings.System.getInt(getContentResolver(),
-                    Settings.System.LIGHT_FILTER, 0) != 0;
+            refresh();
+        }
+    };
 
-            try {
-                IPowerManager power = IPowerManager.Stub.asInterface(ServiceManager
-                        .getService("power"));
-                if (filterEnabled && autoLcd) {
-                    mSensor.setText(String.valueOf(power.getLightSensorValue()) + " / "
-                            + String.valueOf(power.getRawLightSensorValue()));
-                } else {
-                    String value = String.valueOf(power.getLightSensorValue());
-                    mSensor.setText(value + " / " + value);
-                }
-                if (autoLcd) {
-                    mScreen.setText(String.valueOf(power.getLightSensorScreenBrightness()));
-                } else {
-                    mScreen.setText(getString(R.string.ll_disabled));
-                }
-                mButtons.setText(String.valueOf(power.getLightSensorButtonBrightness()));
-                if (mHasKeyboard) {
-                    mKeyboard.setText(String.valueOf(power.getLightSensorKeyboardBrightness()));
-                }
-            } catch (Exception e) {
-                // Display "-" on any error
+    private final Runnable mSettleTask = new Runnable() {
+        public void run() {
+            refresh();
+        }
+    };
 
-                if (autoLcd) {
-                    mScreen.setText("-");
-                } else {
-                    mScreen.setText(getString(R.string.ll_disabled));
-                }
+    private void readSettings() {
+        mAutoLcd = Settings.System.getInt(getContentResolver(),
+                Settings.System.SCREEN_BRIGHTNESS_MODE, 1337) == Settings.System.SCREEN_BRIGHTNESS_MODE_AUTOMATIC;
+        mFilterEnabled = Settings.System.getInt(getContentResolver(),
+                Settings.System.LIGHT_FILTER, 0) != 0;
+    }
+
+    private void refresh() {
+        try {
+            int lux = mPower.getLightSensorValue();
+            if (mRawLux < 0) {
+                // No sensor event yet
+                mRawLux = mPower.getRawLightSensorValue();
+            }
+            if (mFilterEnabled && mAutoLcd) {
+                mSensor.setText(String.valueOf(lux) + " / " + String.valueOf(mRawLux));
+            } else {
+                String value = String.valueOf(lux);
+                mSensor.setText(value + " / " + value);
+            }
+            int screen = LightLevelsRecording.NO_VALUE;
+            if (mAutoLcd) {
+                screen = mPower.getLightSensorScreenBrightness();
+                mScreen.setText(String.valueOf(screen));
+            } else {
+                mScreen.setText(getString(R.string.ll_disabled));
+            }
+            int buttons = mPower.getLightSensorButtonBrightness();
+            mButtons.setText(String.valueOf(buttons));
+            int keyboard = 0;
+            if (mHasKeyboard) {
+                keyboard = mPower.getLightSensorKeyboardBrightness();
+                mKeyboard.setText(String.valueOf(keyboard));
+            }
 
-                mSensor.setText("- / -");
-                mButtons.setText("-");
-                mKeyboard.setText("-");
+            if (mRecordingActive) {
+                mRecording.record(SystemClock.elapsedRealtime(), lux, screen, buttons, keyboard);
             }
+        } catch (Exception e) {
+            // Display "-" on any error
 
-            mHandler.postDelayed(mUpdateTask, UPDATE_RATE);
+            if (mAutoLcd) {
+                mScreen.setText("-");
+            } else {
+                mScreen.setText(getString(R.string.ll_disabled));
+            }
+
+            mSensor.setText("- / -");
+            mButtons.setText("-");
+            mKeyboard.setText("-");
         }
-    };
+    }
 
     private void createEditor() {
         // Assume at least one defined level (two values)
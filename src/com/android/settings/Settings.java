@@ -21,13 +21,15 @@ import com.android.settings.bluetooth.BluetoothEnabler;
 import com.android.settings.fuelgauge.PowerUsageSummary;
 import com.android.settings.wifi.WifiEnabler;
 
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
-import android.content.pm.ResolveInfo;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.Preference;
 import android.preference.PreferenceActivity;
@@ -38,6 +40,7 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.ImageView;
@@ -48,6 +51,7 @@ import android.widget.TextView;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Top-level settings activity to handle single pane and double pane UI layout.
@@ -81,8 +85,27 @@ public class Settings extends PreferenceActivity implements ButtonBarHandler {
     protected HashMap<Integer, Integer> mHeaderIndexMap = new HashMap<Integer, Integer>();
     private List<Header> mHeaders;
 
+    // XML intents of the headers looked up through SettingsHeaderCache, and
+    // whether any of them was taken from the cache.
+    private final HashMap<Integer, Intent> mHeaderIntents = new HashMap<Integer, Intent>();
+    private boolean mHeadersFromCache;
+    private AsyncTask<Void, Void, Boolean> mVerifyHeadersTask;
+
+    // The cached headers are only checked once after the first frame, so
+    // drop them and look the headers up again if any package changes while
+    // we are running.
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            SettingsHeaderCache.getInstance(context).invalidate();
+            invalidateHeaders();
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        LaunchTimings.start();
+
         if (getIntent().getBooleanExtra(EXTRA_CLEAR_UI_OPTIONS, false)) {
             getWindow().setUiOptions(0);
         }
@@ -122,6 +145,95 @@ public class Settings extends PreferenceActivity implements ButtonBarHandler {
         // TODO Add support for android.R.id.home in all Setting's onOptionsItemSelected
         // getActionBar().setDisplayOptions(ActionBar.DISPLAY_HOME_AS_UP,
         // ActionBar.DISPLAY_HOME_AS_UP);
+
+        // Bringing up the switches and checking the cached headers can wait
+        // until the first frame is up.
+        final View decor = getWindow().getDecorView();
+        decor.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+            public boolean onPreDraw() {
+                decor.getViewTreeObserver().removeOnPreDrawListener(this);
+                // Runs once the frame being drawn is done
+                decor.post(new Runnable() {
+                    public void run() {
+                        onFirstDraw();
+                    }
+                });
+                return true;
+            }
+        });
+
+        IntentFilter filter = new IntentFilter(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        registerReceiver(mPackageReceiver, filter);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        unregisterReceiver(mPackageReceiver);
+        if (mVerifyHeadersTask != null) {
+            mVerifyHeadersTask.cancel(false);
+            mVerifyHeadersTask = null;
+        }
+    }
+
+    private void onFirstDraw() {
+        LaunchTimings.mark(LaunchTimings.PHASE_FIRST_DRAW);
+        if (isFinishing()) return;
+
+        ListAdapter listAdapter = getListAdapter();
+        if (listAdapter instanceof HeaderAdapter) {
+            ((HeaderAdapter) listAdapter).initEnablers();
+        }
+        LaunchTimings.mark(LaunchTimings.PHASE_ENABLERS_READY);
+
+        verifyHeaderCache();
+    }
+
+    /**
+     * Writes out the header lookups done while building the headers, or if
+     * cached ones were used instead, does the lookups again and rebuilds the
+     * headers if anything changed.
+     */
+    private void verifyHeaderCache() {
+        if (mHeaderIntents.isEmpty()) {
+            // Headers were restored from saved state
+            return;
+        }
+        final Context context = getApplicationContext();
+        final HashMap<Integer, Intent> intents = new HashMap<Integer, Intent>(mHeaderIntents);
+        final boolean fromCache = mHeadersFromCache;
+
+        mVerifyHeadersTask = new AsyncTask<Void, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(Void... params) {
+                final SettingsHeaderCache cache = SettingsHeaderCache.getInstance(context);
+                boolean changed = false;
+                if (fromCache) {
+                    ArrayList<SettingsHeaderCache.Record> records =
+                            new ArrayList<SettingsHeaderCache.Record>(intents.size());
+                    for (Map.Entry<Integer, Intent> entry : intents.entrySet()) {
+                        records.add(SettingsHeaderCache.resolve(
+                                context, entry.getKey(), entry.getValue()));
+                    }
+                    changed = cache.update(records);
+                }
+                cache.writeIfDirty();
+                return changed;
+            }
+
+            @Override
+            protected void onPostExecute(Boolean changed) {
+                // Not called once cancelled in onDestroy()
+                mVerifyHeadersTask = null;
+                if (changed && !isFinishing()) {
+                    invalidateHeaders();
+                }
+            }
+        }.execute();
     }
 
     @Override
@@ -313,9 +425,20 @@ public class Settings extends PreferenceActivity implements ButtonBarHandler {
         updateHeaderList(headers);
 
         mHeaders = headers;
+        LaunchTimings.mark(LaunchTimings.PHASE_HEADERS_BUILT);
     }
 
     private void updateHeaderList(List<Header> target) {
+        // May be called again through invalidateHeaders()
+        mFirstHeader = null;
+        mHeaderIndexMap.clear();
+        mHeaderIntents.clear();
+        mHeadersFromCache = false;
+
+        final SettingsHeaderCache cache = SettingsHeaderCache.getInstance(this);
+        final ArrayList<SettingsHeaderCache.Record> resolved =
+                new ArrayList<SettingsHeaderCache.Record>();
+
         int i = 0;
         while (i < target.size()) {
             Header header = target.get(i);
@@ -324,36 +447,16 @@ public class Settings extends PreferenceActivity implements ButtonBarHandler {
             if (id == R.id.dock_settings) {
                 if (!needsDockSettings())
                     target.remove(header);
-            } else if (id == R.id.operator_settings || id == R.id.manufacturer_settings ||
-                    id == R.id.advanced_settings) {
-                Utils.updateHeaderToSpecificActivityFromMetaDataOrRemove(this, target, header);
-            } else if (id == R.id.launcher_settings) {
-                Intent launcherIntent = new Intent(Intent.ACTION_MAIN);
-                launcherIntent.addCategory(Intent.CATEGORY_HOME);
-                launcherIntent.addCategory(Intent.CATEGORY_DEFAULT);
-
-                Intent launcherPreferencesIntent = new Intent(Intent.ACTION_MAIN);
-                launcherPreferencesIntent.addCategory("com.launcher.category.LAUNCHER_PREFERENCES");
-
-                ActivityInfo defaultLauncher = getPackageManager().resolveActivity(launcherIntent, PackageManager.MATCH_DEFAULT_ONLY).activityInfo;
-                launcherPreferencesIntent.setPackage(defaultLauncher.packageName);
-                ResolveInfo launcherPreferences = getPackageManager().resolveActivity(launcherPreferencesIntent, 0);
-                if (launcherPreferences != null) {
-                    header.intent = new Intent().setClassName(launcherPreferences.activityInfo.packageName,
-                            launcherPreferences.activityInfo.name);
+            } else if (SettingsHeaderCache.isCachedHeader(id)) {
+                mHeaderIntents.put(id, header.intent);
+                SettingsHeaderCache.Record record = cache.get(id);
+                if (record != null) {
+                    mHeadersFromCache = true;
                 } else {
-                    target.remove(header);
-                }
-            } else if (id == R.id.wifi_settings) {
-                // Remove WiFi Settings if WiFi service is not available.
-                if (!getPackageManager().hasSystemFeature(PackageManager.FEATURE_WIFI)) {
-                    target.remove(header);
-                }
-            } else if (id == R.id.bluetooth_settings) {
-                // Remove Bluetooth Settings if Bluetooth service is not available.
-                if (!getPackageManager().hasSystemFeature(PackageManager.FEATURE_BLUETOOTH)) {
-                    target.remove(header);
+                    record = SettingsHeaderCache.resolve(this, id, header.intent);
+                    resolved.add(record);
                 }
+                applyHeaderRecord(target, header, record);
             }
 
             // Increment if the current one wasn't removed by the Utils code.
@@ -367,6 +470,25 @@ public class Settings extends PreferenceActivity implements ButtonBarHandler {
                 i++;
             }
         }
+
+        // Written out once the first frame is drawn
+        cache.update(resolved);
+    }
+
+    private static void applyHeaderRecord(List<Header> target, Header header,
+            SettingsHeaderCache.Record record) {
+        if (record.removed) {
+            target.remove(header);
+            return;
+        }
+        if (record.title != null) {
+            header.title = record.title;
+            header.summary = record.summary;
+        }
+        if (record.packageName != null) {
+            // Replace the intent with this specific activity
+            header.intent = new Intent().setClassName(record.packageName, record.className);
+        }
     }
 
     private boolean needsDockSettings() {
@@ -412,8 +534,13 @@ public class Settings extends PreferenceActivity implements ButtonBarHandler {
         static final int HEADER_TYPE_SWITCH = 2;
         private static final int HEADER_TYPE_COUNT = HEADER_TYPE_SWITCH + 1;
 
-        private final WifiEnabler mWifiEnabler;
-        private final BluetoothEnabler mBluetoothEnabler;
+        private WifiEnabler mWifiEnabler;
+        private BluetoothEnabler mBluetoothEnabler;
+
+        // Switches shown before initEnablers(), and whether resume() was called
+        private Switch mWifiSwitch;
+        private Switch mBluetoothSwitch;
+        private boolean mResumed;
 
         private static class HeaderViewHolder {
             ImageView icon;
@@ -463,11 +590,32 @@ public class Settings extends PreferenceActivity implements ButtonBarHandler {
         public HeaderAdapter(Context context, List<Header> objects) {
             super(context, 0, objects);
             mInflater = (LayoutInflater)context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-            
+        }
+
+        /**
+         * Creates the enablers behind the switches, which brings up the
+         * Bluetooth stack, so is left until after the first frame.
+         */
+        void initEnablers() {
+            if (mWifiEnabler != null) return;
+
+            final Context context = getContext();
             // Temp Switches provided as placeholder until the adapter replaces these with actual
-            // Switches inflated from their layouts. Must be done before adapter is set in super
+            // Switches inflated from their layouts
             mWifiEnabler = new WifiEnabler(context, new Switch(context));
             mBluetoothEnabler = new BluetoothEnabler(context, new Switch(context));
+            if (mWifiSwitch != null) {
+                mWifiEnabler.setSwitch(mWifiSwitch);
+                mWifiSwitch = null;
+            }
+            if (mBluetoothSwitch != null) {
+                mBluetoothEnabler.setSwitch(mBluetoothSwitch);
+                mBluetoothSwitch = null;
+            }
+            if (mResumed) {
+                mWifiEnabler.resume();
+                mBluetoothEnabler.resume();
+            }
         }
 
         @Override
@@ -523,9 +671,21 @@ public class Settings extends PreferenceActivity implements ButtonBarHandler {
                 case HEADER_TYPE_SWITCH:
                     // Would need a different treatment if the main menu had more switches
                     if (header.id == R.id.wifi_settings) {
-                        mWifiEnabler.setSwitch(holder.switch_);
+                        if (mWifiEnabler != null) {
+                            mWifiEnabler.setSwitch(holder.switch_);
+                        } else {
+                            mWifiSwitch = holder.switch_;
+                            if (mBluetoothSwitch == mWifiSwitch) mBluetoothSwitch = null;
+                            holder.switch_.setEnabled(false);
+                        }
                     } else {
-                        mBluetoothEnabler.setSwitch(holder.switch_);
+                        if (mBluetoothEnabler != null) {
+                            mBluetoothEnabler.setSwitch(holder.switch_);
+                        } else {
+                            mBluetoothSwitch = holder.switch_;
+                            if (mWifiSwitch == mBluetoothSwitch) mWifiSwitch = null;
+                            holder.switch_.setEnabled(false);
+                        }
                     }
                     // No break, fall through on purpose to update common fields
 
@@ -547,13 +707,19 @@ public class Settings extends PreferenceActivity implements ButtonBarHandler {
         }
 
         public void resume() {
-            mWifiEnabler.resume();
-            mBluetoothEnabler.resume();
+            mResumed = true;
+            if (mWifiEnabler != null) {
+                mWifiEnabler.resume();
+                mBluetoothEnabler.resume();
+            }
         }
         
         public void pause() {
-            mWifiEnabler.pause();
-            mBluetoothEnabler.pause();
+            mResumed = false;
+            if (mWifiEnabler != null) {
+                mWifiEnabler.pause();
+                mBluetoothEnabler.pause();
+            }
         }
     }
 
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.Build;
+import android.preference.PreferenceActivity.Header;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.internal.os.AtomicFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Persistent results of the {@link PackageManager} lookups that decide
+ * whether and how some top-level headers of {@link Settings} are shown, so
+ * that the header list can be built on launch without asking the package
+ * manager again.
+ *
+ * <p>All records are dropped when the version, locale or system build
+ * differs from the one they were stored with.  Package changes are not
+ * looked for while the headers are built: {@link Settings} does the lookups
+ * again in the background after its first frame and rebuilds the headers if
+ * any record changed, and drops the records if packages change while it is
+ * running.
+ */
+public final class SettingsHeaderCache {
+    static final String TAG = "SettingsHeaderCache";
+    static final boolean DEBUG = false;
+
+    static final String FILE_NAME = "settings_headers.bin";
+
+    // Bump whenever the record layout changes.
+    static final int VERSION = 1;
+
+    private static final String LAUNCHER_PREFERENCES_CATEGORY =
+            "com.launcher.category.LAUNCHER_PREFERENCES";
+
+    static class Record {
+        int id;
+        boolean removed;
+
+        /**
+         * Replacement title and summary, or a null title to keep the ones
+         * from XML.
+         */
+        String title;
+        String summary;
+        /** Replacement activity, or null to keep the intent from XML. */
+        String packageName;
+        String className;
+
+        boolean sameAs(Record other) {
+            return other != null && id == other.id && removed == other.removed
+                    && TextUtils.equals(title, other.title)
+                    && TextUtils.equals(summary, other.summary)
+                    && TextUtils.equals(packageName, other.packageName)
+                    && TextUtils.equals(className, other.className);
+        }
+    }
+
+    private static SettingsHeaderCache sInstance;
+
+    private final AtomicFile mFile;
+
+    // Synchronize on 'this' for the following.
+    private final HashMap<Integer, Record> mRecords = new HashMap<Integer, Record>();
+    // Locale the records were resolved in, or null if not loaded yet.
+    private String mLocale;
+    private boolean mDirty;
+
+    static synchronized SettingsHeaderCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SettingsHeaderCache(context.getApplicationContext().getFilesDir());
+        }
+        return sInstance;
+    }
+
+    private SettingsHeaderCache(File dir) {
+        mFile = new AtomicFile(new File(dir, FILE_NAME));
+    }
+
+    /**
+     * Whether the header with the given id depends on lookups kept here.
+     */
+    static boolean isCachedHeader(int id) {
+        return id == R.id.operator_settings || id == R.id.manufacturer_settings
+                || id == R.id.advanced_settings || id == R.id.launcher_settings
+                || id == R.id.wifi_settings || id == R.id.bluetooth_settings;
+    }
+
+    /**
+     * Does the lookups for the header with the given id, whose intent from
+     * XML is given.  Talks to the package manager, so best kept off the main
+     * thread where possible.
+     */
+    static Record resolve(Context context, int id, Intent intent) {
+        final PackageManager pm = context.getPackageManager();
+        final Record rec = new Record();
+        rec.id = id;
+
+        if (id == R.id.operator_settings || id == R.id.manufacturer_settings
+                || id == R.id.advanced_settings) {
+            resolveFromMetaData(pm, intent, rec);
+        } else if (id == R.id.launcher_settings) {
+            Intent launcherIntent = new Intent(Intent.ACTION_MAIN);
+            launcherIntent.addCategory(Intent.CATEGORY_HOME);
+            launcherIntent.addCategory(Intent.CATEGORY_DEFAULT);
+
+            ResolveInfo defaultLauncher = pm.resolveActivity(launcherIntent,
+                    PackageManager.MATCH_DEFAULT_ONLY);
+            ResolveInfo launcherPreferences = null;
+            if (defaultLauncher != null) {
+                Intent launcherPreferencesIntent = new Intent(Intent.ACTION_MAIN);
+                launcherPreferencesIntent.addCategory(LAUNCHER_PREFERENCES_CATEGORY);
+                launcherPreferencesIntent.setPackage(defaultLauncher.activityInfo.packageName);
+                launcherPreferences = pm.resolveActivity(launcherPreferencesIntent, 0);
+            }
+            if (launcherPreferences != null) {
+                rec.packageName = launcherPreferences.activityInfo.packageName;
+                rec.className = launcherPreferences.activityInfo.name;
+            } else {
+                rec.removed = true;
+            }
+        } else if (id == R.id.wifi_settings) {
+            // Remove WiFi Settings if WiFi service is not available.
+            rec.removed = !pm.hasSystemFeature(PackageManager.FEATURE_WIFI);
+        } else if (id == R.id.bluetooth_settings) {
+            // Remove Bluetooth Settings if Bluetooth service is not available.
+            rec.removed = !pm.hasSystemFeature(PackageManager.FEATURE_BLUETOOTH);
+        }
+        return rec;
+    }
+
+    /**
+     * Same lookup as
+     * {@link Utils#updateHeaderToSpecificActivityFromMetaDataOrRemove}.
+     */
+    private static void resolveFromMetaData(PackageManager pm, Intent intent, Record rec) {
+        Header header = new Header();
+        header.intent = intent;
+        if (!Utils.updateHeaderFromMetaData(pm, header)) {
+            // Did not find a matching activity, so remove the preference
+            rec.removed = true;
+            return;
+        }
+        rec.title = header.title.toString();
+        rec.summary = header.summary != null ? header.summary.toString() : null;
+        final ComponentName component = header.intent.getComponent();
+        rec.packageName = component.getPackageName();
+        rec.className = component.getClassName();
+    }
+
+    /**
+     * The record for the header with the given id, or null if there is
+     * none.  Reads the file on first use; it is small enough to be read
+     * while the headers are built.
+     */
+    synchronized Record get(int id) {
+        ensureLoaded();
+        return mRecords.get(id);
+    }
+
+    /**
+     * Stores the given records.  Returns true if any differs from what was
+     * stored before.
+     */
+    synchronized boolean update(List<Record> records) {
+        ensureLoaded();
+        boolean changed = false;
+        for (int i=0; i<records.size(); i++) {
+            Record rec = records.get(i);
+            if (!rec.sameAs(mRecords.get(rec.id))) {
+                mRecords.put(rec.id, rec);
+                changed = true;
+            }
+        }
+        if (changed) {
+            mDirty = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Forgets all records, e.g. because packages changed.
+     */
+    synchronized void invalidate() {
+        if (DEBUG) Log.i(TAG, "Invalidated");
+        mRecords.clear();
+        mLocale = Locale.getDefault().toString();
+        mDirty = false;
+        mFile.delete();
+    }
+
+    private void ensureLoaded() {
+        final String locale = Locale.getDefault().toString();
+        if (locale.equals(mLocale)) {
+            return;
+        }
+        if (mLocale != null) {
+            // The locale changed while we were running
+            if (DEBUG) Log.i(TAG, "Discarding headers for other locale");
+            mRecords.clear();
+            mLocale = locale;
+            mDirty = true;
+            return;
+        }
+        mLocale = locale;
+        FileInputStream fis = null;
+        try {
+            fis = mFile.openRead();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(fis));
+            if (in.readInt() != VERSION) {
+                if (DEBUG) Log.i(TAG, "Discarding cache with old version");
+                return;
+            }
+            if (!locale.equals(in.readUTF())) {
+                if (DEBUG) Log.i(TAG, "Discarding cache for other locale");
+                return;
+            }
+            if (!Build.FINGERPRINT.equals(in.readUTF())) {
+                if (DEBUG) Log.i(TAG, "Discarding cache from other build");
+                return;
+            }
+            final int count = in.readInt();
+            for (int i=0; i<count; i++) {
+                Record rec = new Record();
+                rec.id = in.readInt();
+                rec.removed = in.readBoolean();
+                rec.title = readString(in);
+                rec.summary = readString(in);
+                rec.packageName = readString(in);
+                rec.className = readString(in);
+                mRecords.put(rec.id, rec);
+            }
+            if (DEBUG) Log.i(TAG, "Loaded " + count + " cached headers");
+        } catch (FileNotFoundException e) {
+            // Nothing cached yet.
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read settings header cache", e);
+            mRecords.clear();
+        } finally {
+            if (fis != null) {
+                try {
+                    fis.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the records to disk if they changed.  Must not be called from
+     * the main thread.
+     */
+    synchronized void writeIfDirty() {
+        if (!mDirty) {
+            return;
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(VERSION);
+            out.writeUTF(mLocale);
+            out.writeUTF(Build.FINGERPRINT);
+            out.writeInt(mRecords.size());
+            for (Record rec : mRecords.values()) {
+                out.writeInt(rec.id);
+                out.writeBoolean(rec.removed);
+                writeString(out, rec.title);
+                writeString(out, rec.summary);
+                writeString(out, rec.packageName);
+                writeString(out, rec.className);
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+            mDirty = false;
+            if (DEBUG) Log.i(TAG, "Wrote " + mRecords.size() + " cached headers");
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write settings header cache", e);
+            if (fos != null) {
+                mFile.failWrite(fos);
+            }
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+}
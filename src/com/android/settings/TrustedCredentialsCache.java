@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.util.Log;
+
+import com.android.internal.os.AtomicFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Persistent summary of the certificates shown by
+ * {@link TrustedCredentialsSettings}, so that the lists can be shown
+ * without parsing every certificate each time the screen is opened.
+ *
+ * <p>Each record remembers the modification time and length of the
+ * certificate file it was parsed from, and is only used while that file is
+ * unchanged.  The deleted state of a record is only trusted while the
+ * directory of removed system certificates is unchanged.
+ */
+class TrustedCredentialsCache {
+    static final String TAG = "TrustedCredentialsCache";
+    static final boolean DEBUG = false;
+
+    static final String FILE_NAME = "trusted_credentials.bin";
+
+    // Bump whenever the record layout changes.
+    static final int VERSION = 1;
+
+    // Same locations and alias prefixes as TrustedCertificateStore
+    static final String PREFIX_SYSTEM = "system:";
+    static final String PREFIX_USER = "user:";
+    private static final File CA_CERTS_DIR_SYSTEM
+            = new File(System.getenv("ANDROID_ROOT") + "/etc/security/cacerts");
+    private static final File CA_CERTS_DIR_ADDED
+            = new File(System.getenv("ANDROID_DATA") + "/misc/keychain/cacerts-added");
+    private static final File CA_CERTS_DIR_DELETED
+            = new File(System.getenv("ANDROID_DATA") + "/misc/keychain/cacerts-removed");
+
+    static class Record {
+        String alias;
+        long certMtime;
+        long certLength;
+        /** Modification time of the removed certificates directory. */
+        long removedMtime;
+
+        String subjectPrimary;
+        String subjectSecondary;
+        boolean deleted;
+    }
+
+    private final AtomicFile mFile;
+
+    // Synchronize on 'this' for the following.
+    private final HashMap<String, Record> mRecords = new HashMap<String, Record>();
+    private boolean mLoaded;
+    private boolean mDirty;
+
+    TrustedCredentialsCache(File dir) {
+        mFile = new AtomicFile(new File(dir, FILE_NAME));
+    }
+
+    /**
+     * The file backing the given alias, or null if the alias is of an
+     * unknown kind.
+     */
+    static File getCertificateFile(String alias) {
+        if (alias.startsWith(PREFIX_SYSTEM)) {
+            return new File(CA_CERTS_DIR_SYSTEM, alias.substring(PREFIX_SYSTEM.length()));
+        }
+        if (alias.startsWith(PREFIX_USER)) {
+            return new File(CA_CERTS_DIR_ADDED, alias.substring(PREFIX_USER.length()));
+        }
+        return null;
+    }
+
+    /**
+     * Modification time of the directory holding the removed system
+     * certificates, which changes whenever one is disabled or enabled.
+     */
+    static long getRemovedMtime() {
+        return CA_CERTS_DIR_DELETED.lastModified();
+    }
+
+    /**
+     * Reads the summary from disk if that hasn't happened yet.  Must not
+     * be called from the main thread.
+     */
+    synchronized void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        FileInputStream fis = null;
+        try {
+            fis = mFile.openRead();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(fis));
+            if (in.readInt() != VERSION) {
+                if (DEBUG) Log.i(TAG, "Discarding cache with old version");
+                return;
+            }
+            final int count = in.readInt();
+            for (int i=0; i<count; i++) {
+                Record rec = new Record();
+                rec.alias = in.readUTF();
+                rec.certMtime = in.readLong();
+                rec.certLength = in.readLong();
+                rec.removedMtime = in.readLong();
+                rec.subjectPrimary = in.readUTF();
+                rec.subjectSecondary = in.readUTF();
+                rec.deleted = in.readBoolean();
+                mRecords.put(rec.alias, rec);
+            }
+            if (DEBUG) Log.i(TAG, "Loaded " + count + " cached certificates");
+        } catch (FileNotFoundException e) {
+            // Nothing cached yet.
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read trusted credentials cache", e);
+            mRecords.clear();
+        } finally {
+            if (fis != null) {
+                try {
+                    fis.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * The record of the given alias, if it was parsed from the certificate
+     * file as it is now on disk, or null.  The caller must check
+     * {@link Record#removedMtime} before relying on {@link Record#deleted}.
+     */
+    synchronized Record get(String alias) {
+        Record rec = mRecords.get(alias);
+        if (rec == null) {
+            return null;
+        }
+        File file = getCertificateFile(alias);
+        if (file == null || rec.certMtime != file.lastModified()
+                || rec.certLength != file.length()) {
+            if (DEBUG) Log.i(TAG, "Stale record for " + alias);
+            mRecords.remove(alias);
+            mDirty = true;
+            return null;
+        }
+        return rec;
+    }
+
+    /**
+     * Replaces all records whose alias starts with the given prefix, i.e.
+     * those of one tab, with the given ones.  Records previously returned
+     * by {@link #get} may be passed back unchanged, and don't count as
+     * changes.
+     */
+    synchronized void update(String aliasPrefix, List<Record> records) {
+        int existing = 0;
+        for (String alias : mRecords.keySet()) {
+            if (alias.startsWith(aliasPrefix)) {
+                existing++;
+            }
+        }
+        boolean changed = existing != records.size();
+        for (int i=0; i<records.size() && !changed; i++) {
+            Record rec = records.get(i);
+            changed = mRecords.get(rec.alias) != rec;
+        }
+        if (!changed) {
+            return;
+        }
+
+        for (Iterator<String> it = mRecords.keySet().iterator(); it.hasNext(); ) {
+            if (it.next().startsWith(aliasPrefix)) {
+                it.remove();
+            }
+        }
+        for (int i=0; i<records.size(); i++) {
+            Record rec = records.get(i);
+            mRecords.put(rec.alias, rec);
+        }
+        mDirty = true;
+    }
+
+    /**
+     * Writes the summary to disk if it changed.  Must not be called from
+     * the main thread.
+     */
+    synchronized void writeIfDirty() {
+        if (!mDirty) {
+            return;
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(VERSION);
+            out.writeInt(mRecords.size());
+            for (Record rec : mRecords.values()) {
+                out.writeUTF(rec.alias);
+                out.writeLong(rec.certMtime);
+                out.writeLong(rec.certLength);
+                out.writeLong(rec.removedMtime);
+                out.writeUTF(rec.subjectPrimary);
+                out.writeUTF(rec.subjectSecondary);
+                out.writeBoolean(rec.deleted);
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+            mDirty = false;
+            if (DEBUG) Log.i(TAG, "Wrote " + mRecords.size() + " cached certificates");
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write trusted credentials cache", e);
+            if (fos != null) {
+                mFile.failWrite(fos);
+            }
+        }
+    }
+}
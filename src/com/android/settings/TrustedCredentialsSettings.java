@@ -27,6 +27,7 @@ import android.os.RemoteException;
 import android.security.IKeyChainService;
 import android.security.KeyChain;
 import android.security.KeyChain.KeyChainConnection;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -39,12 +40,21 @@ import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.TabHost;
 import android.widget.TextView;
+import java.io.File;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.harmony.xnet.provider.jsse.TrustedCertificateStore;
 
 public class TrustedCredentialsSettings extends Fragment {
@@ -57,13 +67,15 @@ public class TrustedCredentialsSettings extends Fragment {
                R.id.system_tab,
                R.id.system_progress,
                R.id.system_list,
-               true),
+               true,
+               TrustedCredentialsCache.PREFIX_SYSTEM),
         USER("user",
              R.string.trusted_credentials_user_tab,
              R.id.user_tab,
              R.id.user_progress,
              R.id.user_list,
-             false);
+             false,
+             TrustedCredentialsCache.PREFIX_USER);
 
         private final String mTag;
         private final int mLabel;
@@ -71,13 +83,16 @@ public class TrustedCredentialsSettings extends Fragment {
         private final int mProgress;
         private final int mList;
         private final boolean mCheckbox;
-        private Tab(String tag, int label, int view, int progress, int list, boolean checkbox) {
+        private final String mAliasPrefix;
+        private Tab(String tag, int label, int view, int progress, int list, boolean checkbox,
+                String aliasPrefix) {
             mTag = tag;
             mLabel = label;
             mView = view;
             mProgress = progress;
             mList = list;
             mCheckbox = checkbox;
+            mAliasPrefix = aliasPrefix;
         }
         private Set<String> getAliases(TrustedCertificateStore store) {
             switch (this) {
@@ -136,13 +151,38 @@ public class TrustedCredentialsSettings extends Fragment {
         }
     }
 
+    private static final int PARSER_THREADS = Math.max(2,
+            Runtime.getRuntime().availableProcessors());
+
+    /** Workers parsing certificates that aren't cached, shared by both tabs */
+    private static final ThreadPoolExecutor sParseExecutor = new ThreadPoolExecutor(
+            PARSER_THREADS, PARSER_THREADS, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger(1);
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(
+                            r, "TrustedCredentials Parser #" + mCount.getAndIncrement());
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+
+    static {
+        sParseExecutor.allowCoreThreadTimeOut(true);
+    }
+
     // be careful not to use this on the UI thread since it is does file operations
     private final TrustedCertificateStore mStore = new TrustedCertificateStore();
 
+    // same here, it reads and writes its file
+    private TrustedCredentialsCache mCache;
+
     private TabHost mTabHost;
 
     @Override public View onCreateView(
             LayoutInflater inflater, ViewGroup parent, Bundle savedInstanceState) {
+        mCache = new TrustedCredentialsCache(getActivity().getCacheDir());
         mTabHost = (TabHost) inflater.inflate(R.layout.trusted_credentials, parent, false);
         mTabHost.setup();
         addTab(Tab.SYSTEM);
@@ -214,6 +254,8 @@ public class TrustedCredentialsSettings extends Fragment {
         private class AliasLoader extends AsyncTask<Void, Integer, List<CertHolder>> {
             ProgressBar mProgressBar;
             View mList;
+            /** Rows known from the cache, shown while the others are parsed */
+            volatile List<CertHolder> mCachedHolders;
             @Override protected void onPreExecute() {
                 View content = mTabHost.getTabContentView();
                 mProgressBar = (ProgressBar) content.findViewById(mTab.mProgress);
@@ -222,23 +264,105 @@ public class TrustedCredentialsSettings extends Fragment {
                 mList.setVisibility(View.GONE);
             }
             @Override protected List<CertHolder> doInBackground(Void... params) {
+                mCache.ensureLoaded();
                 Set<String> aliases = mTab.getAliases(mStore);
                 int max = aliases.size();
-                int progress = 0;
-                List<CertHolder> certHolders = new ArrayList<CertHolder>(max);
+                final long removedMtime = TrustedCredentialsCache.getRemovedMtime();
+                final List<CertHolder> certHolders = new ArrayList<CertHolder>(max);
+                final List<TrustedCredentialsCache.Record> records
+                        = new ArrayList<TrustedCredentialsCache.Record>(max);
+                List<String> uncached = new ArrayList<String>();
                 for (String alias : aliases) {
-                    X509Certificate cert = (X509Certificate) mStore.getCertificate(alias, true);
+                    TrustedCredentialsCache.Record rec = mCache.get(alias);
+                    if (rec == null) {
+                        uncached.add(alias);
+                        continue;
+                    }
+                    if (rec.removedMtime != removedMtime) {
+                        TrustedCredentialsCache.Record updated
+                                = new TrustedCredentialsCache.Record();
+                        updated.alias = rec.alias;
+                        updated.certMtime = rec.certMtime;
+                        updated.certLength = rec.certLength;
+                        updated.removedMtime = removedMtime;
+                        updated.subjectPrimary = rec.subjectPrimary;
+                        updated.subjectSecondary = rec.subjectSecondary;
+                        updated.deleted = mTab.deleted(mStore, alias);
+                        rec = updated;
+                    }
+                    records.add(rec);
                     certHolders.add(new CertHolder(mStore,
                                                    TrustedCertificateAdapter.this,
                                                    mTab,
-                                                   alias,
-                                                   cert));
+                                                   rec));
+                }
+                int progress = certHolders.size();
+                if (!certHolders.isEmpty() && !uncached.isEmpty()) {
+                    Collections.sort(certHolders);
+                    mCachedHolders = new ArrayList<CertHolder>(certHolders);
+                }
+                publishProgress(progress, max);
+
+                ExecutorCompletionService<CertHolder> parser
+                        = new ExecutorCompletionService<CertHolder>(sParseExecutor);
+                for (final String alias : uncached) {
+                    parser.submit(new Callable<CertHolder>() {
+                        public CertHolder call() {
+                            // stat before parsing, so a concurrent change
+                            // leaves the record stale rather than wrong
+                            File file = TrustedCredentialsCache.getCertificateFile(alias);
+                            TrustedCredentialsCache.Record rec
+                                    = new TrustedCredentialsCache.Record();
+                            rec.alias = alias;
+                            rec.certMtime = file != null ? file.lastModified() : 0;
+                            rec.certLength = file != null ? file.length() : 0;
+                            rec.removedMtime = removedMtime;
+                            X509Certificate cert
+                                    = (X509Certificate) mStore.getCertificate(alias, true);
+                            CertHolder certHolder = new CertHolder(mStore,
+                                                                   TrustedCertificateAdapter.this,
+                                                                   mTab,
+                                                                   alias,
+                                                                   cert);
+                            rec.subjectPrimary = certHolder.mSubjectPrimary;
+                            rec.subjectSecondary = certHolder.mSubjectSecondary;
+                            rec.deleted = certHolder.mDeleted;
+                            synchronized (records) {
+                                records.add(rec);
+                            }
+                            return certHolder;
+                        }
+                    });
+                }
+                for (int i = 0; i < uncached.size(); i++) {
+                    try {
+                        certHolders.add(parser.take().get());
+                    } catch (ExecutionException e) {
+                        Log.w(TAG, "Unable to parse certificate", e.getCause());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return certHolders;
+                    }
                     publishProgress(++progress, max);
                 }
                 Collections.sort(certHolders);
+
+                synchronized (records) {
+                    mCache.update(mTab.mAliasPrefix, records);
+                }
+                mCache.writeIfDirty();
                 return certHolders;
             }
             @Override protected void onProgressUpdate(Integer... progressAndMax) {
+                List<CertHolder> cachedHolders = mCachedHolders;
+                if (cachedHolders != null) {
+                    mCachedHolders = null;
+                    mCertHolders.clear();
+                    mCertHolders.addAll(cachedHolders);
+                    notifyDataSetChanged();
+                    mProgressBar.setVisibility(View.GONE);
+                    mList.setVisibility(View.VISIBLE);
+                }
                 int progress = progressAndMax[0];
                 int max = progressAndMax[1];
                 if (max != mProgressBar.getMax()) {
@@ -263,9 +387,11 @@ public class TrustedCredentialsSettings extends Fragment {
         private final TrustedCertificateAdapter mAdapter;
         private final Tab mTab;
         private final String mAlias;
-        private final X509Certificate mX509Cert;
 
-        private final SslCertificate mSslCert;
+        // null until loaded, for rows restored from the cache
+        private X509Certificate mX509Cert;
+        private SslCertificate mSslCert;
+
         private final String mSubjectPrimary;
         private final String mSubjectSecondary;
         private boolean mDeleted;
@@ -308,6 +434,33 @@ public class TrustedCredentialsSettings extends Fragment {
             }
             mDeleted = mTab.deleted(mStore, mAlias);
         }
+        private CertHolder(TrustedCertificateStore store,
+                           TrustedCertificateAdapter adapter,
+                           Tab tab,
+                           TrustedCredentialsCache.Record record) {
+            mStore = store;
+            mAdapter = adapter;
+            mTab = tab;
+            mAlias = record.alias;
+            mSubjectPrimary = record.subjectPrimary;
+            mSubjectSecondary = record.subjectSecondary;
+            mDeleted = record.deleted;
+        }
+        /**
+         * Loads the certificate if this row was restored from the cache.
+         * Does file operations, so not for the UI thread.
+         */
+        private synchronized boolean loadCertificate() {
+            if (mX509Cert == null) {
+                X509Certificate cert = (X509Certificate) mStore.getCertificate(mAlias, true);
+                if (cert == null) {
+                    return false;
+                }
+                mX509Cert = cert;
+                mSslCert = new SslCertificate(cert);
+            }
+            return true;
+        }
         @Override public int compareTo(CertHolder o) {
             int primary = this.mSubjectPrimary.compareToIgnoreCase(o.mSubjectPrimary);
             if (primary != 0) {
@@ -334,6 +487,10 @@ public class TrustedCredentialsSettings extends Fragment {
     }
 
     private void showCertDialog(final CertHolder certHolder) {
+        if (certHolder.mSslCert == null) {
+            new CertLoader(certHolder).execute();
+            return;
+        }
         View view = certHolder.mSslCert.inflateCertificateView(getActivity());
         AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
         builder.setTitle(com.android.internal.R.string.ssl_certificate);
@@ -378,6 +535,24 @@ public class TrustedCredentialsSettings extends Fragment {
         certDialog.show();
     }
 
+    private class CertLoader extends AsyncTask<Void, Void, Boolean> {
+        private final CertHolder mCertHolder;
+        private CertLoader(CertHolder certHolder) {
+            mCertHolder = certHolder;
+        }
+        @Override protected Boolean doInBackground(Void... params) {
+            return mCertHolder.loadCertificate();
+        }
+        @Override protected void onPostExecute(Boolean ok) {
+            if (ok && getActivity() != null) {
+                showCertDialog(mCertHolder);
+            } else if (!ok) {
+                // gone since the list was loaded
+                mCertHolder.mAdapter.load();
+            }
+        }
+    }
+
     private class AliasOperation extends AsyncTask<Void, Void, Boolean> {
         private final CertHolder mCertHolder;
         private AliasOperation(CertHolder certHolder) {
@@ -389,6 +564,9 @@ public class TrustedCredentialsSettings extends Fragment {
                 IKeyChainService service = keyChainConnection.getService();
                 try {
                     if (mCertHolder.mDeleted) {
+                        if (!mCertHolder.loadCertificate()) {
+                            return false;
+                        }
                         byte[] bytes = mCertHolder.mX509Cert.getEncoded();
                         service.installCaCertificate(bytes);
                         return true;
@@ -227,10 +227,26 @@ public class Utils {
     public static boolean updateHeaderToSpecificActivityFromMetaDataOrRemove(Context context,
             List<Header> target, Header header) {
 
+        if (updateHeaderFromMetaData(context.getPackageManager(), header)) {
+            return true;
+        }
+
+        // Did not find a matching activity, so remove the preference
+        if (target.remove(header)) System.err.println("Removed " + header.id);
+
+        return false;
+    }
+
+    /**
+     * Points the given header at the first activity in the system image
+     * that matches its intent, with the title and summary from the
+     * activity's meta-data.  Returns false, leaving the header as it was,
+     * if there is no such activity.
+     */
+    static boolean updateHeaderFromMetaData(PackageManager pm, Header header) {
         Intent intent = header.intent;
         if (intent != null) {
             // Find the activity that is in the system image
-            PackageManager pm = context.getPackageManager();
             List<ResolveInfo> list = pm.queryIntentActivities(intent, PackageManager.GET_META_DATA);
             int listSize = list.size();
             for (int i = 0; i < listSize; i++) {
@@ -277,10 +293,6 @@ public class Utils {
                 }
             }
         }
-
-        // Did not find a matching activity, so remove the preference
-        if (target.remove(header)) System.err.println("Removed " + header.id);
-
         return false;
     }
 
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.content.Context;
+import android.content.res.XmlResourceParser;
+import android.util.Log;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The time zones of {@code R.xml.timezones}, with their GMT offset on the
+ * current day, in parallel arrays.  Both orders the zone picker offers are
+ * kept as permutations of the array indices.  Built once and shared until
+ * the locale or the day changes.
+ */
+final class ZoneIndex {
+    private static final String TAG = "ZoneIndex";
+
+    private static final String XMLTAG_TIMEZONE = "timezone";
+
+    private static final int HOURS_1 = 60 * 60000;
+
+    private static ZoneIndex sInstance;
+
+    private final Locale mLocale;
+    private final int mYear;
+    private final int mDayOfYear;
+
+    final int size;
+    final String[] ids;
+    final String[] displayNames;
+    /** Offsets formatted like "GMT+1:00". */
+    final String[] gmtOffsets;
+    final int[] offsets;
+
+    /** Indices sorted by display name. */
+    final int[] byName;
+    /** Indices sorted by offset, in file order for equal offsets. */
+    final int[] byOffset;
+
+    /**
+     * The index for the current locale and day, built if needed.
+     */
+    static synchronized ZoneIndex get(Context context) {
+        final Locale locale = context.getResources().getConfiguration().locale;
+        final Calendar now = Calendar.getInstance();
+        if (sInstance == null || !sInstance.mLocale.equals(locale)
+                || sInstance.mYear != now.get(Calendar.YEAR)
+                || sInstance.mDayOfYear != now.get(Calendar.DAY_OF_YEAR)) {
+            sInstance = new ZoneIndex(context, locale, now);
+        }
+        return sInstance;
+    }
+
+    private ZoneIndex(Context context, Locale locale, Calendar now) {
+        mLocale = locale;
+        mYear = now.get(Calendar.YEAR);
+        mDayOfYear = now.get(Calendar.DAY_OF_YEAR);
+
+        final ArrayList<String> zoneIds = new ArrayList<String>();
+        final ArrayList<String> zoneNames = new ArrayList<String>();
+        readZones(context, zoneIds, zoneNames);
+
+        final long date = now.getTimeInMillis();
+        size = zoneIds.size();
+        ids = zoneIds.toArray(new String[size]);
+        displayNames = zoneNames.toArray(new String[size]);
+        gmtOffsets = new String[size];
+        offsets = new int[size];
+        for (int i = 0; i < size; i++) {
+            final int offset = TimeZone.getTimeZone(ids[i]).getOffset(date);
+            offsets[i] = offset;
+            gmtOffsets[i] = formatOffset(offset);
+        }
+
+        byName = sort(new Comparator<Integer>() {
+            public int compare(Integer lhs, Integer rhs) {
+                return displayNames[lhs].compareTo(displayNames[rhs]);
+            }
+        });
+        byOffset = sort(new Comparator<Integer>() {
+            public int compare(Integer lhs, Integer rhs) {
+                final int l = offsets[lhs];
+                final int r = offsets[rhs];
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+    }
+
+    /**
+     * Index of the zone with the given id, or -1 if there's none.
+     */
+    int indexOf(String id) {
+        for (int i = 0; i < size; i++) {
+            if (ids[i].equals(id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int[] sort(Comparator<Integer> comparator) {
+        final Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        // stable, like the sort of the adapter rows used to be
+        Arrays.sort(order, comparator);
+        final int[] result = new int[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
+    private static void readZones(Context context, ArrayList<String> zoneIds,
+            ArrayList<String> zoneNames) {
+        try {
+            XmlResourceParser xrp = context.getResources().getXml(R.xml.timezones);
+            while (xrp.next() != XmlResourceParser.START_TAG)
+                continue;
+            xrp.next();
+            while (xrp.getEventType() != XmlResourceParser.END_TAG) {
+                while (xrp.getEventType() != XmlResourceParser.START_TAG) {
+                    if (xrp.getEventType() == XmlResourceParser.END_DOCUMENT) {
+                        return;
+                    }
+                    xrp.next();
+                }
+                if (xrp.getName().equals(XMLTAG_TIMEZONE)) {
+                    zoneIds.add(xrp.getAttributeValue(0));
+                    zoneNames.add(xrp.nextText());
+                }
+                while (xrp.getEventType() != XmlResourceParser.END_TAG) {
+                    xrp.next();
+                }
+                xrp.next();
+            }
+            xrp.close();
+        } catch (XmlPullParserException xppe) {
+            Log.e(TAG, "Ill-formatted timezones.xml file");
+        } catch (java.io.IOException ioe) {
+            Log.e(TAG, "Unable to read timezones.xml file");
+        }
+    }
+
+    private static String formatOffset(int offset) {
+        final int p = Math.abs(offset);
+        final StringBuilder name = new StringBuilder();
+        name.append("GMT");
+
+        if (offset < 0) {
+            name.append('-');
+        } else {
+            name.append('+');
+        }
+
+        name.append(p / (HOURS_1));
+        name.append(':');
+
+        int min = p / 60000;
+        min %= 60;
+
+        if (min < 10) {
+            name.append('0');
+        }
+        name.append(min);
+
+        return name.toString();
+    }
+}
@@ -20,25 +20,17 @@ import android.app.Activity;
 import android.app.AlarmManager;
 import android.app.ListFragment;
 import android.content.Context;
-import android.content.res.XmlResourceParser;
 import android.os.Bundle;
-import android.util.Log;
+import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
 import android.widget.ListView;
-import android.widget.SimpleAdapter;
+import android.widget.TextView;
 
-import org.xmlpull.v1.XmlPullParserException;
-
-import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.TimeZone;
 
 /**
@@ -55,30 +47,78 @@ public class ZonePicker extends ListFragment {
         public void onZoneSelected(TimeZone tz);
     }
 
-    private static final String KEY_ID = "id";  // value: String
-    private static final String KEY_DISPLAYNAME = "name";  // value: String
-    private static final String KEY_GMT = "gmt";  // value: String
-    private static final String KEY_OFFSET = "offset";  // value: int (Integer)
-    private static final String XMLTAG_TIMEZONE = "timezone";
-
-    private static final int HOURS_1 = 60 * 60000;
-
     private static final int MENU_TIMEZONE = Menu.FIRST+1;
     private static final int MENU_ALPHABETICAL = Menu.FIRST;
 
     private boolean mSortedByTimezone;
 
-    private SimpleAdapter mTimezoneSortedAdapter;
-    private SimpleAdapter mAlphabeticalAdapter;
+    private ZoneAdapter mTimezoneSortedAdapter;
+    private ZoneAdapter mAlphabeticalAdapter;
 
     private ZoneSelectionListener mListener;
 
+    /**
+     * Adapter over the shared {@link ZoneIndex}, in one of its sort orders.
+     * Items are the zone ids.
+     */
+    public static class ZoneAdapter extends BaseAdapter {
+        private final LayoutInflater mInflater;
+        private final ZoneIndex mIndex;
+        private final int[] mOrder;
+        private final int mLayoutId;
+
+        private ZoneAdapter(Context context, ZoneIndex index, int[] order, int layoutId) {
+            mInflater = LayoutInflater.from(context);
+            mIndex = index;
+            mOrder = order;
+            mLayoutId = layoutId;
+        }
+
+        public int getCount() {
+            return mOrder.length;
+        }
+
+        public String getItem(int position) {
+            return mIndex.ids[mOrder[position]];
+        }
+
+        public long getItemId(int position) {
+            return position;
+        }
+
+        /**
+         * @return the position of the zone with the given id, or -1.
+         */
+        public int getPosition(String id) {
+            final int index = mIndex.indexOf(id);
+            if (index >= 0) {
+                for (int i = 0; i < mOrder.length; i++) {
+                    if (mOrder[i] == index) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        public View getView(int position, View convertView, ViewGroup parent) {
+            final View view = convertView != null ? convertView
+                    : mInflater.inflate(mLayoutId, parent, false);
+            final int index = mOrder[position];
+            ((TextView) view.findViewById(android.R.id.text1)).setText(
+                    mIndex.displayNames[index]);
+            ((TextView) view.findViewById(android.R.id.text2)).setText(
+                    mIndex.gmtOffsets[index]);
+            return view;
+        }
+    }
+
     /**
      * Constructs an adapter with TimeZone list. Sorted by TimeZone in default.
      *
      * @param sortedByName use Name for sorting the list.
      */
-    public static SimpleAdapter constructTimezoneAdapter(Context context,
+    public static ZoneAdapter constructTimezoneAdapter(Context context,
             boolean sortedByName) {
         return constructTimezoneAdapter(context, sortedByName,
                 android.R.layout.simple_list_item_2);
@@ -86,50 +126,29 @@ public class ZonePicker extends ListFragment {
 
     /**
      * Constructs an adapter with TimeZone list. Sorted by TimeZone in default.
+     * Adapters share the zone data, which is only read once per locale and day.
      *
      * @param sortedByName use Name for sorting the list.
      */
-    public static SimpleAdapter constructTimezoneAdapter(Context context,
+    public static ZoneAdapter constructTimezoneAdapter(Context context,
             boolean sortedByName, int layoutId) {
-        final String[] from = new String[] {KEY_DISPLAYNAME, KEY_GMT};
-        final int[] to = new int[] {android.R.id.text1, android.R.id.text2};
-
-        final String sortKey = (sortedByName ? KEY_DISPLAYNAME : KEY_OFFSET);
-        final MyComparator comparator = new MyComparator(sortKey);
-        final List<HashMap<String, Object>> sortedList = getZones(context);
-        Collections.sort(sortedList, comparator);
-        final SimpleAdapter adapter = new SimpleAdapter(context,
-                sortedList,
-                layoutId,
-                from,
-                to);
-
-        return adapter;
+        final ZoneIndex index = ZoneIndex.get(context);
+        return new ZoneAdapter(context, index,
+                sortedByName ? index.byName : index.byOffset, layoutId);
     }
 
     /**
-     * Searches {@link TimeZone} from the given {@link SimpleAdapter} object, and returns
+     * Searches {@link TimeZone} from the given {@link ZoneAdapter} object, and returns
      * the index for the TimeZone.
      *
-     * @param adapter SimpleAdapter constructed by
+     * @param adapter ZoneAdapter constructed by
      * {@link #constructTimezoneAdapter(Context, boolean)}.
      * @param tz TimeZone to be searched.
      * @return Index for the given TimeZone. -1 when there's no corresponding list item.
      * returned.
      */
-    public static int getTimeZoneIndex(SimpleAdapter adapter, TimeZone tz) {
-        final String defaultId = tz.getID();
-        final int listSize = adapter.getCount();
-        for (int i = 0; i < listSize; i++) {
-            // Using HashMap<String, Object> induces unnecessary warning.
-            final HashMap<?,?> map = (HashMap<?,?>)adapter.getItem(i);
-            final String id = (String)map.get(KEY_ID);
-            if (defaultId.equals(id)) {
-                // If current timezone is in this list, move focus to it
-                return i;
-            }
-        }
-        return -1;
+    public static int getTimeZoneIndex(ZoneAdapter adapter, TimeZone tz) {
+        return adapter.getPosition(tz.getID());
     }
 
     /**
@@ -138,7 +157,7 @@ public class ZonePicker extends ListFragment {
      * @return TimeZone object corresponding to the item.
      */
     public static TimeZone obtainTimeZoneFromItem(Object item) {
-        return TimeZone.getTimeZone((String)((Map<?, ?>)item).get(KEY_ID));
+        return TimeZone.getTimeZone((String) item);
     }
 
     @Override
@@ -196,7 +215,7 @@ public class ZonePicker extends ListFragment {
     }
 
     private void setSorting(boolean sortByTimezone) {
-        final SimpleAdapter adapter =
+        final ZoneAdapter adapter =
                 sortByTimezone ? mTimezoneSortedAdapter : mAlphabeticalAdapter;
         setListAdapter(adapter);
         mSortedByTimezone = sortByTimezone;
@@ -206,79 +225,9 @@ public class ZonePicker extends ListFragment {
         }
     }
 
-    private static List<HashMap<String, Object>> getZones(Context context) {
-        final List<HashMap<String, Object>> myData = new ArrayList<HashMap<String, Object>>();
-        final long date = Calendar.getInstance().getTimeInMillis();
-        try {
-            XmlResourceParser xrp = context.getResources().getXml(R.xml.timezones);
-            while (xrp.next() != XmlResourceParser.START_TAG)
-                continue;
-            xrp.next();
-            while (xrp.getEventType() != XmlResourceParser.END_TAG) {
-                while (xrp.getEventType() != XmlResourceParser.START_TAG) {
-                    if (xrp.getEventType() == XmlResourceParser.END_DOCUMENT) {
-                        return myData;
-                    }
-                    xrp.next();
-                }
-                if (xrp.getName().equals(XMLTAG_TIMEZONE)) {
-                    String id = xrp.getAttributeValue(0);
-                    String displayName = xrp.nextText();
-                    addItem(myData, id, displayName, date);
-                }
-                while (xrp.getEventType() != XmlResourceParser.END_TAG) {
-                    xrp.next();
-                }
-                xrp.next();
-            }
-            xrp.close();
-        } catch (XmlPullParserException xppe) {
-            Log.e(TAG, "Ill-formatted timezones.xml file");
-        } catch (java.io.IOException ioe) {
-            Log.e(TAG, "Unable to read timezones.xml file");
-        }
-
-        return myData;
-    }
-
-    private static void addItem(
-            List<HashMap<String, Object>> myData, String id, String displayName, long date) {
-        final HashMap<String, Object> map = new HashMap<String, Object>();
-        map.put(KEY_ID, id);
-        map.put(KEY_DISPLAYNAME, displayName);
-        final TimeZone tz = TimeZone.getTimeZone(id);
-        final int offset = tz.getOffset(date);
-        final int p = Math.abs(offset);
-        final StringBuilder name = new StringBuilder();
-        name.append("GMT");
-
-        if (offset < 0) {
-            name.append('-');
-        } else {
-            name.append('+');
-        }
-
-        name.append(p / (HOURS_1));
-        name.append(':');
-
-        int min = p / 60000;
-        min %= 60;
-
-        if (min < 10) {
-            name.append('0');
-        }
-        name.append(min);
-
-        map.put(KEY_GMT, name.toString());
-        map.put(KEY_OFFSET, offset);
-
-        myData.add(map);
-    }
-
     @Override
     public void onListItemClick(ListView listView, View v, int position, long id) {
-        final Map<?, ?> map = (Map<?, ?>)listView.getItemAtPosition(position);
-        final String tzId = (String) map.get(KEY_ID);
+        final String tzId = (String) listView.getItemAtPosition(position);
 
         // Update the system timezone value
         final Activity activity = getActivity();
@@ -291,37 +240,4 @@ public class ZonePicker extends ListFragment {
             getActivity().onBackPressed();
         }
     }
-
-    private static class MyComparator implements Comparator<HashMap<?, ?>> {
-        private String mSortingKey;
-
-        public MyComparator(String sortingKey) {
-            mSortingKey = sortingKey;
-        }
-
-        public void setSortingKey(String sortingKey) {
-            mSortingKey = sortingKey;
-        }
-
-        public int compare(HashMap<?, ?> map1, HashMap<?, ?> map2) {
-            Object value1 = map1.get(mSortingKey);
-            Object value2 = map2.get(mSortingKey);
-
-            /*
-             * This should never happen, but just in-case, put non-comparable
-             * items at the end.
-             */
-            if (!isComparable(value1)) {
-                return isComparable(value2) ? 1 : 0;
-            } else if (!isComparable(value2)) {
-                return -1;
-            }
-
-            return ((Comparable) value1).compareTo(value2);
-        }
-
-        private boolean isComparable(Object value) {
-            return (value != null) && (value instanceof Comparable); 
-        }
-    }
 }
@@ -36,16 +36,24 @@ import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceScreen;
 import android.util.Log;
 
 class AccountPreferenceBase extends SettingsPreferenceFragment
-        implements OnAccountsUpdateListener {
+        implements OnAccountsUpdateListener, SyncStateSnapshot.Filter {
 
     protected static final String TAG = "AccountSettings";
     public static final String AUTHORITIES_FILTER_KEY = "authorities";
     public static final String ACCOUNT_TYPES_FILTER_KEY = "account_types";
+
+    /** Sync status changes arriving within this window are folded into one snapshot. */
+    private static final long SYNC_STATE_DEBOUNCE_MS = 250;
+
+    private static HandlerThread sSyncStateThread;
+
     private Map<String, AuthenticatorDescription> mTypeToAuthDescription
             = new HashMap<String, AuthenticatorDescription>();
     protected AuthenticatorDescription[] mAuthDescs;
@@ -53,6 +61,15 @@ class AccountPreferenceBase extends SettingsPreferenceFragment
     private Object mStatusChangeListenerHandle;
     private HashMap<String, ArrayList<String>> mAccountTypeToAuthorities = null;
 
+    private Context mAppContext;
+    private Handler mSyncStateHandler;
+    private final Object mSyncStateLock = new Object();
+    // Guarded by mSyncStateLock
+    private boolean mSnapshotScheduled;
+    private boolean mFullRefreshPending;
+    /** Last snapshot taken, only used on the sync state thread. */
+    private SyncStateSnapshot mLastSnapshot;
+
     /**
      * Overload to handle account updates.
      */
@@ -68,12 +85,37 @@ class AccountPreferenceBase extends SettingsPreferenceFragment
     }
 
     /**
-     * Overload to handle sync state updates.
+     * Overload to handle sync state updates. Called on the main thread while
+     * resumed, with the state of every row accepted by
+     * {@link #shouldSnapshot(Account, SyncAdapterType)}.
      */
-    protected void onSyncStateUpdated() {
+    protected void onSyncStateUpdated(SyncStateSnapshot snapshot) {
 
     }
 
+    /**
+     * Overload to limit the rows fetched for sync state updates. Called on
+     * the sync state thread.
+     */
+    public boolean shouldSnapshot(Account account, SyncAdapterType adapter) {
+        return true;
+    }
+
+    @Override
+    public void onCreate(Bundle icicle) {
+        super.onCreate(icicle);
+
+        mAppContext = getActivity().getApplicationContext();
+        synchronized (AccountPreferenceBase.class) {
+            if (sSyncStateThread == null) {
+                sSyncStateThread = new HandlerThread("AccountSyncState",
+                        Process.THREAD_PRIORITY_BACKGROUND);
+                sSyncStateThread.start();
+            }
+        }
+        mSyncStateHandler = new Handler(sSyncStateThread.getLooper());
+    }
+
     @Override
     public void onResume() {
         super.onResume();
@@ -82,21 +124,63 @@ class AccountPreferenceBase extends SettingsPreferenceFragment
                 | ContentResolver.SYNC_OBSERVER_TYPE_STATUS
                 | ContentResolver.SYNC_OBSERVER_TYPE_SETTINGS,
                 mSyncStatusObserver);
-        onSyncStateUpdated();
+        requestSyncStateUpdate();
     }
 
     @Override
     public void onPause() {
         super.onPause();
         ContentResolver.removeStatusChangeListener(mStatusChangeListenerHandle);
+        synchronized (mSyncStateLock) {
+            mSyncStateHandler.removeCallbacks(mTakeSnapshot);
+            mSnapshotScheduled = false;
+        }
     }
 
+    /**
+     * Take a new sync state snapshot right away, and refresh every row with
+     * it rather than only the changed ones.  Use this after changing the
+     * preferences or sync settings.
+     */
+    protected void requestSyncStateUpdate() {
+        synchronized (mSyncStateLock) {
+            mFullRefreshPending = true;
+            mSyncStateHandler.removeCallbacks(mTakeSnapshot);
+            mSyncStateHandler.post(mTakeSnapshot);
+            mSnapshotScheduled = true;
+        }
+    }
 
     private SyncStatusObserver mSyncStatusObserver = new SyncStatusObserver() {
         public void onStatusChanged(int which) {
+            // Status changes come in bursts during a sync; take one snapshot
+            // for the whole burst.
+            synchronized (mSyncStateLock) {
+                if (!mSnapshotScheduled) {
+                    mSyncStateHandler.postDelayed(mTakeSnapshot, SYNC_STATE_DEBOUNCE_MS);
+                    mSnapshotScheduled = true;
+                }
+            }
+        }
+    };
+
+    private final Runnable mTakeSnapshot = new Runnable() {
+        public void run() {
+            final boolean fullRefresh;
+            synchronized (mSyncStateLock) {
+                fullRefresh = mFullRefreshPending;
+                mFullRefreshPending = false;
+                mSnapshotScheduled = false;
+            }
+            final SyncStateSnapshot snapshot = SyncStateSnapshot.take(mAppContext,
+                    AccountPreferenceBase.this, fullRefresh ? null : mLastSnapshot);
+            mLastSnapshot = snapshot;
             mHandler.post(new Runnable() {
                 public void run() {
-                    onSyncStateUpdated();
+                    // Catch any delayed delivery of update messages
+                    if (isResumed()) {
+                        onSyncStateUpdated(snapshot);
+                    }
                 }
             });
         }
@@ -26,14 +26,10 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.ContentResolver;
-import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SyncAdapterType;
-import android.content.SyncInfo;
-import android.content.SyncStatusInfo;
 import android.content.pm.ProviderInfo;
-import android.net.ConnectivityManager;
 import android.os.Bundle;
 import android.preference.Preference;
 import android.preference.PreferenceScreen;
@@ -58,7 +54,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
+import java.util.HashSet;
 
 public class AccountSyncSettings extends AccountPreferenceBase {
 
@@ -337,30 +333,27 @@ public class AccountSyncSettings extends AccountPreferenceBase {
         }
     }
 
-    private boolean isSyncing(List<SyncInfo> currentSyncs, Account account, String authority) {
-        for (SyncInfo syncInfo : currentSyncs) {
-            if (syncInfo.account.equals(account) && syncInfo.authority.equals(authority)) {
-                return true;
-            }
-        }
-        return false;
+    @Override
+    public boolean shouldSnapshot(Account account, SyncAdapterType adapter) {
+        // Only the visible adapters of this account have checkboxes
+        return adapter.isUserVisible() && (mAccount == null || mAccount.equals(account));
     }
 
     @Override
-    protected void onSyncStateUpdated() {
-        if (!isResumed()) return;
-        setFeedsState();
+    protected void onSyncStateUpdated(SyncStateSnapshot snapshot) {
+        setFeedsState(snapshot);
     }
 
-    private void setFeedsState() {
+    private void setFeedsState(SyncStateSnapshot snapshot) {
         // iterate over all the preferences, setting the state properly for each
         Date date = new Date();
-        List<SyncInfo> currentSyncs = ContentResolver.getCurrentSyncs();
         boolean syncIsFailing = false;
 
         // Refresh the sync status checkboxes - some syncs may have become active.
-        updateAccountCheckboxes(mAccounts);
+        final boolean rebuilt = updateAccountCheckboxes(mAccounts, snapshot);
 
+        final boolean oneTimeSyncMode =
+                !snapshot.masterSyncAutomatically || !snapshot.backgroundDataEnabled;
         for (int i = 0, count = getPreferenceScreen().getPreferenceCount(); i < count; i++) {
             Preference pref = getPreferenceScreen().getPreference(i);
             if (! (pref instanceof SyncStateCheckBoxPreference)) {
@@ -371,26 +364,28 @@ public class AccountSyncSettings extends AccountPreferenceBase {
             String authority = syncPref.getAuthority();
             Account account = syncPref.getAccount();
 
-            SyncStatusInfo status = ContentResolver.getSyncStatus(account, authority);
-            boolean syncEnabled = ContentResolver.getSyncAutomatically(account, authority);
-            boolean authorityIsPending = status == null ? false : status.pending;
-            boolean initialSync = status == null ? false : status.initialize;
-
-            boolean activelySyncing = isSyncing(currentSyncs, account, authority);
-            boolean lastSyncFailed = status != null
-                    && status.lastFailureTime != 0
-                    && status.getLastFailureMesgAsInt(0)
-                       != ContentResolver.SYNC_ERROR_SYNC_ALREADY_IN_PROGRESS;
-            if (!syncEnabled) lastSyncFailed = false;
+            final SyncStateSnapshot.Row row = snapshot.getRow(account, authority);
+            if (row == null) {
+                continue;
+            }
+            boolean syncEnabled = row.syncAutomatically;
+            boolean authorityIsPending = row.pending;
+            boolean initialSync = row.initialize;
+
+            boolean activelySyncing = row.active;
+            boolean lastSyncFailed = syncEnabled && row.lastSyncFailed();
             if (lastSyncFailed && !activelySyncing && !authorityIsPending) {
                 syncIsFailing = true;
             }
+            if (!rebuilt && !snapshot.hasChanged(account, authority)) {
+                continue;
+            }
             if (Log.isLoggable(TAG, Log.VERBOSE)) {
                 Log.d(TAG, "Update sync status: " + account + " " + authority +
                         " active = " + activelySyncing + " pend =" +  authorityIsPending);
             }
 
-            final long successEndTime = (status == null) ? 0 : status.lastSuccessTime;
+            final long successEndTime = row.lastSuccessTime;
             if (successEndTime != 0) {
                 date.setTime(successEndTime);
                 final String timeString = mDateFormat.format(date) + " "
@@ -399,7 +394,7 @@ public class AccountSyncSettings extends AccountPreferenceBase {
             } else {
                 syncPref.setSummary("");
             }
-            int syncState = ContentResolver.getIsSyncable(account, authority);
+            int syncState = row.syncable;
 
             syncPref.setActive(activelySyncing && (syncState >= 0) &&
                     !initialSync);
@@ -407,11 +402,6 @@ public class AccountSyncSettings extends AccountPreferenceBase {
                     !initialSync);
 
             syncPref.setFailed(lastSyncFailed);
-            ConnectivityManager connManager =
-                (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-            final boolean masterSyncAutomatically = ContentResolver.getMasterSyncAutomatically();
-            final boolean backgroundDataEnabled = connManager.getBackgroundDataSetting();
-            final boolean oneTimeSyncMode = !masterSyncAutomatically || !backgroundDataEnabled;
             syncPref.setOneTimeSyncMode(oneTimeSyncMode);
             syncPref.setChecked(oneTimeSyncMode || syncEnabled);
         }
@@ -423,14 +413,22 @@ public class AccountSyncSettings extends AccountPreferenceBase {
     public void onAccountsUpdated(Account[] accounts) {
         super.onAccountsUpdated(accounts);
         mAccounts = accounts;
-        updateAccountCheckboxes(accounts);
-        onSyncStateUpdated();
+        requestSyncStateUpdate();
     }
 
-    private void updateAccountCheckboxes(Account[] accounts) {
+    /**
+     * Rebuild the checkboxes from the snapshot, if it is a full refresh or
+     * the set of syncable authorities changed.
+     *
+     * @return whether the checkboxes were rebuilt
+     */
+    private boolean updateAccountCheckboxes(Account[] accounts, SyncStateSnapshot snapshot) {
+        if (accounts == null) {
+            return false;
+        }
         mInvisibleAdapters.clear();
 
-        SyncAdapterType[] syncAdapters = ContentResolver.getSyncAdapterTypes();
+        SyncAdapterType[] syncAdapters = snapshot.syncAdapters;
         HashMap<String, ArrayList<String>> accountTypeToAuthorities =
             Maps.newHashMap();
         for (int i = 0, n = syncAdapters.length; i < n; i++) {
@@ -453,11 +451,7 @@ public class AccountSyncSettings extends AccountPreferenceBase {
             }
         }
 
-        for (int i = 0, n = mCheckBoxes.size(); i < n; i++) {
-            getPreferenceScreen().removePreference(mCheckBoxes.get(i));
-        }
-        mCheckBoxes.clear();
-
+        HashSet<SyncStateSnapshot.Row> syncable = new HashSet<SyncStateSnapshot.Row>();
         for (int i = 0, n = accounts.length; i < n; i++) {
             final Account account = accounts[i];
             if (Log.isLoggable(TAG, Log.VERBOSE)) {
@@ -468,21 +462,59 @@ public class AccountSyncSettings extends AccountPreferenceBase {
                 for (int j = 0, m = authorities.size(); j < m; j++) {
                     final String authority = authorities.get(j);
                     // We could check services here....
-                    int syncState = ContentResolver.getIsSyncable(account, authority);
+                    final SyncStateSnapshot.Row row = snapshot.getRow(account, authority);
+                    int syncState = row != null ? row.syncable : 0;
                     if (Log.isLoggable(TAG, Log.VERBOSE)) {
                         Log.d(TAG, "  found authority " + authority + " " + syncState);
                     }
                     if (syncState > 0) {
-                        addSyncStateCheckBox(account, authority);
+                        syncable.add(row);
                     }
                 }
             }
         }
 
+        if (!snapshot.isFullRefresh() && hasCheckBoxes(syncable)) {
+            return false;
+        }
+
+        for (int i = 0, n = mCheckBoxes.size(); i < n; i++) {
+            getPreferenceScreen().removePreference(mCheckBoxes.get(i));
+        }
+        mCheckBoxes.clear();
+
+        for (SyncStateSnapshot.Row row : syncable) {
+            addSyncStateCheckBox(row.account, row.authority);
+        }
+
         Collections.sort(mCheckBoxes);
         for (int i = 0, n = mCheckBoxes.size(); i < n; i++) {
             getPreferenceScreen().addPreference(mCheckBoxes.get(i));
         }
+        return true;
+    }
+
+    /**
+     * Whether there is exactly one checkbox for each of the given rows.
+     */
+    private boolean hasCheckBoxes(HashSet<SyncStateSnapshot.Row> rows) {
+        if (rows.size() != mCheckBoxes.size()) {
+            return false;
+        }
+        for (SyncStateCheckBoxPreference checkBox : mCheckBoxes) {
+            boolean found = false;
+            for (SyncStateSnapshot.Row row : rows) {
+                if (row.account.equals(checkBox.getAccount())
+                        && row.authority.equals(checkBox.getAuthority())) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
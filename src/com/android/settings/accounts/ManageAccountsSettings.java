@@ -24,8 +24,6 @@ import android.app.Activity;
 import android.content.ContentResolver;
 import android.content.Intent;
 import android.content.SyncAdapterType;
-import android.content.SyncInfo;
-import android.content.SyncStatusInfo;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.preference.Preference;
@@ -112,7 +110,7 @@ public class ManageAccountsSettings extends AccountPreferenceBase
             @Override
             public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
                 ContentResolver.setMasterSyncAutomatically(isChecked);
-                onSyncStateUpdated();
+                requestSyncStateUpdate();
             }
         });
 
@@ -177,21 +175,16 @@ public class ManageAccountsSettings extends AccountPreferenceBase
     }
 
     @Override
-    protected void onSyncStateUpdated() {
-        // Catch any delayed delivery of update messages
-        if (getActivity() == null) return;
+    protected void onSyncStateUpdated(SyncStateSnapshot snapshot) {
         // Set background connection state
         if (mAutoSyncSwitch != null) {
-            mAutoSyncSwitch.setChecked(ContentResolver.getMasterSyncAutomatically());
+            mAutoSyncSwitch.setChecked(snapshot.masterSyncAutomatically);
         }
 
-        // iterate over all the preferences, setting the state properly for each
-        SyncInfo currentSync = ContentResolver.getCurrentSync();
-
         boolean anySyncFailed = false; // true if sync on any account failed
 
         // only track userfacing sync adapters when deciding if account is synced or not
-        final SyncAdapterType[] syncAdapters = ContentResolver.getSyncAdapterTypes();
+        final SyncAdapterType[] syncAdapters = snapshot.syncAdapters;
         HashSet<String> userFacing = new HashSet<String>();
         for (int k = 0, n = syncAdapters.length; k < n; k++) {
             final SyncAdapterType sa = syncAdapters[k];
@@ -199,6 +192,7 @@ public class ManageAccountsSettings extends AccountPreferenceBase
                 userFacing.add(sa.authority);
             }
         }
+        // iterate over all the preferences, setting the state properly for the changed ones
         for (int i = 0, count = getPreferenceScreen().getPreferenceCount(); i < count; i++) {
             Preference pref = getPreferenceScreen().getPreference(i);
             if (! (pref instanceof AccountPreference)) {
@@ -212,21 +206,15 @@ public class ManageAccountsSettings extends AccountPreferenceBase
             final ArrayList<String> authorities = accountPref.getAuthorities();
             if (authorities != null) {
                 for (String authority : authorities) {
-                    SyncStatusInfo status = ContentResolver.getSyncStatus(account, authority);
-                    boolean syncEnabled = ContentResolver.getSyncAutomatically(account, authority)
-                            && ContentResolver.getMasterSyncAutomatically()
-                            && (ContentResolver.getIsSyncable(account, authority) > 0);
-                    boolean authorityIsPending = ContentResolver.isSyncPending(account, authority);
-                    boolean activelySyncing = currentSync != null
-                            && currentSync.authority.equals(authority)
-                            && new Account(currentSync.account.name, currentSync.account.type)
-                                    .equals(account);
-                    boolean lastSyncFailed = status != null
-                            && syncEnabled
-                            && status.lastFailureTime != 0
-                            && status.getLastFailureMesgAsInt(0)
-                               != ContentResolver.SYNC_ERROR_SYNC_ALREADY_IN_PROGRESS;
-                    if (lastSyncFailed && !activelySyncing && !authorityIsPending) {
+                    final SyncStateSnapshot.Row row = snapshot.getRow(account, authority);
+                    if (row == null) {
+                        continue;
+                    }
+                    boolean syncEnabled = row.syncAutomatically
+                            && snapshot.masterSyncAutomatically
+                            && (row.syncable > 0);
+                    boolean lastSyncFailed = syncEnabled && row.lastSyncFailed();
+                    if (lastSyncFailed && !row.active && !row.pending) {
                         syncIsFailing = true;
                         anySyncFailed = true;
                     }
@@ -237,6 +225,9 @@ public class ManageAccountsSettings extends AccountPreferenceBase
                     Log.v(TAG, "no syncadapters found for " + account);
                 }
             }
+            if (!snapshot.hasChanged(account)) {
+                continue;
+            }
             int syncStatus = AccountPreference.SYNC_DISABLED;
             if (syncIsFailing) {
                 syncStatus = AccountPreference.SYNC_ERROR;
@@ -277,7 +268,7 @@ public class ManageAccountsSettings extends AccountPreferenceBase
                 getPreferenceScreen().addPreference(preference);
             }
         }
-        onSyncStateUpdated();
+        requestSyncStateUpdate();
     }
 
     @Override
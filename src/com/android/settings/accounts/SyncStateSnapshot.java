@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.accounts;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SyncAdapterType;
+import android.content.SyncInfo;
+import android.content.SyncStatusInfo;
+import android.net.ConnectivityManager;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Sync state of every account and authority shown by an accounts screen,
+ * fetched in one pass off the main thread.  Each snapshot knows which rows
+ * changed since the one before it, so screens only update those.
+ */
+class SyncStateSnapshot {
+
+    /**
+     * Sync state of one account and authority.
+     */
+    static class Row {
+        final Account account;
+        final String authority;
+        final boolean syncAutomatically;
+        final int syncable;
+        /** Currently syncing. */
+        final boolean active;
+        final boolean pending;
+        final boolean initialize;
+        final long lastSuccessTime;
+        final long lastFailureTime;
+        final int lastFailureMesg;
+
+        Row(Account account, String authority, boolean syncAutomatically, int syncable,
+                boolean active, SyncStatusInfo status) {
+            this.account = account;
+            this.authority = authority;
+            this.syncAutomatically = syncAutomatically;
+            this.syncable = syncable;
+            this.active = active;
+            if (status != null) {
+                pending = status.pending;
+                initialize = status.initialize;
+                lastSuccessTime = status.lastSuccessTime;
+                lastFailureTime = status.lastFailureTime;
+                lastFailureMesg = status.getLastFailureMesgAsInt(0);
+            } else {
+                pending = false;
+                initialize = false;
+                lastSuccessTime = 0;
+                lastFailureTime = 0;
+                lastFailureMesg = 0;
+            }
+        }
+
+        /**
+         * Whether the last sync failed, ignoring syncs that were dropped
+         * because one was already running.
+         */
+        boolean lastSyncFailed() {
+            return lastFailureTime != 0
+                    && lastFailureMesg != ContentResolver.SYNC_ERROR_SYNC_ALREADY_IN_PROGRESS;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Row)) {
+                return false;
+            }
+            final Row other = (Row) o;
+            return account.equals(other.account) && authority.equals(other.authority)
+                    && syncAutomatically == other.syncAutomatically
+                    && syncable == other.syncable && active == other.active
+                    && pending == other.pending && initialize == other.initialize
+                    && lastSuccessTime == other.lastSuccessTime
+                    && lastFailureTime == other.lastFailureTime
+                    && lastFailureMesg == other.lastFailureMesg;
+        }
+
+        @Override
+        public int hashCode() {
+            return account.hashCode() * 31 + authority.hashCode();
+        }
+    }
+
+    /**
+     * Decides which rows go into a snapshot.
+     */
+    interface Filter {
+        /** Called on the snapshot thread. */
+        boolean shouldSnapshot(Account account, SyncAdapterType adapter);
+    }
+
+    final boolean masterSyncAutomatically;
+    final boolean backgroundDataEnabled;
+    final SyncAdapterType[] syncAdapters;
+
+    private final HashMap<String, Row> mRows;
+    /** Keys of changed rows, or null if everything should be refreshed. */
+    private final HashSet<String> mChanged;
+    private final HashSet<Account> mChangedAccounts;
+
+    private SyncStateSnapshot(boolean masterSyncAutomatically, boolean backgroundDataEnabled,
+            SyncAdapterType[] syncAdapters, HashMap<String, Row> rows, HashSet<String> changed,
+            HashSet<Account> changedAccounts) {
+        this.masterSyncAutomatically = masterSyncAutomatically;
+        this.backgroundDataEnabled = backgroundDataEnabled;
+        this.syncAdapters = syncAdapters;
+        mRows = rows;
+        mChanged = changed;
+        mChangedAccounts = changedAccounts;
+    }
+
+    /**
+     * Fetch the sync state of all rows accepted by the filter, and compare
+     * it with the previous snapshot, if any.  Makes binder calls, so don't
+     * call it on the main thread.
+     */
+    static SyncStateSnapshot take(Context context, Filter filter, SyncStateSnapshot previous) {
+        final boolean masterSyncAutomatically = ContentResolver.getMasterSyncAutomatically();
+        final ConnectivityManager connManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        final boolean backgroundDataEnabled = connManager.getBackgroundDataSetting();
+        final SyncAdapterType[] syncAdapters = ContentResolver.getSyncAdapterTypes();
+        final List<SyncInfo> currentSyncs = ContentResolver.getCurrentSyncs();
+        final Account[] accounts = AccountManager.get(context).getAccounts();
+
+        final HashMap<String, Row> rows = new HashMap<String, Row>();
+        for (Account account : accounts) {
+            for (SyncAdapterType sa : syncAdapters) {
+                if (!sa.accountType.equals(account.type) || !filter.shouldSnapshot(account, sa)) {
+                    continue;
+                }
+                final String authority = sa.authority;
+                final Row row = new Row(account, authority,
+                        ContentResolver.getSyncAutomatically(account, authority),
+                        ContentResolver.getIsSyncable(account, authority),
+                        isSyncing(currentSyncs, account, authority),
+                        ContentResolver.getSyncStatus(account, authority));
+                rows.put(getKey(account, authority), row);
+            }
+        }
+
+        // Global settings affect every row, so refresh everything if they changed
+        if (previous == null || previous.masterSyncAutomatically != masterSyncAutomatically
+                || previous.backgroundDataEnabled != backgroundDataEnabled) {
+            return new SyncStateSnapshot(masterSyncAutomatically, backgroundDataEnabled,
+                    syncAdapters, rows, null, null);
+        }
+
+        final HashSet<String> changed = new HashSet<String>();
+        final HashSet<Account> changedAccounts = new HashSet<Account>();
+        for (HashMap.Entry<String, Row> entry : rows.entrySet()) {
+            if (!entry.getValue().equals(previous.mRows.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+                changedAccounts.add(entry.getValue().account);
+            }
+        }
+        for (HashMap.Entry<String, Row> entry : previous.mRows.entrySet()) {
+            if (!rows.containsKey(entry.getKey())) {
+                changed.add(entry.getKey());
+                changedAccounts.add(entry.getValue().account);
+            }
+        }
+        return new SyncStateSnapshot(masterSyncAutomatically, backgroundDataEnabled,
+                syncAdapters, rows, changed, changedAccounts);
+    }
+
+    private static boolean isSyncing(List<SyncInfo> currentSyncs, Account account,
+            String authority) {
+        for (SyncInfo syncInfo : currentSyncs) {
+            if (syncInfo.account.equals(account) && syncInfo.authority.equals(authority)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getKey(Account account, String authority) {
+        return account.type + "/" + account.name + "/" + authority;
+    }
+
+    /** The row for the account and authority, or null if it wasn't fetched. */
+    Row getRow(Account account, String authority) {
+        return mRows.get(getKey(account, authority));
+    }
+
+    /** Whether every row should be refreshed, not only the changed ones. */
+    boolean isFullRefresh() {
+        return mChanged == null;
+    }
+
+    boolean hasChanged(Account account, String authority) {
+        return mChanged == null || mChanged.contains(getKey(account, authority));
+    }
+
+    /** Whether any row of the account changed. */
+    boolean hasChanged(Account account) {
+        return mChangedAccounts == null || mChangedAccounts.contains(account);
+    }
+}
@@ -0,0 +1,509 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Process-wide catalog of launchable activities and installed packages,
+ * shared by the package pickers in Settings.  Labels and icons are loaded
+ * in the background the first time a list is asked for, and kept until the
+ * package or the locale changes, so a list that was loaded before is
+ * delivered at once.  Only the most recently used icons are kept; others
+ * are loaded again when asked for.
+ */
+public class AppCatalog {
+    /** Number of entries loaded between two deliveries of a partial list. */
+    private static final int BATCH_SIZE = 12;
+
+    /** Query key for the list of installed packages. */
+    private static final String KEY_PACKAGES = "packages";
+
+    /** Number of icons kept, and loaded up front for a new list. */
+    private static final int MAX_ICONS = 120;
+
+    private static AppCatalog sInstance;
+
+    /**
+     * A launchable activity, or an installed package.
+     */
+    public static class Entry {
+        public final String packageName;
+        /** Activity class name, or null for a package entry. */
+        public final String className;
+        /** Set for activity entries. */
+        public final ResolveInfo resolveInfo;
+        /** Set for package entries, with its activities. */
+        public final PackageInfo packageInfo;
+
+        final AppCatalog catalog;
+        final String key;
+        volatile String label;
+        /** Collation key of the label, so sorting doesn't compare strings. */
+        volatile CollationKey sortKey;
+
+        Entry(AppCatalog catalog, ResolveInfo info) {
+            this.catalog = catalog;
+            resolveInfo = info;
+            packageInfo = null;
+            packageName = info.activityInfo.packageName;
+            className = info.activityInfo.name;
+            key = key(packageName, className);
+        }
+
+        Entry(AppCatalog catalog, PackageInfo info) {
+            this.catalog = catalog;
+            resolveInfo = null;
+            packageInfo = info;
+            packageName = info.packageName;
+            className = null;
+            key = key(packageName, className);
+        }
+
+        /** The label, or null if it isn't loaded yet. */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * A copy of the icon that can be attached to a view, or null if it
+         * isn't loaded yet.  Must be called on the main thread; a missing
+         * icon is then loaded and the lists delivered again.
+         */
+        public Drawable getIcon() {
+            final Drawable d = catalog.mIcons.get(key);
+            if (d == null) {
+                catalog.requestIcon(this);
+                return null;
+            }
+            return copyOf(d);
+        }
+
+        void ensureLabel(PackageManager pm) {
+            if (label != null) {
+                return;
+            }
+            CharSequence l;
+            if (resolveInfo != null) {
+                l = resolveInfo.loadLabel(pm);
+                if (l == null) {
+                    l = resolveInfo.activityInfo.name;
+                }
+            } else {
+                l = packageInfo.applicationInfo.loadLabel(pm);
+            }
+            label = l != null ? l.toString() : packageName;
+        }
+
+        /** Load the icon into the cache if it isn't there, and return it. */
+        Drawable ensureIcon(PackageManager pm) {
+            Drawable d = catalog.mIcons.get(key);
+            if (d == null) {
+                if (resolveInfo != null) {
+                    d = resolveInfo.loadIcon(pm);
+                } else {
+                    d = packageInfo.applicationInfo.loadIcon(pm);
+                }
+                catalog.mIcons.put(key, d);
+            }
+            return d;
+        }
+
+        static Drawable copyOf(Drawable d) {
+            final Drawable.ConstantState state = d.getConstantState();
+            return state != null ? state.newDrawable() : d;
+        }
+
+        static String key(String packageName, String className) {
+            return className != null ? packageName + "/" + className : packageName;
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called on the main thread with the entries loaded so far, sorted
+         * by label.  Entries may be missing their icon, even in a complete
+         * list; {@link Entry#getIcon} then loads it and the list is delivered
+         * again.
+         */
+        void onEntriesLoaded(List<Entry> entries, boolean complete);
+    }
+
+    private final Context mContext;
+    private final PackageManager mPm;
+    private final Handler mMainHandler;
+    private final Handler mBackgroundHandler;
+    private final LruCache<String, Drawable> mIcons = new LruCache<String, Drawable>(MAX_ICONS);
+    private final Comparator<Entry> mComparator = new Comparator<Entry>() {
+        public int compare(Entry a, Entry b) {
+            return a.sortKey.compareTo(b.sortKey);
+        }
+    };
+
+    // Guarded by this
+    private Collator mCollator = Collator.getInstance();
+    private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+    private final HashMap<String, List<Entry>> mResults = new HashMap<String, List<Entry>>();
+    private final HashSet<String> mLoading = new HashSet<String>();
+    private int mGeneration;
+
+    // Main thread only
+    private final HashMap<Listener, String> mListeners = new HashMap<Listener, String>();
+    private final HashMap<String, Intent> mQueries = new HashMap<String, Intent>();
+    /** Entries whose icon is being loaded again. */
+    private final HashSet<Entry> mIconRequests = new HashSet<Entry>();
+    private boolean mRedeliverPosted;
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final String action = intent.getAction();
+            final String[] packages;
+            if (Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE.equals(action)
+                    || Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE.equals(action)) {
+                packages = intent.getStringArrayExtra(Intent.EXTRA_CHANGED_PACKAGE_LIST);
+            } else {
+                final Uri data = intent.getData();
+                packages = data != null ? new String[] { data.getEncodedSchemeSpecificPart() }
+                        : null;
+            }
+            invalidate(packages);
+        }
+    };
+
+    private final BroadcastReceiver mLocaleReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // Labels and their sort order depend on the locale
+            synchronized (AppCatalog.this) {
+                mCollator = Collator.getInstance();
+            }
+            invalidate(null);
+        }
+    };
+
+    public static synchronized AppCatalog getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AppCatalog(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private AppCatalog(Context context) {
+        mContext = context;
+        mPm = context.getPackageManager();
+        mMainHandler = new Handler(Looper.getMainLooper());
+
+        HandlerThread thread = new HandlerThread("AppCatalog.Loader",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mBackgroundHandler = new Handler(thread.getLooper());
+
+        IntentFilter filter = new IntentFilter(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        mContext.registerReceiver(mPackageReceiver, filter);
+        IntentFilter sdFilter = new IntentFilter(Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
+        sdFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
+        mContext.registerReceiver(mPackageReceiver, sdFilter);
+        mContext.registerReceiver(mLocaleReceiver,
+                new IntentFilter(Intent.ACTION_LOCALE_CHANGED));
+    }
+
+    /**
+     * Load the activities matching the given intent, sorted by label, and
+     * keep delivering them to the listener as they change until
+     * {@link #cancel} is called.  Must be called on the main thread.
+     */
+    public void loadActivities(Intent intent, Listener listener) {
+        load(intent.toUri(0), new Intent(intent), listener);
+    }
+
+    /**
+     * Load all installed packages, with their activities, sorted by label.
+     * See {@link #loadActivities}.
+     */
+    public void loadPackages(Listener listener) {
+        load(KEY_PACKAGES, null, listener);
+    }
+
+    /**
+     * Load the icon of the given entry if needed, and return a copy of it.
+     * Don't call this on the main thread.
+     */
+    public Drawable loadIcon(Entry entry) {
+        return Entry.copyOf(entry.ensureIcon(mPm));
+    }
+
+    /**
+     * Stop delivering lists to the given listener.
+     */
+    public void cancel(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void load(String key, Intent intent, Listener listener) {
+        mListeners.put(listener, key);
+        mQueries.put(key, intent);
+        final List<Entry> cached;
+        synchronized (this) {
+            cached = mResults.get(key);
+        }
+        if (cached != null) {
+            listener.onEntriesLoaded(cached, true);
+        } else {
+            startLoading(key, intent);
+        }
+    }
+
+    private void startLoading(final String key, final Intent intent) {
+        synchronized (this) {
+            if (!mLoading.add(key)) {
+                return;
+            }
+        }
+        mBackgroundHandler.post(new Runnable() {
+            public void run() {
+                int generation = -1;
+                final boolean current;
+                try {
+                    generation = loadEntries(key, intent);
+                } finally {
+                    synchronized (AppCatalog.this) {
+                        mLoading.remove(key);
+                        current = generation == mGeneration;
+                    }
+                }
+                if (!current) {
+                    // Invalidated while loading, which couldn't restart
+                    // this load; its result was dropped, so load again.
+                    mMainHandler.post(new Runnable() {
+                        public void run() {
+                            if (mListeners.containsValue(key)) {
+                                startLoading(key, mQueries.get(key));
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Load the icon of an entry that was dropped from the cache, then
+     * deliver the lists again.  Called on the main thread.
+     */
+    private void requestIcon(final Entry entry) {
+        if (!mIconRequests.add(entry)) {
+            return;
+        }
+        mBackgroundHandler.post(new Runnable() {
+            public void run() {
+                entry.ensureIcon(mPm);
+                mMainHandler.post(new Runnable() {
+                    public void run() {
+                        mIconRequests.remove(entry);
+                        redeliver();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Deliver the cached lists to their listeners again, once for all
+     * icons loaded by then.
+     */
+    private void redeliver() {
+        if (mRedeliverPosted) {
+            return;
+        }
+        mRedeliverPosted = true;
+        mMainHandler.post(new Runnable() {
+            public void run() {
+                mRedeliverPosted = false;
+                final HashSet<String> keys = new HashSet<String>(mListeners.values());
+                for (String key : keys) {
+                    final List<Entry> cached;
+                    synchronized (AppCatalog.this) {
+                        cached = mResults.get(key);
+                    }
+                    if (cached != null) {
+                        deliver(key, cached, true);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Query the package manager, then load labels for whatever isn't
+     * cached and the icons of the first entries, delivering partial lists to
+     * listeners of the key along the way.
+     * @return the generation of the catalog the entries were loaded for;
+     *         the result is only kept if it is still current
+     */
+    private int loadEntries(String key, Intent intent) {
+        final int generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+
+        final ArrayList<Entry> entries = new ArrayList<Entry>();
+        if (intent == null) {
+            for (PackageInfo info : mPm.getInstalledPackages(PackageManager.GET_ACTIVITIES)) {
+                entries.add(obtainEntry(info));
+            }
+        } else {
+            for (ResolveInfo info : mPm.queryIntentActivities(intent, 0)) {
+                entries.add(obtainEntry(info));
+            }
+        }
+
+        // labels first, sorted in as they come so the list can be shown early
+        final ArrayList<Entry> sorted = new ArrayList<Entry>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            final Entry entry = entries.get(i);
+            entry.ensureLabel(mPm);
+            if (entry.sortKey == null) {
+                synchronized (this) {
+                    entry.sortKey = mCollator.getCollationKey(entry.label);
+                }
+            }
+            int index = Collections.binarySearch(sorted, entry, mComparator);
+            sorted.add(index < 0 ? -index - 1 : index, entry);
+            if ((i + 1) % BATCH_SIZE == 0) {
+                deliver(key, new ArrayList<Entry>(sorted), false);
+            }
+        }
+        final List<Entry> result = Collections.unmodifiableList(sorted);
+        deliver(key, result, false);
+
+        // then icons, in list order, as many as the cache keeps; the rest
+        // are loaded when shown
+        final int icons = Math.min(sorted.size(), MAX_ICONS);
+        for (int i = 0; i < icons; i++) {
+            sorted.get(i).ensureIcon(mPm);
+            if ((i + 1) % BATCH_SIZE == 0) {
+                deliver(key, result, false);
+            }
+        }
+
+        synchronized (this) {
+            if (generation != mGeneration) {
+                return generation;
+            }
+            mResults.put(key, result);
+        }
+        deliver(key, result, true);
+        return generation;
+    }
+
+    private synchronized Entry obtainEntry(ResolveInfo info) {
+        final String key = Entry.key(info.activityInfo.packageName, info.activityInfo.name);
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(this, info);
+            mEntries.put(key, entry);
+        }
+        return entry;
+    }
+
+    private synchronized Entry obtainEntry(PackageInfo info) {
+        final String key = Entry.key(info.packageName, null);
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(this, info);
+            mEntries.put(key, entry);
+        }
+        return entry;
+    }
+
+    private void deliver(final String key, final List<Entry> entries, final boolean complete) {
+        mMainHandler.post(new Runnable() {
+            public void run() {
+                // copy, since listeners may cancel themselves
+                final ArrayList<Listener> listeners = new ArrayList<Listener>();
+                for (HashMap.Entry<Listener, String> e : mListeners.entrySet()) {
+                    if (key.equals(e.getValue())) {
+                        listeners.add(e.getKey());
+                    }
+                }
+                for (Listener listener : listeners) {
+                    listener.onEntriesLoaded(entries, complete);
+                }
+            }
+        });
+    }
+
+    /**
+     * Forget the given packages, or everything if null, and reload the
+     * lists that have listeners.  Called on the main thread.
+     */
+    private void invalidate(String[] packages) {
+        synchronized (this) {
+            mGeneration++;
+            mResults.clear();
+            if (packages == null) {
+                mEntries.clear();
+                mIcons.evictAll();
+            } else {
+                final Iterator<Entry> it = mEntries.values().iterator();
+                while (it.hasNext()) {
+                    final Entry entry = it.next();
+                    for (String changed : packages) {
+                        if (changed.equals(entry.packageName)) {
+                            it.remove();
+                            mIcons.remove(entry.key);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        final HashSet<String> activeKeys = new HashSet<String>(mListeners.values());
+        mQueries.keySet().retainAll(activeKeys);
+        for (String key : activeKeys) {
+            startLoading(key, mQueries.get(key));
+        }
+    }
+}
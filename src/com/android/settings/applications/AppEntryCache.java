@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.util.Log;
+
+import com.android.internal.os.AtomicFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Persistent snapshot of the label and size information computed by
+ * {@link ApplicationsState}, so that a freshly started process can show
+ * Manage Apps with labels and sizes immediately instead of re-loading
+ * every label and re-querying every package size first.
+ *
+ * <p>Each record remembers the path, modification time and length of the
+ * APK it was computed against; a record is only used if the APK on disk
+ * still matches.  The whole file is discarded if its version or locale
+ * differs from the current one.
+ */
+class AppEntryCache {
+    static final String TAG = "AppEntryCache";
+    static final boolean DEBUG = false;
+
+    static final String FILE_NAME = "app_entries.bin";
+
+    // Bump whenever the record layout changes.
+    static final int VERSION = 1;
+
+    static class Record {
+        String packageName;
+        String sourceDir;
+        long apkMtime;
+        long apkLength;
+
+        String label;
+        String normalizedLabel;
+
+        long size;
+        long internalSize;
+        long externalSize;
+        long cacheSize;
+        long codeSize;
+        long dataSize;
+        long externalCodeSize;
+        long externalDataSize;
+    }
+
+    private final AtomicFile mFile;
+
+    // Synchronize on 'this' for the following.
+    private final HashMap<String, Record> mRecords = new HashMap<String, Record>();
+    private boolean mLoaded;
+    private boolean mDirty;
+
+    AppEntryCache(File dir) {
+        mFile = new AtomicFile(new File(dir, FILE_NAME));
+    }
+
+    synchronized boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * Reads the snapshot from disk if that hasn't happened yet.  Must not
+     * be called from the main thread.
+     */
+    synchronized void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        FileInputStream fis = null;
+        try {
+            fis = mFile.openRead();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(fis));
+            if (in.readInt() != VERSION) {
+                if (DEBUG) Log.i(TAG, "Discarding cache with old version");
+                return;
+            }
+            if (!Locale.getDefault().toString().equals(in.readUTF())) {
+                if (DEBUG) Log.i(TAG, "Discarding cache for other locale");
+                return;
+            }
+            final int count = in.readInt();
+            for (int i=0; i<count; i++) {
+                Record rec = new Record();
+                rec.packageName = in.readUTF();
+                rec.sourceDir = in.readUTF();
+                rec.apkMtime = in.readLong();
+                rec.apkLength = in.readLong();
+                rec.label = in.readUTF();
+                rec.normalizedLabel = in.readUTF();
+                rec.size = in.readLong();
+                rec.internalSize = in.readLong();
+                rec.externalSize = in.readLong();
+                rec.cacheSize = in.readLong();
+                rec.codeSize = in.readLong();
+                rec.dataSize = in.readLong();
+                rec.externalCodeSize = in.readLong();
+                rec.externalDataSize = in.readLong();
+                mRecords.put(rec.packageName, rec);
+            }
+            if (DEBUG) Log.i(TAG, "Loaded " + count + " cached entries");
+        } catch (FileNotFoundException e) {
+            // Nothing cached yet.
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read app entry cache", e);
+            mRecords.clear();
+        } finally {
+            if (fis != null) {
+                try {
+                    fis.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills in the label and size of the given entry from the snapshot, if
+     * there is a record for it that was computed against the same APK.
+     * Returns true if the entry was populated.
+     */
+    synchronized boolean apply(ApplicationsState.AppEntry entry) {
+        if (!mLoaded) {
+            return false;
+        }
+        Record rec = mRecords.get(entry.info.packageName);
+        if (rec == null) {
+            return false;
+        }
+        if (!rec.sourceDir.equals(entry.info.sourceDir)
+                || rec.apkMtime != entry.apkFile.lastModified()
+                || rec.apkLength != entry.apkFile.length()) {
+            if (DEBUG) Log.i(TAG, "Stale record for " + rec.packageName);
+            mRecords.remove(rec.packageName);
+            mDirty = true;
+            return false;
+        }
+        entry.label = rec.label;
+        entry.normalizedLabel = rec.normalizedLabel;
+        entry.mounted = true;
+        if (rec.size >= 0) {
+            entry.size = rec.size;
+            entry.internalSize = rec.internalSize;
+            entry.externalSize = rec.externalSize;
+            entry.cacheSize = rec.cacheSize;
+            entry.codeSize = rec.codeSize;
+            entry.dataSize = rec.dataSize;
+            entry.externalCodeSize = rec.externalCodeSize;
+            entry.externalDataSize = rec.externalDataSize;
+        }
+        return true;
+    }
+
+    /**
+     * Records the current label and size of the given entries, replacing
+     * whatever was known about them.  Packages that are no longer present
+     * in the list are dropped.
+     */
+    synchronized void update(ArrayList<ApplicationsState.AppEntry> entries) {
+        mRecords.clear();
+        for (int i=0; i<entries.size(); i++) {
+            ApplicationsState.AppEntry entry = entries.get(i);
+            if (!entry.mounted || entry.label == null) {
+                continue;
+            }
+            Record rec = new Record();
+            rec.packageName = entry.info.packageName;
+            rec.sourceDir = entry.info.sourceDir;
+            rec.apkMtime = entry.apkFile.lastModified();
+            rec.apkLength = entry.apkFile.length();
+            rec.label = entry.label;
+            rec.normalizedLabel = entry.getNormalizedLabel();
+            rec.size = entry.size;
+            rec.internalSize = entry.internalSize;
+            rec.externalSize = entry.externalSize;
+            rec.cacheSize = entry.cacheSize;
+            rec.codeSize = entry.codeSize;
+            rec.dataSize = entry.dataSize;
+            rec.externalCodeSize = entry.externalCodeSize;
+            rec.externalDataSize = entry.externalDataSize;
+            mRecords.put(rec.packageName, rec);
+        }
+        mDirty = true;
+    }
+
+    /**
+     * Drops everything known about the given package.
+     */
+    synchronized void remove(String packageName) {
+        if (mRecords.remove(packageName) != null) {
+            mDirty = true;
+        }
+    }
+
+    /**
+     * Drops all records, e.g. because the locale changed and every label
+     * needs to be reloaded.
+     */
+    synchronized void clear() {
+        if (mRecords.size() > 0) {
+            mRecords.clear();
+            mDirty = true;
+        }
+    }
+
+    /**
+     * Writes the snapshot to disk if it changed.  Must not be called from
+     * the main thread.
+     */
+    synchronized void writeIfDirty() {
+        if (!mDirty) {
+            return;
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(VERSION);
+            out.writeUTF(Locale.getDefault().toString());
+            out.writeInt(mRecords.size());
+            for (Record rec : mRecords.values()) {
+                out.writeUTF(rec.packageName);
+                out.writeUTF(rec.sourceDir);
+                out.writeLong(rec.apkMtime);
+                out.writeLong(rec.apkLength);
+                out.writeUTF(rec.label);
+                out.writeUTF(rec.normalizedLabel);
+                out.writeLong(rec.size);
+                out.writeLong(rec.internalSize);
+                out.writeLong(rec.externalSize);
+                out.writeLong(rec.cacheSize);
+                out.writeLong(rec.codeSize);
+                out.writeLong(rec.dataSize);
+                out.writeLong(rec.externalCodeSize);
+                out.writeLong(rec.externalDataSize);
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+            mDirty = false;
+            if (DEBUG) Log.i(TAG, "Wrote " + mRecords.size() + " cached entries");
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write app entry cache", e);
+            if (fos != null) {
+                mFile.failWrite(fos);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.util.LruCache;
+
+/**
+ * Application icons, keyed by package name and bounded by the number of
+ * bytes their bitmaps take.  Icons larger than the list row icon size are
+ * scaled down before they are cached.
+ */
+class AppIconCache {
+    private final Resources mResources;
+    private final int mIconSize;
+    private final LruCache<String, Drawable> mCache;
+
+    /**
+     * @param maxBytes the budget for all cached icons.
+     * @param iconSize the size icons are scaled down to, or 0 to keep
+     *        them at their original size.
+     */
+    AppIconCache(Resources res, int maxBytes, int iconSize) {
+        mResources = res;
+        mIconSize = iconSize;
+        mCache = new LruCache<String, Drawable>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Drawable value) {
+                return getByteCount(value);
+            }
+        };
+    }
+
+    static int getByteCount(Drawable d) {
+        if (d instanceof BitmapDrawable) {
+            Bitmap bm = ((BitmapDrawable) d).getBitmap();
+            if (bm != null) {
+                return bm.getRowBytes() * bm.getHeight();
+            }
+        }
+        // Assume something ARGB_8888 sized like the drawable.
+        return Math.max(1, d.getIntrinsicWidth() * d.getIntrinsicHeight() * 4);
+    }
+
+    Drawable get(String packageName) {
+        return mCache.get(packageName);
+    }
+
+    /**
+     * Adds an icon to the cache, scaling it down first if needed, and
+     * returns the drawable that was cached.
+     */
+    Drawable put(String packageName, Drawable icon) {
+        Drawable scaled = scale(icon);
+        mCache.put(packageName, scaled);
+        return scaled;
+    }
+
+    void remove(String packageName) {
+        mCache.remove(packageName);
+    }
+
+    private Drawable scale(Drawable icon) {
+        if (mIconSize <= 0 || !(icon instanceof BitmapDrawable)) {
+            return icon;
+        }
+        Bitmap bm = ((BitmapDrawable) icon).getBitmap();
+        if (bm == null || (bm.getWidth() <= mIconSize && bm.getHeight() <= mIconSize)) {
+            return icon;
+        }
+        final float ratio = Math.min(mIconSize / (float) bm.getWidth(),
+                mIconSize / (float) bm.getHeight());
+        final int width = Math.max(1, Math.round(bm.getWidth() * ratio));
+        final int height = Math.max(1, Math.round(bm.getHeight() * ratio));
+        return new BitmapDrawable(mResources,
+                Bitmap.createScaledBitmap(bm, width, height, true));
+    }
+
+    /**
+     * Drops icons according to a {@link ComponentCallbacks2} trim level.
+     */
+    void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            mCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            mCache.trimToSize(mCache.maxSize() / 2);
+        }
+    }
+
+    void evictAll() {
+        mCache.evictAll();
+    }
+
+    @Override
+    public String toString() {
+        return "AppIconCache{" + mCache.size() + "/" + mCache.maxSize() + " bytes, "
+                + mCache.hitCount() + " hits, " + mCache.missCount() + " misses, "
+                + mCache.evictionCount() + " evictions}";
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import com.android.settings.applications.ApplicationsState.AppEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+
+/**
+ * Search index over the entries of an app list, answering the queries
+ * typed into the Manage Apps text filter without scanning every entry.
+ *
+ * <p>A label matches a query if the query is a prefix of the label at the
+ * start of any of its words.  To answer this, the index keeps every
+ * word-start suffix of every normalized label in one sorted list, so the
+ * matching suffixes form a contiguous range found by binary search.
+ * Queries containing a '.' additionally match package names containing
+ * them, found through an index of package name trigrams.
+ *
+ * <p>The index is updated with the entries added or removed each time the
+ * list is rebuilt, and a query that extends the previous one only looks
+ * at the previous result.  Results keep the order of the list.
+ */
+class AppSearchIndex {
+    static final class Suffix {
+        final String text;
+        final AppEntry entry;
+
+        Suffix(String text, AppEntry entry) {
+            this.text = text;
+            this.entry = entry;
+        }
+    }
+
+    static final Comparator<Suffix> SUFFIX_COMPARATOR = new Comparator<Suffix>() {
+        @Override
+        public int compare(Suffix object1, Suffix object2) {
+            return object1.text.compareTo(object2.text);
+        }
+    };
+
+    static final class Indexed {
+        final String normalizedLabel;
+        final String packageName;
+
+        Indexed(String normalizedLabel, String packageName) {
+            this.normalizedLabel = normalizedLabel;
+            this.packageName = packageName;
+        }
+    }
+
+    // Word-start suffixes of all labels, sorted.
+    private final ArrayList<Suffix> mSuffixes = new ArrayList<Suffix>();
+    // Entries whose package name contains each trigram.
+    private final HashMap<String, ArrayList<AppEntry>> mTrigrams
+            = new HashMap<String, ArrayList<AppEntry>>();
+    // What was indexed for each entry, to remove it again.
+    private final HashMap<AppEntry, Indexed> mIndexed = new HashMap<AppEntry, Indexed>();
+    // Position of each entry in the current list.
+    private HashMap<AppEntry, Integer> mPositions = new HashMap<AppEntry, Integer>();
+    private ArrayList<AppEntry> mEntries;
+
+    private String mLastQuery;
+    private ArrayList<AppEntry> mLastResult;
+
+    static boolean isPackageQuery(String query) {
+        return query.indexOf('.') >= 0;
+    }
+
+    /**
+     * Brings the index in line with a newly rebuilt list, indexing entries
+     * that are new to it and dropping entries no longer in it.
+     */
+    synchronized void update(ArrayList<AppEntry> entries) {
+        HashMap<AppEntry, Integer> positions = new HashMap<AppEntry, Integer>();
+        if (entries != null) {
+            for (int i=0; i<entries.size(); i++) {
+                AppEntry entry = entries.get(i);
+                positions.put(entry, i);
+                Indexed indexed = mIndexed.get(entry);
+                if (indexed != null && !indexed.normalizedLabel.equals(
+                        entry.getNormalizedLabel())) {
+                    // The label changed, e.g. because the app was remounted.
+                    removeLocked(entry);
+                    indexed = null;
+                }
+                if (indexed == null) {
+                    addLocked(entry);
+                }
+            }
+        }
+        Iterator<AppEntry> it = mIndexed.keySet().iterator();
+        ArrayList<AppEntry> gone = null;
+        while (it.hasNext()) {
+            AppEntry entry = it.next();
+            if (!positions.containsKey(entry)) {
+                if (gone == null) {
+                    gone = new ArrayList<AppEntry>();
+                }
+                gone.add(entry);
+            }
+        }
+        if (gone != null) {
+            for (int i=0; i<gone.size(); i++) {
+                removeLocked(gone.get(i));
+            }
+        }
+        mPositions = positions;
+        mEntries = entries;
+        mLastQuery = null;
+        mLastResult = null;
+    }
+
+    private void addLocked(AppEntry entry) {
+        final String label = entry.getNormalizedLabel();
+        final String pkg = entry.info.packageName.toLowerCase();
+        mIndexed.put(entry, new Indexed(label, pkg));
+        for (int i=0; i<label.length(); i++) {
+            if (i == 0 || label.charAt(i-1) == ' ') {
+                Suffix suffix = new Suffix(label.substring(i), entry);
+                int idx = Collections.binarySearch(mSuffixes, suffix, SUFFIX_COMPARATOR);
+                mSuffixes.add(idx >= 0 ? idx : -idx-1, suffix);
+            }
+        }
+        for (int i=0; i+3<=pkg.length(); i++) {
+            String trigram = pkg.substring(i, i+3);
+            ArrayList<AppEntry> list = mTrigrams.get(trigram);
+            if (list == null) {
+                list = new ArrayList<AppEntry>();
+                mTrigrams.put(trigram, list);
+            }
+            if (!list.contains(entry)) {
+                list.add(entry);
+            }
+        }
+    }
+
+    private void removeLocked(AppEntry entry) {
+        Indexed indexed = mIndexed.remove(entry);
+        if (indexed == null) {
+            return;
+        }
+        final String label = indexed.normalizedLabel;
+        for (int i=0; i<label.length(); i++) {
+            if (i == 0 || label.charAt(i-1) == ' ') {
+                String text = label.substring(i);
+                int idx = lowerBound(text);
+                while (idx < mSuffixes.size() && mSuffixes.get(idx).text.equals(text)) {
+                    if (mSuffixes.get(idx).entry == entry) {
+                        mSuffixes.remove(idx);
+                        break;
+                    }
+                    idx++;
+                }
+            }
+        }
+        final String pkg = indexed.packageName;
+        for (int i=0; i+3<=pkg.length(); i++) {
+            String trigram = pkg.substring(i, i+3);
+            ArrayList<AppEntry> list = mTrigrams.get(trigram);
+            if (list != null) {
+                list.remove(entry);
+                if (list.size() == 0) {
+                    mTrigrams.remove(trigram);
+                }
+            }
+        }
+    }
+
+    private int lowerBound(String text) {
+        int lo = 0;
+        int hi = mSuffixes.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mSuffixes.get(mid).text.compareTo(text) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private boolean matchesLocked(AppEntry entry, String query) {
+        Indexed indexed = mIndexed.get(entry);
+        if (indexed == null) {
+            return false;
+        }
+        if (indexed.normalizedLabel.startsWith(query)
+                || indexed.normalizedLabel.indexOf(" " + query) != -1) {
+            return true;
+        }
+        return isPackageQuery(query) && indexed.packageName.indexOf(query) != -1;
+    }
+
+    /**
+     * Returns the entries of the current list whose label has a word
+     * starting with the given normalized query, in list order.
+     */
+    synchronized ArrayList<AppEntry> findWordPrefix(String query) {
+        HashSet<AppEntry> found = new HashSet<AppEntry>();
+        for (int i=lowerBound(query); i<mSuffixes.size(); i++) {
+            Suffix suffix = mSuffixes.get(i);
+            if (!suffix.text.startsWith(query)) {
+                break;
+            }
+            found.add(suffix.entry);
+        }
+        return inListOrderLocked(found);
+    }
+
+    /**
+     * Returns the entries of the current list whose package name contains
+     * the given lower case query, in list order.
+     */
+    synchronized ArrayList<AppEntry> findPackageSubstring(String query) {
+        HashSet<AppEntry> found = new HashSet<AppEntry>();
+        if (query.length() < 3) {
+            for (AppEntry entry : mIndexed.keySet()) {
+                if (mIndexed.get(entry).packageName.indexOf(query) != -1) {
+                    found.add(entry);
+                }
+            }
+        } else {
+            // Check the candidates sharing the query's rarest trigram.
+            ArrayList<AppEntry> candidates = null;
+            for (int i=0; i+3<=query.length(); i++) {
+                ArrayList<AppEntry> list = mTrigrams.get(query.substring(i, i+3));
+                if (list == null) {
+                    return new ArrayList<AppEntry>();
+                }
+                if (candidates == null || list.size() < candidates.size()) {
+                    candidates = list;
+                }
+            }
+            for (int i=0; i<candidates.size(); i++) {
+                AppEntry entry = candidates.get(i);
+                if (mIndexed.get(entry).packageName.indexOf(query) != -1) {
+                    found.add(entry);
+                }
+            }
+        }
+        return inListOrderLocked(found);
+    }
+
+    private ArrayList<AppEntry> inListOrderLocked(HashSet<AppEntry> found) {
+        ArrayList<AppEntry> result = new ArrayList<AppEntry>(found.size());
+        for (AppEntry entry : found) {
+            if (mPositions.containsKey(entry)) {
+                result.add(entry);
+            }
+        }
+        final HashMap<AppEntry, Integer> positions = mPositions;
+        Collections.sort(result, new Comparator<AppEntry>() {
+            @Override
+            public int compare(AppEntry object1, AppEntry object2) {
+                return positions.get(object1) - positions.get(object2);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns the entries of the current list matching what the user
+     * typed, in list order.
+     */
+    synchronized ArrayList<AppEntry> search(CharSequence prefix) {
+        if (prefix == null || prefix.length() == 0 || mEntries == null) {
+            return mEntries;
+        }
+        final String query = ApplicationsState.normalize(prefix.toString());
+        ArrayList<AppEntry> result;
+        if (mLastQuery != null && query.startsWith(mLastQuery)
+                && isPackageQuery(mLastQuery) == isPackageQuery(query)) {
+            // Anything matching the longer query matched the shorter one,
+            // as long as both match package names or neither does.
+            result = new ArrayList<AppEntry>();
+            for (int i=0; i<mLastResult.size(); i++) {
+                AppEntry entry = mLastResult.get(i);
+                if (matchesLocked(entry, query)) {
+                    result.add(entry);
+                }
+            }
+        } else {
+            result = findWordPrefix(query);
+            if (isPackageQuery(query)) {
+                HashSet<AppEntry> found = new HashSet<AppEntry>(result);
+                found.addAll(findPackageSubstring(query));
+                result = inListOrderLocked(found);
+            }
+        }
+        mLastQuery = query;
+        mLastResult = result;
+        return result;
+    }
+}
@@ -1,7 +1,9 @@
 package com.android.settings.applications;
 
+import android.app.ActivityManager;
 import android.app.Application;
 import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -10,6 +12,7 @@ import android.content.pm.IPackageStatsObserver;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageStats;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.res.Configuration;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Handler;
@@ -22,6 +25,7 @@ import android.text.format.Formatter;
 import android.util.Log;
 
 import java.io.File;
+import java.text.CollationKey;
 import java.text.Collator;
 import java.text.Normalizer;
 import java.text.Normalizer.Form;
@@ -58,6 +62,30 @@ public class ApplicationsState {
     static final int SIZE_UNKNOWN = -1;
     static final int SIZE_INVALID = -2;
 
+    // Number of package size requests kept outstanding at once.
+    static final int MAX_SIZE_REQUESTS = 4;
+    // How long to wait for a size request before issuing it again.
+    static final long SIZE_REQUEST_TIMEOUT = 10*1000;
+    // How many times a timed out size request is re-issued before giving up.
+    static final int MAX_SIZE_RETRIES = 2;
+    // How long size changes are collected before the callbacks are told.
+    static final long SIZE_CHANGED_BATCH_DELAY = 100;
+
+    // Fraction of the memory class the icon cache may use.
+    static final int ICON_CACHE_MEMORY_DIVISOR = 16;
+    // Number of outstanding icon requests remembered; older ones are
+    // assumed to have scrolled out of view.
+    static final int MAX_ICON_REQUESTS = 64;
+    // Number of icons loaded per background message.
+    static final int ICONS_PER_LOAD = 2;
+
+    // Number of (filter, comparator) sorted lists kept up to date.
+    static final int MAX_SORTED_VIEWS = 6;
+
+    // Collator behind every AppEntry's label key.  Collators are not
+    // thread safe, so synchronize on it when generating keys.
+    static final Collator sCollator = Collator.getInstance();
+
     static final Pattern REMOVE_DIACRITICALS_PATTERN
             = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
 
@@ -95,22 +123,33 @@ public class ApplicationsState {
 
         // Need to synchronize on 'this' for the following.
         ApplicationInfo info;
-        Drawable icon;
         String sizeStr;
         String internalSizeStr;
         String externalSizeStr;
         boolean sizeStale;
-        long sizeLoadStart;
 
         String normalizedLabel;
 
+        // Collation key of 'label', regenerated whenever the label changes.
+        CollationKey labelKey;
+        String labelKeySource;
+
+        CollationKey getLabelKey() {
+            if (labelKey == null || labelKeySource != label) {
+                synchronized (sCollator) {
+                    labelKey = sCollator.getCollationKey(label);
+                }
+                labelKeySource = label;
+            }
+            return labelKey;
+        }
+
         AppEntry(Context context, ApplicationInfo info, long id) {
             apkFile = new File(info.sourceDir);
             this.id = id;
             this.info = info;
             this.size = SIZE_UNKNOWN;
             this.sizeStale = true;
-            ensureLabel(context);
         }
         
         void ensureLabel(Context context) {
@@ -125,71 +164,45 @@ public class ApplicationsState {
                 }
             }
         }
-        
-        boolean ensureIconLocked(Context context, PackageManager pm) {
-            if (this.icon == null) {
-                if (this.apkFile.exists()) {
-                    this.icon = this.info.loadIcon(pm);
-                    return true;
-                } else {
-                    this.mounted = false;
-                    this.icon = context.getResources().getDrawable(
-                            com.android.internal.R.drawable.sym_app_on_sd_unavailable_icon);
-                }
-            } else if (!this.mounted) {
-                // If the app wasn't mounted but is now mounted, reload
-                // its icon.
-                if (this.apkFile.exists()) {
-                    this.mounted = true;
-                    this.icon = this.info.loadIcon(pm);
-                    return true;
-                }
-            }
-            return false;
-        }
     }
 
     public static final Comparator<AppEntry> ALPHA_COMPARATOR = new Comparator<AppEntry>() {
-        private final Collator sCollator = Collator.getInstance();
         @Override
         public int compare(AppEntry object1, AppEntry object2) {
             if (object1.info.enabled != object2.info.enabled) {
                 return object1.info.enabled ? -1 : 1;
             }
-            return sCollator.compare(object1.label, object2.label);
+            return object1.getLabelKey().compareTo(object2.getLabelKey());
         }
     };
 
     public static final Comparator<AppEntry> SIZE_COMPARATOR
             = new Comparator<AppEntry>() {
-        private final Collator sCollator = Collator.getInstance();
         @Override
         public int compare(AppEntry object1, AppEntry object2) {
             if (object1.size < object2.size) return 1;
             if (object1.size > object2.size) return -1;
-            return sCollator.compare(object1.label, object2.label);
+            return object1.getLabelKey().compareTo(object2.getLabelKey());
         }
     };
 
     public static final Comparator<AppEntry> INTERNAL_SIZE_COMPARATOR
             = new Comparator<AppEntry>() {
-        private final Collator sCollator = Collator.getInstance();
         @Override
         public int compare(AppEntry object1, AppEntry object2) {
             if (object1.internalSize < object2.internalSize) return 1;
             if (object1.internalSize > object2.internalSize) return -1;
-            return sCollator.compare(object1.label, object2.label);
+            return object1.getLabelKey().compareTo(object2.getLabelKey());
         }
     };
 
     public static final Comparator<AppEntry> EXTERNAL_SIZE_COMPARATOR
             = new Comparator<AppEntry>() {
-        private final Collator sCollator = Collator.getInstance();
         @Override
         public int compare(AppEntry object1, AppEntry object2) {
             if (object1.externalSize < object2.externalSize) return 1;
             if (object1.externalSize > object2.externalSize) return -1;
-            return sCollator.compare(object1.label, object2.label);
+            return object1.getLabelKey().compareTo(object2.getLabelKey());
         }
     };
 
@@ -236,7 +249,24 @@ public class ApplicationsState {
     final ArrayList<AppEntry> mAppEntries = new ArrayList<AppEntry>();
     List<ApplicationInfo> mApplications = new ArrayList<ApplicationInfo>();
     long mCurId = 1;
-    String mCurComputingSizePkg;
+
+    // Outstanding size requests, mapping package name to the uptime at
+    // which the request was issued, and the number of times each one has
+    // timed out so far.
+    final HashMap<String, Long> mSizeRequests = new HashMap<String, Long>();
+    final HashMap<String, Integer> mSizeRetries = new HashMap<String, Integer>();
+    // Packages whose size changed since the callbacks were last told.
+    ArrayList<String> mPendingSizeChanges = new ArrayList<String>();
+
+    // Snapshot of labels and sizes from a previous run, loaded on the
+    // background thread.
+    final AppEntryCache mDiskCache;
+
+    // Icons are only loaded when asked for, into a bounded cache.
+    // Pending requests, most recent first, are protected by mEntriesMap.
+    final AppIconCache mIconCache;
+    final ArrayList<AppEntry> mIconRequests = new ArrayList<AppEntry>();
+    Drawable mDefaultIcon;
 
     // Rebuilding of app list.  Synchronized on mRebuildSync.
     final Object mRebuildSync = new Object();
@@ -246,6 +276,45 @@ public class ApplicationsState {
     Comparator<AppEntry> mRebuildComparator;
     ArrayList<AppEntry> mRebuildResult;
 
+    /**
+     * A filtered, sorted list of entries that is kept up to date as
+     * packages come and go and sizes change, so that a rebuild with the
+     * same filter and comparator only needs to copy it.
+     */
+    static final class SortedView {
+        final AppFilter filter;
+        final Comparator<AppEntry> comparator;
+        final boolean sizeSensitive;
+        final ArrayList<AppEntry> list;
+
+        SortedView(AppFilter filter, Comparator<AppEntry> comparator,
+                ArrayList<AppEntry> list) {
+            this.filter = filter;
+            this.comparator = comparator;
+            this.sizeSensitive = comparator != ALPHA_COMPARATOR;
+            this.list = list;
+        }
+
+        void insert(AppEntry entry) {
+            int idx = Collections.binarySearch(list, entry, comparator);
+            list.add(idx >= 0 ? idx : -idx-1, entry);
+        }
+
+        void remove(AppEntry entry) {
+            int idx = list.indexOf(entry);
+            if (idx >= 0) {
+                list.remove(idx);
+            }
+        }
+    }
+
+    // Sorted views, most recently used last.  Synchronize on mEntriesMap
+    // to protect access to these.
+    final ArrayList<SortedView> mSortedViews = new ArrayList<SortedView>();
+    // Incremented whenever the sorted views receive a delta, so that a
+    // view built concurrently can tell it missed one.
+    int mViewGeneration;
+
     /**
      * Receives notifications when applications are added/removed.
      */
@@ -327,11 +396,11 @@ public class ApplicationsState {
                     }
                 } break;
                 case MSG_PACKAGE_SIZE_CHANGED: {
-                    if (mCurCallbacks != null) {
-                        mCurCallbacks.onPackageSizeChanged((String)msg.obj);
-                    }
+                    dispatchPendingSizeChanges();
                 } break;
                 case MSG_ALL_SIZES_COMPUTED: {
+                    removeMessages(MSG_PACKAGE_SIZE_CHANGED);
+                    dispatchPendingSizeChanges();
                     if (mCurCallbacks != null) {
                         mCurCallbacks.onAllSizesComputed();
                     }
@@ -347,6 +416,36 @@ public class ApplicationsState {
 
     final MainHandler mMainHandler = new MainHandler();
 
+    void dispatchPendingSizeChanges() {
+        ArrayList<String> changed;
+        synchronized (mEntriesMap) {
+            if (mPendingSizeChanges.size() == 0) {
+                return;
+            }
+            changed = mPendingSizeChanges;
+            mPendingSizeChanges = new ArrayList<String>();
+        }
+        if (mCurCallbacks != null) {
+            for (int i=0; i<changed.size(); i++) {
+                mCurCallbacks.onPackageSizeChanged(changed.get(i));
+            }
+        }
+    }
+
+    /**
+     * Queues a size change for the callbacks, which are told about all
+     * changes collected during {@link #SIZE_CHANGED_BATCH_DELAY} at once.
+     */
+    void noteSizeChangedLocked(String packageName) {
+        if (!mPendingSizeChanges.contains(packageName)) {
+            mPendingSizeChanges.add(packageName);
+        }
+        if (!mMainHandler.hasMessages(MainHandler.MSG_PACKAGE_SIZE_CHANGED)) {
+            mMainHandler.sendEmptyMessageDelayed(MainHandler.MSG_PACKAGE_SIZE_CHANGED,
+                    SIZE_CHANGED_BATCH_DELAY);
+        }
+    }
+
     // --------------------------------------------------------------
 
     static final Object sLock = new Object();
@@ -364,6 +463,27 @@ public class ApplicationsState {
     private ApplicationsState(Application app) {
         mContext = app;
         mPm = mContext.getPackageManager();
+        mDiskCache = new AppEntryCache(mContext.getCacheDir());
+        ActivityManager am = (ActivityManager) mContext.getSystemService(
+                Context.ACTIVITY_SERVICE);
+        mIconCache = new AppIconCache(mContext.getResources(),
+                am.getMemoryClass() * 1024 * 1024 / ICON_CACHE_MEMORY_DIVISOR,
+                mContext.getResources().getDimensionPixelSize(android.R.dimen.app_icon_size));
+        app.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                mIconCache.trimMemory(level);
+            }
+
+            @Override
+            public void onLowMemory() {
+                mIconCache.evictAll();
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+        });
         mThread = new HandlerThread("ApplicationsState.Loader",
                 Process.THREAD_PRIORITY_BACKGROUND);
         mThread.start();
@@ -412,6 +532,10 @@ public class ApplicationsState {
                 // should completely reload the app entries.
                 mEntriesMap.clear();
                 mAppEntries.clear();
+                mDiskCache.clear();
+                mSortedViews.clear();
+                mIconRequests.clear();
+                mIconCache.evictAll();
             } else {
                 for (int i=0; i<mAppEntries.size(); i++) {
                     mAppEntries.get(i).sizeStale = true;
@@ -433,7 +557,12 @@ public class ApplicationsState {
                     entry.info = info;
                 }
             }
-            mCurComputingSizePkg = null;
+            mSizeRequests.clear();
+            mSizeRetries.clear();
+            // The application list was just re-queried, so the views
+            // may have missed changes while we were paused.
+            mSortedViews.clear();
+            mViewGeneration++;
             if (!mBackgroundHandler.hasMessages(BackgroundHandler.MSG_LOAD_ENTRIES)) {
                 mBackgroundHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_ENTRIES);
             }
@@ -446,6 +575,9 @@ public class ApplicationsState {
         synchronized (mEntriesMap) {
             mCurCallbacks = null;
             mResumed = false;
+            if (!mBackgroundHandler.hasMessages(BackgroundHandler.MSG_SAVE_CACHE)) {
+                mBackgroundHandler.sendEmptyMessage(BackgroundHandler.MSG_SAVE_CACHE);
+            }
             if (DEBUG_LOCKING) Log.v(TAG, "...pause releasing lock");
         }
     }
@@ -499,49 +631,194 @@ public class ApplicationsState {
 
         Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
 
+        // Packages added since the views were built have no entry yet;
+        // creating them inserts them into the views.
+        ensureEntriesForApplications();
+
+        ArrayList<AppEntry> filteredApps = null;
+        synchronized (mEntriesMap) {
+            SortedView view = findSortedViewLocked(filter, comparator);
+            if (view != null) {
+                if (DEBUG) Log.i(TAG, "Reusing sorted view");
+                filteredApps = new ArrayList<AppEntry>(view.list);
+            }
+        }
+
+        if (filteredApps == null) {
+            filteredApps = buildSortedList(filter, comparator);
+        }
+
+        synchronized (mRebuildSync) {
+            if (!mRebuildRequested) {
+                if (!mRebuildAsync) {
+                    mRebuildResult = filteredApps;
+                    mRebuildSync.notifyAll();
+                } else {
+                    if (!mMainHandler.hasMessages(MainHandler.MSG_REBUILD_COMPLETE)) {
+                        Message msg = mMainHandler.obtainMessage(
+                                MainHandler.MSG_REBUILD_COMPLETE, filteredApps);
+                        mMainHandler.sendMessage(msg);
+                    }
+                }
+            }
+        }
+
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+    }
+
+    /**
+     * Filters and sorts the full application list from scratch, and keeps
+     * the result as a sorted view unless a delta arrived meanwhile.
+     */
+    ArrayList<AppEntry> buildSortedList(AppFilter filter, Comparator<AppEntry> comparator) {
         if (filter != null) {
             filter.init();
         }
-        
+
         List<ApplicationInfo> apps;
+        ArrayList<AppEntry> filteredApps = new ArrayList<AppEntry>();
+        ArrayList<ApplicationInfo> missing = null;
+        // The view generation our snapshot matches, or -1 once a change
+        // from elsewhere may have been missed.
+        int generation;
         synchronized (mEntriesMap) {
+            if (DEBUG_LOCKING) Log.v(TAG, "rebuild acquired lock");
+            generation = mViewGeneration;
             apps = new ArrayList<ApplicationInfo>(mApplications);
+            for (int i=0; i<apps.size(); i++) {
+                ApplicationInfo info = apps.get(i);
+                if (filter == null || filter.filterApp(info)) {
+                    AppEntry entry = mEntriesMap.get(info.packageName);
+                    if (entry != null && entry.label != null && entry.mounted) {
+                        if (entry.info != info) {
+                            entry.info = info;
+                        }
+                        filteredApps.add(entry);
+                    } else {
+                        if (missing == null) {
+                            missing = new ArrayList<ApplicationInfo>();
+                        }
+                        missing.add(info);
+                    }
+                }
+            }
+            if (DEBUG_LOCKING) Log.v(TAG, "rebuild releasing lock");
         }
 
-        ArrayList<AppEntry> filteredApps = new ArrayList<AppEntry>();
-        if (DEBUG) Log.i(TAG, "Rebuilding...");
-        for (int i=0; i<apps.size(); i++) {
-            ApplicationInfo info = apps.get(i);
-            if (filter == null || filter.filterApp(info)) {
+        // Entries that still need loading take the lock one at a time, so
+        // the main thread is not held off while their labels load.
+        if (missing != null) {
+            for (int i=0; i<missing.size(); i++) {
                 synchronized (mEntriesMap) {
                     if (DEBUG_LOCKING) Log.v(TAG, "rebuild acquired lock");
-                    AppEntry entry = getEntryLocked(info);
+                    if (generation != mViewGeneration) {
+                        generation = -1;
+                    }
+                    AppEntry entry = getEntryLocked(missing.get(i));
+                    String oldLabel = entry.label;
                     entry.ensureLabel(mContext);
-                    if (DEBUG) Log.i(TAG, "Using " + info.packageName + ": " + entry);
+                    if (oldLabel != entry.label) {
+                        // Remounted with a new label; move it in the views.
+                        removeFromSortedViewsLocked(entry);
+                        addToSortedViewsLocked(entry);
+                        // Our own change; the entry is in our list anyway.
+                        if (generation >= 0) {
+                            generation = mViewGeneration;
+                        }
+                    }
+                    if (DEBUG) Log.i(TAG, "Using " + entry.info.packageName + ": " + entry);
                     filteredApps.add(entry);
                     if (DEBUG_LOCKING) Log.v(TAG, "rebuild releasing lock");
                 }
             }
         }
 
+        if (DEBUG) Log.i(TAG, "Sorting " + filteredApps.size() + " entries");
         Collections.sort(filteredApps, comparator);
 
-        synchronized (mRebuildSync) {
-            if (!mRebuildRequested) {
-                if (!mRebuildAsync) {
-                    mRebuildResult = filteredApps;
-                    mRebuildSync.notifyAll();
-                } else {
-                    if (!mMainHandler.hasMessages(MainHandler.MSG_REBUILD_COMPLETE)) {
-                        Message msg = mMainHandler.obtainMessage(
-                                MainHandler.MSG_REBUILD_COMPLETE, filteredApps);
-                        mMainHandler.sendMessage(msg);
+        synchronized (mEntriesMap) {
+            if (generation >= 0 && generation == mViewGeneration) {
+                SortedView view = new SortedView(filter, comparator,
+                        new ArrayList<AppEntry>(filteredApps));
+                mSortedViews.add(view);
+                if (mSortedViews.size() > MAX_SORTED_VIEWS) {
+                    mSortedViews.remove(0);
+                }
+            }
+        }
+        return filteredApps;
+    }
+
+    void ensureEntriesForApplications() {
+        ArrayList<ApplicationInfo> missing = null;
+        synchronized (mEntriesMap) {
+            for (int i=0; i<mApplications.size(); i++) {
+                ApplicationInfo info = mApplications.get(i);
+                if (mEntriesMap.get(info.packageName) == null) {
+                    if (missing == null) {
+                        missing = new ArrayList<ApplicationInfo>();
                     }
+                    missing.add(info);
+                }
+            }
+        }
+        if (missing != null) {
+            for (int i=0; i<missing.size(); i++) {
+                synchronized (mEntriesMap) {
+                    getEntryLocked(missing.get(i));
                 }
             }
         }
+    }
 
-        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+    SortedView findSortedViewLocked(AppFilter filter, Comparator<AppEntry> comparator) {
+        for (int i=mSortedViews.size()-1; i>=0; i--) {
+            SortedView view = mSortedViews.get(i);
+            if (view.filter == filter && view.comparator == comparator) {
+                if (i != mSortedViews.size()-1) {
+                    mSortedViews.remove(i);
+                    mSortedViews.add(view);
+                }
+                return view;
+            }
+        }
+        return null;
+    }
+
+    void addToSortedViewsLocked(AppEntry entry) {
+        mViewGeneration++;
+        for (int i=0; i<mSortedViews.size(); i++) {
+            SortedView view = mSortedViews.get(i);
+            if (view.filter == null || view.filter.filterApp(entry.info)) {
+                view.insert(entry);
+            }
+        }
+    }
+
+    void removeFromSortedViewsLocked(AppEntry entry) {
+        mViewGeneration++;
+        for (int i=0; i<mSortedViews.size(); i++) {
+            mSortedViews.get(i).remove(entry);
+        }
+    }
+
+    /**
+     * Moves an entry whose size just changed to its new place in every
+     * view sorted by size.  The entry is located by identity, since its
+     * old position can no longer be found by binary search.
+     */
+    void resortSizeInSortedViewsLocked(AppEntry entry) {
+        mViewGeneration++;
+        for (int i=0; i<mSortedViews.size(); i++) {
+            SortedView view = mSortedViews.get(i);
+            if (view.sizeSensitive) {
+                int idx = view.list.indexOf(entry);
+                if (idx >= 0) {
+                    view.list.remove(idx);
+                    view.insert(entry);
+                }
+            }
+        }
     }
 
     AppEntry getEntry(String packageName) {
@@ -562,13 +839,59 @@ public class ApplicationsState {
         }
     }
     
-    void ensureIcon(AppEntry entry) {
-        if (entry.icon != null) {
-            return;
+    /**
+     * Returns the icon of the given entry if it is cached.  Otherwise the
+     * icon is queued for loading ahead of earlier requests, the callbacks
+     * are told through onPackageIconChanged() once it is available, and
+     * null is returned.
+     */
+    Drawable getIcon(AppEntry entry) {
+        Drawable icon = mIconCache.get(entry.info.packageName);
+        if (icon != null) {
+            return icon;
+        }
+        if (DEBUG_LOCKING) Log.v(TAG, "getIcon about to acquire lock...");
+        synchronized (mEntriesMap) {
+            mIconRequests.remove(entry);
+            mIconRequests.add(0, entry);
+            if (mIconRequests.size() > MAX_ICON_REQUESTS) {
+                mIconRequests.remove(mIconRequests.size()-1);
+            }
+            if (!mBackgroundHandler.hasMessages(BackgroundHandler.MSG_LOAD_ICONS)) {
+                mBackgroundHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_ICONS);
+            }
+            if (DEBUG_LOCKING) Log.v(TAG, "...getIcon releasing lock");
+        }
+        return null;
+    }
+
+    /**
+     * Returns the icon of the given entry if it is cached, without
+     * requesting it otherwise.
+     */
+    Drawable getCachedIcon(AppEntry entry) {
+        return mIconCache.get(entry.info.packageName);
+    }
+
+    /**
+     * Returns the icon to show while an entry's own icon is loading.
+     */
+    Drawable getDefaultIcon() {
+        if (mDefaultIcon == null) {
+            mDefaultIcon = mPm.getDefaultActivityIcon();
+        }
+        return mDefaultIcon;
+    }
+
+    Drawable loadIcon(AppEntry entry) {
+        if (entry.apkFile.exists()) {
+            return entry.info.loadIcon(mPm);
         }
         synchronized (entry) {
-            entry.ensureIconLocked(mContext, mPm);
+            entry.mounted = false;
         }
+        return mContext.getResources().getDrawable(
+                com.android.internal.R.drawable.sym_app_on_sd_unavailable_icon);
     }
     
     void requestSize(String packageName) {
@@ -576,6 +899,9 @@ public class ApplicationsState {
         synchronized (mEntriesMap) {
             AppEntry entry = mEntriesMap.get(packageName);
             if (entry != null) {
+                // Explicit requests bypass the window; the user is waiting
+                // for this one.
+                mSizeRequests.put(packageName, SystemClock.uptimeMillis());
                 mPm.getPackageSizeInfo(packageName, mBackgroundHandler.mStatsObserver);
             }
             if (DEBUG_LOCKING) Log.v(TAG, "...requestSize releasing lock");
@@ -648,7 +974,11 @@ public class ApplicationsState {
                 if (entry != null) {
                     mEntriesMap.remove(pkgName);
                     mAppEntries.remove(entry);
+                    removeFromSortedViewsLocked(entry);
+                    mIconRequests.remove(entry);
                 }
+                mDiskCache.remove(pkgName);
+                mIconCache.remove(pkgName);
                 mApplications.remove(idx);
                 if (!mMainHandler.hasMessages(MainHandler.MSG_PACKAGE_LIST_CHANGED)) {
                     mMainHandler.sendEmptyMessage(MainHandler.MSG_PACKAGE_LIST_CHANGED);
@@ -669,8 +999,19 @@ public class ApplicationsState {
         if (entry == null) {
             if (DEBUG) Log.i(TAG, "Creating AppEntry for " + info.packageName);
             entry = new AppEntry(mContext, info, mCurId++);
+            if (mDiskCache.apply(entry)) {
+                if (DEBUG) Log.i(TAG, "Restored " + info.packageName + " from disk cache");
+                if (entry.size >= 0) {
+                    entry.sizeStr = getSizeStr(entry.size);
+                    entry.internalSizeStr = getSizeStr(entry.internalSize);
+                    entry.externalSizeStr = getSizeStr(entry.externalSize);
+                }
+            } else {
+                entry.ensureLabel(mContext);
+            }
             mEntriesMap.put(info.packageName, entry);
             mAppEntries.add(entry);
+            addToSortedViewsLocked(entry);
         } else if (entry.info != info) {
             entry.info = info;
         }
@@ -708,6 +1049,8 @@ public class ApplicationsState {
         static final int MSG_LOAD_ENTRIES = 2;
         static final int MSG_LOAD_ICONS = 3;
         static final int MSG_LOAD_SIZES = 4;
+        static final int MSG_SAVE_CACHE = 5;
+        static final int MSG_SIZE_TIMEOUT = 6;
 
         boolean mRunning;
 
@@ -720,7 +1063,6 @@ public class ApplicationsState {
                     if (entry != null) {
                         synchronized (entry) {
                             entry.sizeStale = false;
-                            entry.sizeLoadStart = 0;
                             long externalCodeSize = stats.externalCodeSize
                                     + stats.externalObbSize;
                             long externalDataSize = stats.externalDataSize
@@ -750,14 +1092,13 @@ public class ApplicationsState {
                             }
                         }
                         if (sizeChanged) {
-                            Message msg = mMainHandler.obtainMessage(
-                                    MainHandler.MSG_PACKAGE_SIZE_CHANGED, stats.packageName);
-                            mMainHandler.sendMessage(msg);
+                            resortSizeInSortedViewsLocked(entry);
+                            noteSizeChangedLocked(stats.packageName);
                         }
                     }
-                    if (mCurComputingSizePkg == null
-                            || mCurComputingSizePkg.equals(stats.packageName)) {
-                        mCurComputingSizePkg = null;
+                    mSizeRetries.remove(stats.packageName);
+                    if (mSizeRequests.remove(stats.packageName) != null) {
+                        // A slot in the window opened up; fill it.
                         sendEmptyMessage(MSG_LOAD_SIZES);
                     }
                     if (DEBUG_LOCKING) Log.v(TAG, "onGetStatsCompleted releasing lock");
@@ -769,14 +1110,110 @@ public class ApplicationsState {
             super(looper);
         }
 
+        /**
+         * Drops size requests that have been outstanding for too long so
+         * they get issued again, or gives up on them after
+         * {@link #MAX_SIZE_RETRIES} attempts.
+         */
+        void expireSizeRequestsLocked(long now) {
+            if (mSizeRequests.size() == 0) {
+                return;
+            }
+            ArrayList<String> expired = null;
+            for (HashMap.Entry<String, Long> req : mSizeRequests.entrySet()) {
+                if (req.getValue() < (now-SIZE_REQUEST_TIMEOUT)) {
+                    if (expired == null) {
+                        expired = new ArrayList<String>();
+                    }
+                    expired.add(req.getKey());
+                }
+            }
+            if (expired == null) {
+                return;
+            }
+            for (int i=0; i<expired.size(); i++) {
+                String pkgName = expired.get(i);
+                mSizeRequests.remove(pkgName);
+                Integer retries = mSizeRetries.get(pkgName);
+                int count = retries != null ? retries + 1 : 1;
+                AppEntry entry = mEntriesMap.get(pkgName);
+                if (count > MAX_SIZE_RETRIES) {
+                    Log.w(TAG, "Giving up on size of " + pkgName);
+                    mSizeRetries.remove(pkgName);
+                    if (entry != null) {
+                        boolean invalidated = false;
+                        synchronized (entry) {
+                            entry.sizeStale = false;
+                            if (entry.size == SIZE_UNKNOWN) {
+                                entry.size = SIZE_INVALID;
+                                invalidated = true;
+                            }
+                        }
+                        if (invalidated) {
+                            resortSizeInSortedViewsLocked(entry);
+                            noteSizeChangedLocked(pkgName);
+                        }
+                    }
+                } else {
+                    if (DEBUG) Log.i(TAG, "Size request timed out for " + pkgName);
+                    mSizeRetries.put(pkgName, count);
+                }
+            }
+        }
+
+        /**
+         * Issues size requests for entries that need them until the window
+         * is full.  If {@code unknownOnly} is set, only entries with no size
+         * at all are considered.  Returns true if there are entries still
+         * needing a size that did not fit in the window.
+         */
+        boolean fillSizeWindowLocked(long now, boolean unknownOnly) {
+            for (int i=0; i<mAppEntries.size(); i++) {
+                AppEntry entry = mAppEntries.get(i);
+                if (entry.size != SIZE_UNKNOWN && (unknownOnly || !entry.sizeStale)) {
+                    continue;
+                }
+                final String pkgName = entry.info.packageName;
+                if (mSizeRequests.containsKey(pkgName)) {
+                    continue;
+                }
+                if (mSizeRequests.size() >= MAX_SIZE_REQUESTS) {
+                    return true;
+                }
+                if (!mRunning) {
+                    mRunning = true;
+                    Message m = mMainHandler.obtainMessage(
+                            MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
+                    mMainHandler.sendMessage(m);
+                }
+                mSizeRequests.put(pkgName, now);
+                mPm.getPackageSizeInfo(pkgName, mStatsObserver);
+            }
+            return false;
+        }
+
         @Override
         public void handleMessage(Message msg) {
+            // Make sure the snapshot from the previous run is available
+            // before any entries get created.
+            mDiskCache.ensureLoaded();
+
             // Always try rebuilding list first thing, if needed.
             handleRebuildList();
 
             switch (msg.what) {
                 case MSG_REBUILD_LIST: {
                 } break;
+                case MSG_SAVE_CACHE: {
+                    synchronized (mEntriesMap) {
+                        if (DEBUG_LOCKING) Log.v(TAG, "MSG_SAVE_CACHE acquired lock");
+                        if (mAppEntries.size() > 0) {
+                            mDiskCache.update(mAppEntries);
+                        }
+                        if (DEBUG_LOCKING) Log.v(TAG, "MSG_SAVE_CACHE releasing lock");
+                    }
+                    mDiskCache.writeIfDirty();
+                } break;
                 case MSG_LOAD_ENTRIES: {
                     int numDone = 0;
                     synchronized (mEntriesMap) {
@@ -800,72 +1237,63 @@ public class ApplicationsState {
                     if (numDone >= 6) {
                         sendEmptyMessage(MSG_LOAD_ENTRIES);
                     } else {
-                        sendEmptyMessage(MSG_LOAD_ICONS);
+                        sendEmptyMessage(MSG_LOAD_SIZES);
                     }
                 } break;
                 case MSG_LOAD_ICONS: {
                     int numDone = 0;
-                    synchronized (mEntriesMap) {
-                        if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ICONS acquired lock");
-                        for (int i=0; i<mAppEntries.size() && numDone<2; i++) {
-                            AppEntry entry = mAppEntries.get(i);
-                            if (entry.icon == null || !entry.mounted) {
-                                synchronized (entry) {
-                                    if (entry.ensureIconLocked(mContext, mPm)) {
-                                        if (!mRunning) {
-                                            mRunning = true;
-                                            Message m = mMainHandler.obtainMessage(
-                                                    MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
-                                            mMainHandler.sendMessage(m);
-                                        }
-                                        numDone++;
-                                    }
-                                }
+                    boolean more = false;
+                    while (numDone < ICONS_PER_LOAD) {
+                        AppEntry entry;
+                        synchronized (mEntriesMap) {
+                            if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ICONS acquired lock");
+                            if (mIconRequests.size() == 0) {
+                                break;
                             }
+                            entry = mIconRequests.remove(0);
+                            more = mIconRequests.size() > 0;
+                            if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ICONS releasing lock");
                         }
-                        if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ICONS releasing lock");
+                        mIconCache.put(entry.info.packageName, loadIcon(entry));
+                        numDone++;
                     }
                     if (numDone > 0) {
+                        if (DEBUG) Log.i(TAG, "Loaded " + numDone + " icons: " + mIconCache);
                         if (!mMainHandler.hasMessages(MainHandler.MSG_PACKAGE_ICON_CHANGED)) {
                             mMainHandler.sendEmptyMessage(MainHandler.MSG_PACKAGE_ICON_CHANGED);
                         }
                     }
-                    if (numDone >= 2) {
+                    if (more) {
                         sendEmptyMessage(MSG_LOAD_ICONS);
-                    } else {
-                        sendEmptyMessage(MSG_LOAD_SIZES);
                     }
                 } break;
-                case MSG_LOAD_SIZES: {
+                case MSG_LOAD_SIZES:
+                case MSG_SIZE_TIMEOUT: {
                     synchronized (mEntriesMap) {
                         if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES acquired lock");
-                        if (mCurComputingSizePkg != null) {
-                            if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES releasing: currently computing");
+                        final long now = SystemClock.uptimeMillis();
+                        expireSizeRequestsLocked(now);
+
+                        // Entries with no size at all go first; entries
+                        // restored from the disk cache already show a size
+                        // and are only refreshed after that.
+                        boolean pending = fillSizeWindowLocked(now, true);
+                        pending |= fillSizeWindowLocked(now, false);
+
+                        removeMessages(MSG_SIZE_TIMEOUT);
+                        if (mSizeRequests.size() > 0) {
+                            sendEmptyMessageDelayed(MSG_SIZE_TIMEOUT, SIZE_REQUEST_TIMEOUT);
+                        }
+                        if (pending || mSizeRequests.size() > 0) {
+                            if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES releasing: now computing");
                             return;
                         }
 
-                        long now = SystemClock.uptimeMillis();
-                        for (int i=0; i<mAppEntries.size(); i++) {
-                            AppEntry entry = mAppEntries.get(i);
-                            if (entry.size == SIZE_UNKNOWN || entry.sizeStale) {
-                                if (entry.sizeLoadStart == 0 ||
-                                        (entry.sizeLoadStart < (now-20*1000))) {
-                                    if (!mRunning) {
-                                        mRunning = true;
-                                        Message m = mMainHandler.obtainMessage(
-                                                MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
-                                        mMainHandler.sendMessage(m);
-                                    }
-                                    entry.sizeLoadStart = now;
-                                    mCurComputingSizePkg = entry.info.packageName;
-                                    mPm.getPackageSizeInfo(mCurComputingSizePkg, mStatsObserver);
-                                }
-                                if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES releasing: now computing");
-                                return;
-                            }
-                        }
                         if (!mMainHandler.hasMessages(MainHandler.MSG_ALL_SIZES_COMPUTED)) {
                             mMainHandler.sendEmptyMessage(MainHandler.MSG_ALL_SIZES_COMPUTED);
+                            if (!hasMessages(MSG_SAVE_CACHE)) {
+                                sendEmptyMessage(MSG_SAVE_CACHE);
+                            }
                             mRunning = false;
                             Message m = mMainHandler.obtainMessage(
                                     MainHandler.MSG_RUNNING_STATE_CHANGED, 0);
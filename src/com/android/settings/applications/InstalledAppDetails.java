@@ -38,6 +38,7 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.graphics.drawable.Drawable;
 import android.hardware.usb.IUsbManager;
 import android.net.Uri;
 import android.os.AsyncTask;
@@ -376,8 +377,8 @@ public class InstalledAppDetails extends Fragment
     private void setAppLabelAndIcon(PackageInfo pkgInfo) {
         View appSnippet = mRootView.findViewById(R.id.app_snippet);
         ImageView icon = (ImageView) appSnippet.findViewById(R.id.app_icon);
-        mState.ensureIcon(mAppEntry);
-        icon.setImageDrawable(mAppEntry.icon);
+        Drawable appIcon = mState.getIcon(mAppEntry);
+        icon.setImageDrawable(appIcon != null ? appIcon : mState.getDefaultIcon());
         // Set application name.
         TextView label = (TextView) appSnippet.findViewById(R.id.app_name);
         label.setText(mAppEntry.label);
@@ -415,6 +416,14 @@ public class InstalledAppDetails extends Fragment
 
     @Override
     public void onPackageIconChanged() {
+        if (mAppEntry == null || mRootView == null) {
+            return;
+        }
+        Drawable appIcon = mState.getCachedIcon(mAppEntry);
+        if (appIcon != null) {
+            View appSnippet = mRootView.findViewById(R.id.app_snippet);
+            ((ImageView) appSnippet.findViewById(R.id.app_icon)).setImageDrawable(appIcon);
+        }
     }
 
     @Override
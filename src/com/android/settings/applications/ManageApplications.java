@@ -25,6 +25,7 @@ import android.content.Intent;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.IPackageManager;
 import android.content.pm.PackageInfo;
+import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.RemoteException;
@@ -255,15 +256,17 @@ public class ManageApplications extends Fragment implements
         private boolean mWaitingForData;
         private int mWhichSize = SIZE_TOTAL;
         CharSequence mCurFilterPrefix;
+        // Updated whenever mBaseEntries changes.
+        private final AppSearchIndex mSearchIndex = new AppSearchIndex();
 
         private Filter mFilter = new Filter() {
             @Override
             protected FilterResults performFiltering(CharSequence constraint) {
                 ArrayList<ApplicationsState.AppEntry> entries
-                        = applyPrefixFilter(constraint, mBaseEntries);
+                        = applyPrefixFilter(constraint);
                 FilterResults fr = new FilterResults();
                 fr.values = entries;
-                fr.count = entries.size();
+                fr.count = entries != null ? entries.size() : 0;
                 return fr;
             }
 
@@ -358,8 +361,9 @@ public class ManageApplications extends Fragment implements
                 return;
             }
             mBaseEntries = entries;
+            mSearchIndex.update(mBaseEntries);
             if (mBaseEntries != null) {
-                mEntries = applyPrefixFilter(mCurFilterPrefix, mBaseEntries);
+                mEntries = applyPrefixFilter(mCurFilterPrefix);
             } else {
                 mEntries = null;
             }
@@ -376,24 +380,8 @@ public class ManageApplications extends Fragment implements
             }
         }
 
-        ArrayList<ApplicationsState.AppEntry> applyPrefixFilter(CharSequence prefix,
-                ArrayList<ApplicationsState.AppEntry> origEntries) {
-            if (prefix == null || prefix.length() == 0) {
-                return origEntries;
-            } else {
-                String prefixStr = ApplicationsState.normalize(prefix.toString());
-                final String spacePrefixStr = " " + prefixStr;
-                ArrayList<ApplicationsState.AppEntry> newEntries
-                        = new ArrayList<ApplicationsState.AppEntry>();
-                for (int i=0; i<origEntries.size(); i++) {
-                    ApplicationsState.AppEntry entry = origEntries.get(i);
-                    String nlabel = entry.getNormalizedLabel();
-                    if (nlabel.startsWith(prefixStr) || nlabel.indexOf(spacePrefixStr) != -1) {
-                        newEntries.add(entry);
-                    }
-                }
-                return newEntries;
-            }
+        ArrayList<ApplicationsState.AppEntry> applyPrefixFilter(CharSequence prefix) {
+            return mSearchIndex.search(prefix);
         }
 
         @Override
@@ -413,7 +401,8 @@ public class ManageApplications extends Fragment implements
             mLoadingContainer.setVisibility(View.GONE);
             mWaitingForData = false;
             mBaseEntries = apps;
-            mEntries = applyPrefixFilter(mCurFilterPrefix, mBaseEntries);
+            mSearchIndex.update(mBaseEntries);
+            mEntries = applyPrefixFilter(mCurFilterPrefix);
             notifyDataSetChanged();
             updateStorageUsage();
         }
@@ -425,8 +414,15 @@ public class ManageApplications extends Fragment implements
 
         @Override
         public void onPackageIconChanged() {
-            // We ensure icons are loaded when their item is displayed, so
-            // don't care about icons loaded in the background.
+            // Icons are only loaded for rows that asked for them, so fill
+            // in whichever of the visible rows now have theirs.
+            for (int i=0; i<mActive.size(); i++) {
+                AppViewHolder holder = (AppViewHolder)mActive.get(i).getTag();
+                Drawable icon = mState.getCachedIcon(holder.entry);
+                if (icon != null) {
+                    holder.appIcon.setImageDrawable(icon);
+                }
+            }
         }
 
         @Override
@@ -510,10 +506,8 @@ public class ManageApplications extends Fragment implements
                             entry.info.enabled ? android.R.color.primary_text_dark
                                     : android.R.color.secondary_text_dark));
                 }
-                mState.ensureIcon(entry);
-                if (entry.icon != null) {
-                    holder.appIcon.setImageDrawable(entry.icon);
-                }
+                Drawable icon = mState.getIcon(entry);
+                holder.appIcon.setImageDrawable(icon != null ? icon : mState.getDefaultIcon());
                 holder.updateSizeText(ManageApplications.this, mWhichSize);
                 if (InstalledAppDetails.SUPPORT_DISABLE_APPS) {
                     holder.disabled.setVisibility(entry.info.enabled ? View.GONE : View.VISIBLE);
@@ -43,6 +43,7 @@ import android.widget.AbsListView.RecyclerListener;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 
 public class RunningProcessesView extends FrameLayout
@@ -460,18 +461,39 @@ public class RunningProcessesView extends FrameLayout
         }
     }
 
+    void updateSizes(HashSet<RunningState.BaseItem> items) {
+        Iterator<ActiveItem> it = mActiveItems.values().iterator();
+        while (it.hasNext()) {
+            ActiveItem ai = it.next();
+            if (ai.mRootView.getWindowToken() == null) {
+                // Clean out any dead views, just in case.
+                it.remove();
+                continue;
+            }
+            if (items.contains(ai.mItem)) {
+                ai.updateTime(getContext(), mBuilder);
+            }
+        }
+    }
+
     @Override
-    public void onRefreshUi(int what) {
+    public void onRefreshUi(int what, RunningState.ChangeSet changes) {
         switch (what) {
             case REFRESH_TIME:
                 updateTimes();
                 break;
             case REFRESH_DATA:
-                refreshUi(false);
-                updateTimes();
+                // The list is unchanged; update the memory bar only if the
+                // totals moved, and only the rows whose size changed.
+                if (changes.mTotalsChanged || mDataAvail != null) {
+                    refreshUi(false);
+                }
+                updateSizes(changes.mSizeChanged);
                 break;
             case REFRESH_STRUCTURE:
-                refreshUi(true);
+                // Only rebuild the list if the one being shown was replaced
+                refreshUi(mAdapter.mShowBackground
+                        ? changes.mBackgroundChanged : changes.mStructureChanged);
                 updateTimes();
                 break;
         }
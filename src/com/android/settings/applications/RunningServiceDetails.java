@@ -39,6 +39,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 
 public class RunningServiceDetails extends Fragment
         implements RunningState.OnRefreshUiListener {
@@ -49,6 +50,10 @@ public class RunningServiceDetails extends Fragment
     static final String KEY_BACKGROUND = "background";
     
     static final int DIALOG_CONFIRM_STOP = 1;
+
+    // The sizes shown here are of a single process the user is looking at,
+    // so sample them more often than the list does.
+    static final long PSS_MAX_AGE = RunningState.CONTENTS_UPDATE_DELAY;
     
     ActivityManager mAm;
     LayoutInflater mInflater;
@@ -454,6 +459,7 @@ public class RunningServiceDetails extends Fragment
         super.onPause();
         mHaveData = false;
         mState.pause();
+        mState.setPssMaxAge(RunningState.PSS_MAX_AGE);
     }
 
     @Override
@@ -529,6 +535,7 @@ public class RunningServiceDetails extends Fragment
     void ensureData() {
         if (!mHaveData) {
             mHaveData = true;
+            mState.setPssMaxAge(PSS_MAX_AGE);
             mState.resume(this);
 
             // We want to go away if the service being shown no longer exists,
@@ -551,18 +558,32 @@ public class RunningServiceDetails extends Fragment
         }
     }
 
+    void updateSizes(HashSet<RunningState.BaseItem> items) {
+        if (mSnippetActiveItem != null && items.contains(mSnippetActiveItem.mItem)) {
+            mSnippetActiveItem.updateTime(getActivity(), mBuilder);
+        }
+        for (int i=0; i<mActiveDetails.size(); i++) {
+            RunningProcessesView.ActiveItem ai = mActiveDetails.get(i).mActiveItem;
+            if (items.contains(ai.mItem)) {
+                ai.updateTime(getActivity(), mBuilder);
+            }
+        }
+    }
+
     @Override
-    public void onRefreshUi(int what) {
+    public void onRefreshUi(int what, RunningState.ChangeSet changes) {
         switch (what) {
             case REFRESH_TIME:
                 updateTimes();
                 break;
             case REFRESH_DATA:
-                refreshUi(false);
-                updateTimes();
+                // Nothing was replaced, so only sizes can need updating
+                updateSizes(changes.mSizeChanged);
                 break;
             case REFRESH_STRUCTURE:
-                refreshUi(true);
+                // Only rebuild if the list our item comes from was replaced
+                refreshUi(mShowBackground
+                        ? changes.mBackgroundChanged : changes.mStructureChanged);
                 updateTimes();
                 break;
         }
@@ -33,14 +33,17 @@ import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.text.format.Formatter;
 import android.util.Log;
 import android.util.SparseArray;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 
@@ -59,6 +62,10 @@ public class RunningState {
 
     static final long TIME_UPDATE_DELAY = 1000;
     static final long CONTENTS_UPDATE_DELAY = 2000;
+    // Polling backs off up to this while nothing changes
+    static final long MAX_CONTENTS_UPDATE_DELAY = 16000;
+    // Default age after which the PSS of an unchanged process is sampled again
+    static final long PSS_MAX_AGE = 10000;
 
     static final int MAX_SERVICES = 100;
 
@@ -114,6 +121,13 @@ public class RunningState {
     final SparseArray<AppProcessInfo> mTmpAppProcesses = new SparseArray<AppProcessInfo>();
 
     int mSequence = 0;
+
+    // Current delay between content updates, grows while nothing changes.
+    long mUpdateDelay = CONTENTS_UPDATE_DELAY;
+
+    // Age after which the PSS of a process is sampled again even if its
+    // pid and importance didn't change.
+    volatile long mPssMaxAge = PSS_MAX_AGE;
     
     // ----- following protected by mLock -----
     
@@ -156,12 +170,21 @@ public class RunningState {
                             return;
                         }
                     }
-                    Message cmd = mHandler.obtainMessage(MSG_REFRESH_UI);
-                    cmd.arg1 = update(mApplicationContext, mAm) ? 1 : 0;
-                    mHandler.sendMessage(cmd);
+                    ChangeSet changes = update(mApplicationContext, mAm);
+                    if (!changes.isEmpty()) {
+                        Message cmd = mHandler.obtainMessage(MSG_REFRESH_UI, changes);
+                        mHandler.sendMessage(cmd);
+                    }
+                    // Requested updates (arg1 == 0) restart at the shortest
+                    // delay, as do updates that found something changed.
+                    if (msg.arg1 == 0 || !changes.isEmpty()) {
+                        mUpdateDelay = CONTENTS_UPDATE_DELAY;
+                    } else {
+                        mUpdateDelay = Math.min(mUpdateDelay * 2, MAX_CONTENTS_UPDATE_DELAY);
+                    }
                     removeMessages(MSG_UPDATE_CONTENTS);
-                    msg = obtainMessage(MSG_UPDATE_CONTENTS);
-                    sendMessageDelayed(msg, CONTENTS_UPDATE_DELAY);
+                    msg = obtainMessage(MSG_UPDATE_CONTENTS, 1, 0);
+                    sendMessageDelayed(msg, mUpdateDelay);
                     break;
             }
         }
@@ -170,15 +193,18 @@ public class RunningState {
     final BackgroundHandler mBackgroundHandler;
 
     final Handler mHandler = new Handler() {
-        int mNextUpdate = OnRefreshUiListener.REFRESH_TIME;
+        // Changes not yet reported to the listener
+        ChangeSet mPendingChanges;
 
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case MSG_REFRESH_UI:
-                    mNextUpdate = msg.arg1 != 0
-                            ? OnRefreshUiListener.REFRESH_STRUCTURE
-                            : OnRefreshUiListener.REFRESH_DATA;
+                    if (mPendingChanges == null) {
+                        mPendingChanges = (ChangeSet) msg.obj;
+                    } else {
+                        mPendingChanges.add((ChangeSet) msg.obj);
+                    }
                     break;
                 case MSG_UPDATE_TIME:
                     synchronized (mLock) {
@@ -191,10 +217,19 @@ public class RunningState {
                     sendMessageDelayed(m, TIME_UPDATE_DELAY);
 
                     if (mRefreshUiListener != null) {
-                        //Log.i("foo", "Refresh UI: " + mNextUpdate
+                        final ChangeSet changes = mPendingChanges;
+                        mPendingChanges = null;
+                        final int what;
+                        if (changes == null) {
+                            what = OnRefreshUiListener.REFRESH_TIME;
+                        } else if (changes.mStructureChanged || changes.mBackgroundChanged) {
+                            what = OnRefreshUiListener.REFRESH_STRUCTURE;
+                        } else {
+                            what = OnRefreshUiListener.REFRESH_DATA;
+                        }
+                        //Log.i("foo", "Refresh UI: " + what
                         //        + " @ " + SystemClock.uptimeMillis());
-                        mRefreshUiListener.onRefreshUi(mNextUpdate);
-                        mNextUpdate = OnRefreshUiListener.REFRESH_TIME;
+                        mRefreshUiListener.onRefreshUi(what, changes);
                     }
                     break;
             }
@@ -208,7 +243,37 @@ public class RunningState {
         public static final int REFRESH_DATA = 1;
         public static final int REFRESH_STRUCTURE = 2;
 
-        public void onRefreshUi(int what);
+        /**
+         * @param changes what changed since the last call, or null for
+         * {@link #REFRESH_TIME}.
+         */
+        public void onRefreshUi(int what, ChangeSet changes);
+    }
+
+    /**
+     * What one or more content updates changed.
+     */
+    static class ChangeSet {
+        // mItems and mMergedItems were replaced.
+        boolean mStructureChanged;
+        // mBackgroundItems was replaced.
+        boolean mBackgroundChanged;
+        // The process counts or memory totals changed.
+        boolean mTotalsChanged;
+        // Items whose size text changed.
+        final HashSet<BaseItem> mSizeChanged = new HashSet<BaseItem>();
+
+        boolean isEmpty() {
+            return !mStructureChanged && !mBackgroundChanged && !mTotalsChanged
+                    && mSizeChanged.isEmpty();
+        }
+
+        void add(ChangeSet other) {
+            mStructureChanged |= other.mStructureChanged;
+            mBackgroundChanged |= other.mBackgroundChanged;
+            mTotalsChanged |= other.mTotalsChanged;
+            mSizeChanged.addAll(other.mSizeChanged);
+        }
     }
 
     static class BaseItem {
@@ -265,6 +330,12 @@ public class RunningState {
 
         boolean mInteresting;
 
+        // State when the PSS was last sampled.
+        long mPss;
+        int mPssPid;
+        int mPssImportance;
+        long mPssTime;
+
         // Purely for sorting.
         boolean mIsSystem;
         boolean mIsStarted;
@@ -402,6 +473,31 @@ public class RunningState {
             return changed;
         }
         
+        int getImportance() {
+            return mRunningProcessInfo != null ? mRunningProcessInfo.importance : 0;
+        }
+
+        /**
+         * Whether the PSS needs sampling, because the process or its
+         * importance changed or the last sample is older than maxAge.
+         */
+        boolean needsPssSample(long now, long maxAge) {
+            return mPssTime == 0 || mPssPid != mPid || mPssImportance != getImportance()
+                    || now - mPssTime >= maxAge;
+        }
+
+        void setPss(long pss, long now) {
+            mPss = pss;
+            mPssPid = mPid;
+            mPssImportance = getImportance();
+            mPssTime = now;
+        }
+
+        /**
+         * Returns whether the size text changed.  It is shown on the next
+         * tick that updates the text in the current items, so this is not
+         * a structural change.
+         */
         boolean updateSize(Context context, long pss, int curSeq) {
             mSize = pss * 1024;
             if (mCurSeq == curSeq) {
@@ -409,10 +505,7 @@ public class RunningState {
                         context, mSize);
                 if (!sizeStr.equals(mSizeStr)){
                     mSizeStr = sizeStr;
-                    // We update this on the second tick where we update just
-                    // the text in the current items, so no need to say we
-                    // changed here.
-                    return false;
+                    return true;
                 }
             }
             return false;
@@ -511,10 +604,9 @@ public class RunningState {
                     context, mSize);
             if (!sizeStr.equals(mSizeStr)){
                 mSizeStr = sizeStr;
-                // We update this on the second tick where we update just
-                // the text in the current items, so no need to say we
-                // changed here.
-                return false;
+                // Shown on the next tick that updates the text in the
+                // current items.
+                return true;
             }
             return false;
         }
@@ -586,9 +678,10 @@ public class RunningState {
                 mBackgroundHandler.removeMessages(MSG_UPDATE_CONTENTS);
                 mBackgroundHandler.sendEmptyMessage(MSG_RESET_CONTENTS);
             }
-            if (!mBackgroundHandler.hasMessages(MSG_UPDATE_CONTENTS)) {
-                mBackgroundHandler.sendEmptyMessage(MSG_UPDATE_CONTENTS);
-            }
+            // Don't wait for an update that was scheduled with a long
+            // delay while nothing changed; this also resets the delay.
+            mBackgroundHandler.removeMessages(MSG_UPDATE_CONTENTS);
+            mBackgroundHandler.sendEmptyMessage(MSG_UPDATE_CONTENTS);
             mHandler.sendEmptyMessage(MSG_UPDATE_TIME);
         }
     }
@@ -600,6 +693,14 @@ public class RunningState {
         }
     }
 
+    /**
+     * Sets the age after which the memory use of a process is sampled again
+     * even if it looks unchanged.
+     */
+    void setPssMaxAge(long maxAge) {
+        mPssMaxAge = maxAge;
+    }
+
     boolean hasData() {
         synchronized (mLock) {
             return mHaveData;
@@ -648,8 +749,9 @@ public class RunningState {
         mAllProcessItems.clear();
     }
 
-    private boolean update(Context context, ActivityManager am) {
+    private ChangeSet update(Context context, ActivityManager am) {
         final PackageManager pm = context.getPackageManager();
+        final ChangeSet changes = new ChangeSet();
         
         mSequence++;
         
@@ -1011,6 +1113,7 @@ public class RunningState {
                 mItems = newItems;
                 mMergedItems = newMergedItems;
             }
+            changes.mStructureChanged = true;
         }
         
         // Count number of interesting other (non-active) processes, and
@@ -1048,17 +1151,33 @@ public class RunningState {
         long serviceProcessMemory = 0;
         ArrayList<MergedItem> newBackgroundItems = null;
         try {
+            // Only sample processes that changed or whose sample is old.
+            final long now = SystemClock.uptimeMillis();
+            final long maxAge = mPssMaxAge;
             final int numProc = mAllProcessItems.size();
             int[] pids = new int[numProc];
+            int numSampled = 0;
             for (int i=0; i<numProc; i++) {
-                pids[i] = mAllProcessItems.get(i).mPid;
+                ProcessItem proc = mAllProcessItems.get(i);
+                if (proc.needsPssSample(now, maxAge)) {
+                    pids[numSampled++] = proc.mPid;
+                }
             }
-            long[] pss = ActivityManagerNative.getDefault()
-                    .getProcessPss(pids);
+            long[] pss = numSampled > 0
+                    ? ActivityManagerNative.getDefault()
+                            .getProcessPss(Arrays.copyOf(pids, numSampled))
+                    : null;
+            int sampleIndex = 0;
             int bgIndex = 0;
-            for (int i=0; i<pids.length; i++) {
+            for (int i=0; i<numProc; i++) {
                 ProcessItem proc = mAllProcessItems.get(i);
-                changed |= proc.updateSize(context, pss[i], mSequence);
+                if (sampleIndex < numSampled && pids[sampleIndex] == proc.mPid
+                        && proc.needsPssSample(now, maxAge)) {
+                    proc.setPss(pss[sampleIndex++], now);
+                }
+                if (proc.updateSize(context, proc.mPss, mSequence)) {
+                    changes.mSizeChanged.add(proc);
+                }
                 if (proc.mCurSeq == mSequence) {
                     serviceProcessMemory += proc.mSize;
                 } else if (proc.mRunningProcessInfo.importance >=
@@ -1084,7 +1203,9 @@ public class RunningState {
                         }
                     }
                     mergedItem.update(context, true);
-                    mergedItem.updateSize(context);
+                    if (mergedItem.updateSize(context)) {
+                        changes.mSizeChanged.add(mergedItem);
+                    }
                     bgIndex++;
                 } else if (proc.mRunningProcessInfo.importance <=
                         ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE) {
@@ -1105,10 +1226,19 @@ public class RunningState {
         }
 
         for (int i=0; i<mMergedItems.size(); i++) {
-            mMergedItems.get(i).updateSize(context);
+            MergedItem mergedItem = mMergedItems.get(i);
+            if (mergedItem.updateSize(context)) {
+                changes.mSizeChanged.add(mergedItem);
+            }
         }
         
         synchronized (mLock) {
+            changes.mTotalsChanged = mNumBackgroundProcesses != numBackgroundProcesses
+                    || mNumForegroundProcesses != numForegroundProcesses
+                    || mNumServiceProcesses != numServiceProcesses
+                    || mBackgroundProcessMemory != backgroundProcessMemory
+                    || mForegroundProcessMemory != foregroundProcessMemory
+                    || mServiceProcessMemory != serviceProcessMemory;
             mNumBackgroundProcesses = numBackgroundProcesses;
             mNumForegroundProcesses = numForegroundProcesses;
             mNumServiceProcesses = numServiceProcesses;
@@ -1117,9 +1247,8 @@ public class RunningState {
             mServiceProcessMemory = serviceProcessMemory;
             if (newBackgroundItems != null) {
                 mBackgroundItems = newBackgroundItems;
-                if (mWatchingBackgroundItems) {
-                    changed = true;
-                }
+                // Only worth a structural refresh if someone shows them
+                changes.mBackgroundChanged = mWatchingBackgroundItems;
             }
             if (!mHaveData) {
                 mHaveData = true;
@@ -1127,7 +1256,7 @@ public class RunningState {
             }
         }
         
-        return changed;
+        return changes;
     }
     
     ArrayList<BaseItem> getCurrentItems() {
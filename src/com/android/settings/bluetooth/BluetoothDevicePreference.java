@@ -54,6 +54,20 @@ public final class BluetoothDevicePreference extends Preference implements
 
     private AlertDialog mDisconnectDialog;
 
+    private UpdateScheduler mUpdateScheduler;
+
+    /**
+     * Defers applying device attribute changes, so that changes from many
+     * devices can be applied together.
+     */
+    interface UpdateScheduler {
+        /**
+         * Call {@link #updateAttributes()} on the preference later, and
+         * {@link #notifyOrderChanged()} once for the batch.
+         */
+        void scheduleUpdate(BluetoothDevicePreference preference);
+    }
+
     public BluetoothDevicePreference(Context context, CachedBluetoothDevice cachedDevice) {
         super(context);
 
@@ -71,7 +85,7 @@ public final class BluetoothDevicePreference extends Preference implements
 
         mCachedDevice.registerCallback(this);
 
-        onDeviceAttributesChanged();
+        updateAttributes();
     }
 
     CachedBluetoothDevice getCachedDevice() {
@@ -82,6 +96,10 @@ public final class BluetoothDevicePreference extends Preference implements
         mOnSettingsClickListener = listener;
     }
 
+    void setUpdateScheduler(UpdateScheduler scheduler) {
+        mUpdateScheduler = scheduler;
+    }
+
     @Override
     protected void onPrepareForRemoval() {
         super.onPrepareForRemoval();
@@ -93,6 +111,18 @@ public final class BluetoothDevicePreference extends Preference implements
     }
 
     public void onDeviceAttributesChanged() {
+        if (mUpdateScheduler != null) {
+            mUpdateScheduler.scheduleUpdate(this);
+            return;
+        }
+        updateAttributes();
+        notifyOrderChanged();
+    }
+
+    /**
+     * Update title, summary, icon and enabled state from the device.
+     */
+    void updateAttributes() {
         /*
          * The preference framework takes care of making sure the value has
          * changed before proceeding. It will also call notifyChanged() if
@@ -114,8 +144,12 @@ public final class BluetoothDevicePreference extends Preference implements
 
         // Used to gray out the item
         setEnabled(!mCachedDevice.isBusy());
+    }
 
-        // This could affect ordering, so notify that
+    /**
+     * Device attributes could affect ordering, so notify that.
+     */
+    void notifyOrderChanged() {
         notifyHierarchyChanged();
     }
 
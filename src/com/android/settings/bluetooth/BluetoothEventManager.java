@@ -202,10 +202,7 @@ final class BluetoothEventManager {
                 // callback to UI to create Preference for new device
                 dispatchDeviceAdded(cachedDevice);
             }
-            cachedDevice.setRssi(rssi);
-            cachedDevice.setBtClass(btClass);
-            cachedDevice.setName(name);
-            cachedDevice.setVisible(true);
+            cachedDevice.onDeviceFound(rssi, btClass, name);
         }
     }
 
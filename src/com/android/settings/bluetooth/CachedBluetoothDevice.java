@@ -340,18 +340,28 @@ final class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice> {
     }
 
     void setName(String name) {
-        if (!mName.equals(name)) {
-            if (TextUtils.isEmpty(name)) {
-                // TODO: use friendly name for unknown device (bug 1181856)
-                mName = mDevice.getAddress();
-            } else {
-                mName = name;
-                mDevice.setAlias(name);
-            }
+        if (updateName(name)) {
             dispatchAttributesChanged();
         }
     }
 
+    private boolean updateName(String name) {
+        if (TextUtils.isEmpty(name)) {
+            // TODO: use friendly name for unknown device (bug 1181856)
+            name = mDevice.getAddress();
+            if (mName.equals(name)) {
+                return false;
+            }
+        } else {
+            if (mName.equals(name)) {
+                return false;
+            }
+            mDevice.setAlias(name);
+        }
+        mName = name;
+        return true;
+    }
+
     void refreshName() {
         fetchName();
         dispatchAttributesChanged();
@@ -380,12 +390,19 @@ final class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice> {
 
 
     void setVisible(boolean visible) {
-        if (mVisible != visible) {
-            mVisible = visible;
+        if (updateVisible(visible)) {
             dispatchAttributesChanged();
         }
     }
 
+    private boolean updateVisible(boolean visible) {
+        if (mVisible == visible) {
+            return false;
+        }
+        mVisible = visible;
+        return true;
+    }
+
     void setRemovable(boolean removable) {
         mDeviceRemove = removable;
     }
@@ -396,8 +413,29 @@ final class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice> {
     }
 
     void setRssi(short rssi) {
-        if (mRssi != rssi) {
-            mRssi = rssi;
+        if (updateRssi(rssi)) {
+            dispatchAttributesChanged();
+        }
+    }
+
+    private boolean updateRssi(short rssi) {
+        if (mRssi == rssi) {
+            return false;
+        }
+        mRssi = rssi;
+        return true;
+    }
+
+    /**
+     * Apply the attributes reported when the device is found by a scan,
+     * dispatching a single change for all of them.
+     */
+    void onDeviceFound(short rssi, BluetoothClass btClass, String name) {
+        boolean changed = updateRssi(rssi);
+        changed |= updateBtClass(btClass);
+        changed |= updateName(name);
+        changed |= updateVisible(true);
+        if (changed) {
             dispatchAttributesChanged();
         }
     }
@@ -516,12 +554,19 @@ final class CachedBluetoothDevice implements Comparable<CachedBluetoothDevice> {
     }
 
     void setBtClass(BluetoothClass btClass) {
-        if (btClass != null && mBtClass != btClass) {
-            mBtClass = btClass;
+        if (updateBtClass(btClass)) {
             dispatchAttributesChanged();
         }
     }
 
+    private boolean updateBtClass(BluetoothClass btClass) {
+        if (btClass == null || mBtClass == btClass) {
+            return false;
+        }
+        mBtClass = btClass;
+        return true;
+    }
+
     BluetoothClass getBtClass() {
         return mBtClass;
     }
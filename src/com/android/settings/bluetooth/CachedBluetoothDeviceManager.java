@@ -22,6 +22,7 @@ import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 
 /**
@@ -34,6 +35,9 @@ final class CachedBluetoothDeviceManager {
     private Context mContext;
     private final List<CachedBluetoothDevice> mCachedDevices =
             new ArrayList<CachedBluetoothDevice>();
+    /** {@link #mCachedDevices} by device, i.e. by address. */
+    private final HashMap<BluetoothDevice, CachedBluetoothDevice> mDeviceIndex =
+            new HashMap<BluetoothDevice, CachedBluetoothDevice>();
 
     CachedBluetoothDeviceManager(Context context) {
         mContext = context;
@@ -65,13 +69,8 @@ final class CachedBluetoothDeviceManager {
      * @return the cached device object for this device, or null if it has
      *   not been previously seen
      */
-    CachedBluetoothDevice findDevice(BluetoothDevice device) {
-        for (CachedBluetoothDevice cachedDevice : mCachedDevices) {
-            if (cachedDevice.getDevice().equals(device)) {
-                return cachedDevice;
-            }
-        }
-        return null;
+    synchronized CachedBluetoothDevice findDevice(BluetoothDevice device) {
+        return device != null ? mDeviceIndex.get(device) : null;
     }
 
     /**
@@ -80,12 +79,13 @@ final class CachedBluetoothDeviceManager {
      * @param device the address of the new Bluetooth device
      * @return the newly created CachedBluetoothDevice object
      */
-    CachedBluetoothDevice addDevice(LocalBluetoothAdapter adapter,
+    synchronized CachedBluetoothDevice addDevice(LocalBluetoothAdapter adapter,
             LocalBluetoothProfileManager profileManager,
             BluetoothDevice device) {
         CachedBluetoothDevice newDevice = new CachedBluetoothDevice(mContext, adapter,
             profileManager, device);
         mCachedDevices.add(newDevice);
+        mDeviceIndex.put(device, newDevice);
         return newDevice;
     }
 
@@ -119,7 +119,8 @@ final class CachedBluetoothDeviceManager {
             } else if (!started &&
                 cachedDevice.getBondState() == BluetoothDevice.BOND_NONE &&
                 cachedDevice.isRemovable()) {
-                mCachedDevices.remove(cachedDevice);
+                mCachedDevices.remove(i);
+                mDeviceIndex.remove(cachedDevice.getDevice());
             }
         }
     }
@@ -144,6 +145,7 @@ final class CachedBluetoothDeviceManager {
             cachedDevice.getBondState() == BluetoothDevice.BOND_NONE &&
             cachedDevice.isRemovable()) {
             mCachedDevices.remove(cachedDevice);
+            mDeviceIndex.remove(cachedDevice.getDevice());
         }
     }
 
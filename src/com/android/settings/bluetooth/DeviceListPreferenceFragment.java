@@ -19,6 +19,8 @@ package com.android.settings.bluetooth;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.preference.Preference;
 import android.preference.PreferenceCategory;
 import android.preference.PreferenceGroup;
@@ -29,6 +31,7 @@ import com.android.settings.ProgressCategory;
 import com.android.settings.SettingsPreferenceFragment;
 
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.WeakHashMap;
 
 /**
@@ -39,10 +42,14 @@ import java.util.WeakHashMap;
  * @see DevicePickerFragment
  */
 public abstract class DeviceListPreferenceFragment extends
-        SettingsPreferenceFragment implements BluetoothCallback {
+        SettingsPreferenceFragment implements BluetoothCallback,
+        BluetoothDevicePreference.UpdateScheduler {
 
     private static final String TAG = "DeviceListPreferenceFragment";
 
+    /** Minimum time between applying batches of device attribute changes. */
+    private static final long UPDATE_INTERVAL = 250;
+
     private static final String KEY_BT_DEVICE_LIST = "bt_device_list";
     private static final String KEY_BT_SCAN = "bt_scan";
 
@@ -58,6 +65,32 @@ public abstract class DeviceListPreferenceFragment extends
     final WeakHashMap<CachedBluetoothDevice, BluetoothDevicePreference> mDevicePreferenceMap =
             new WeakHashMap<CachedBluetoothDevice, BluetoothDevicePreference>();
 
+    // Device preferences with attribute changes not applied yet
+    private final LinkedHashSet<BluetoothDevicePreference> mPendingUpdates =
+            new LinkedHashSet<BluetoothDevicePreference>();
+    private long mLastUpdateTime;
+    private final Handler mHandler = new Handler();
+
+    private final Runnable mUpdateRunnable = new Runnable() {
+        public void run() {
+            mLastUpdateTime = SystemClock.uptimeMillis();
+            BluetoothDevicePreference updated = null;
+            for (BluetoothDevicePreference preference : mPendingUpdates) {
+                // skip preferences removed meanwhile
+                if (mDevicePreferenceMap.get(preference.getCachedDevice()) == preference) {
+                    preference.updateAttributes();
+                    updated = preference;
+                }
+            }
+            mPendingUpdates.clear();
+
+            // a single re-sort for the whole batch
+            if (updated != null) {
+                updated.notifyOrderChanged();
+            }
+        }
+    };
+
     DeviceListPreferenceFragment() {
         mFilter = BluetoothDeviceFilter.ALL_FILTER;
     }
@@ -116,6 +149,8 @@ public abstract class DeviceListPreferenceFragment extends
 
     void removeAllDevices() {
         mLocalAdapter.stopScanning();
+        mHandler.removeCallbacks(mUpdateRunnable);
+        mPendingUpdates.clear();
         mDevicePreferenceMap.clear();
         mDeviceListGroup.removeAll();
     }
@@ -188,6 +223,22 @@ public abstract class DeviceListPreferenceFragment extends
         initDevicePreference(preference);
         mDeviceListGroup.addPreference(preference);
         mDevicePreferenceMap.put(cachedDevice, preference);
+        preference.setUpdateScheduler(this);
+    }
+
+    /**
+     * Applies attribute changes in batches, right away if none was applied
+     * recently, otherwise at most once per {@link #UPDATE_INTERVAL}.  During
+     * a scan in a crowded place this keeps the list from being rebound and
+     * re-sorted for every broadcast.
+     */
+    public void scheduleUpdate(BluetoothDevicePreference preference) {
+        if (!mPendingUpdates.add(preference) || mPendingUpdates.size() > 1) {
+            // already scheduled
+            return;
+        }
+        final long delay = mLastUpdateTime + UPDATE_INTERVAL - SystemClock.uptimeMillis();
+        mHandler.postDelayed(mUpdateRunnable, Math.max(delay, 0));
     }
 
     /**
@@ -0,0 +1,470 @@
+/*
+ * Copyright (C) 2012 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.cyanogenmod;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+
+/**
+ * Samples the current frequency of every online CPU core from sysfs.
+ * <p>
+ * The frequency files are kept open and re-read from the start into a
+ * reusable buffer, instead of being opened for every sample.  Listeners are
+ * told about every core when sampling starts, then only about cores whose
+ * frequency changed.  For each core, a rolling
+ * history of samples and the time spent at each frequency are kept.
+ */
+public class CpuFreqSampler {
+    public static final String DEFAULT_ROOT = "/sys/devices/system/cpu";
+
+    static final long SAMPLE_INTERVAL = 500;
+    static final int HISTORY_SIZE = 120;
+
+    private static final String[] FREQ_FILES = {
+        "cpufreq/scaling_cur_freq", "cpufreq/cpuinfo_cur_freq"
+    };
+
+    public interface Listener {
+        /**
+         * Called on the main thread when the frequency of a core changed.
+         * @param freq the new frequency in kHz, or 0 if the core went offline
+         */
+        void onFrequencyChanged(int core, int freq);
+    }
+
+    private static class Core {
+        final File dir;
+        RandomAccessFile file;
+        /** Current frequency in kHz, 0 while offline. */
+        int freq;
+        long lastSampleTime;
+
+        // Rolling history of samples
+        final int[] historyFreqs = new int[HISTORY_SIZE];
+        final long[] historyTimes = new long[HISTORY_SIZE];
+        int historyStart;
+        int historySize;
+
+        // Time spent at each frequency seen
+        int[] stateFreqs = new int[8];
+        long[] stateTimes = new long[8];
+        int numStates;
+
+        Core(File dir) {
+            this.dir = dir;
+        }
+    }
+
+    private final File mRoot;
+    private final Core[] mCores;
+    private final boolean[] mOnline;
+    private final byte[] mBuffer = new byte[256];
+    private RandomAccessFile mOnlineFile;
+
+    private Listener mListener;
+    /** The sampling started by the last {@link #start}, null when stopped. */
+    private volatile SampleTask mTask;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper()) {
+        @Override
+        public void handleMessage(Message msg) {
+            if (mListener != null) {
+                mListener.onFrequencyChanged(msg.arg1, msg.arg2);
+            }
+        }
+    };
+
+    /**
+     * Samples on its own thread until stopped.  Each {@link #start} makes a
+     * new one, so a task that is still sampling when stopped can never post
+     * to the thread of the next.
+     */
+    private class SampleTask implements Runnable {
+        final HandlerThread thread;
+        final Handler handler;
+        volatile boolean stopped;
+        // Only touched on the sampling thread
+        boolean first = true;
+
+        SampleTask() {
+            thread = new HandlerThread("CpuFreqSampler", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+
+        public void run() {
+            if (stopped) {
+                return;
+            }
+            // The first sample reports every core, since changes seen while
+            // nobody listened are not reported again
+            sample(SystemClock.uptimeMillis(), mMainHandler, first);
+            first = false;
+            if (!stopped) {
+                handler.postDelayed(this, SAMPLE_INTERVAL);
+            }
+        }
+
+        void stop() {
+            stopped = true;
+            handler.removeCallbacks(this);
+            handler.post(new Runnable() {
+                public void run() {
+                    synchronized (CpuFreqSampler.this) {
+                        // Leave the files open if sampling was restarted
+                        if (mTask == null) {
+                            close();
+                        }
+                    }
+                    thread.quit();
+                }
+            });
+        }
+    }
+
+    public CpuFreqSampler() {
+        this(new File(DEFAULT_ROOT));
+    }
+
+    /**
+     * @param root the sysfs cpu directory, holding "possible", "online" and
+     * a "cpuN" directory per core
+     */
+    public CpuFreqSampler(File root) {
+        mRoot = root;
+        int count = readPossibleCount();
+        mCores = new Core[count];
+        mOnline = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            mCores[i] = new Core(new File(root, "cpu" + i));
+        }
+    }
+
+    public int getCoreCount() {
+        return mCores.length;
+    }
+
+    /**
+     * Starts sampling in the background.  Must be called on the main thread.
+     */
+    public void start(Listener listener) {
+        if (mTask != null) {
+            return;
+        }
+        mListener = listener;
+        resetSampleClock();
+        final SampleTask task = new SampleTask();
+        mTask = task;
+        task.handler.post(task);
+    }
+
+    /**
+     * Stops sampling and closes all files.  Must be called on the main thread.
+     */
+    public void stop() {
+        final SampleTask task = mTask;
+        if (task == null) {
+            return;
+        }
+        mListener = null;
+        mMainHandler.removeCallbacksAndMessages(null);
+        mTask = null;
+        task.stop();
+    }
+
+    /**
+     * Forgets when the cores were last sampled, so the time while stopped
+     * is not counted in any state.
+     */
+    private synchronized void resetSampleClock() {
+        for (Core core : mCores) {
+            core.lastSampleTime = 0;
+        }
+    }
+
+    /**
+     * Current frequency of the core in kHz, or 0 if it is offline.
+     */
+    public synchronized int getFrequency(int core) {
+        return mCores[core].freq;
+    }
+
+    /**
+     * Copies the recent samples of the core, oldest first.
+     * @return the number of samples copied
+     */
+    public synchronized int getHistory(int core, int[] freqs, long[] times) {
+        final Core c = mCores[core];
+        final int count = Math.min(c.historySize, Math.min(freqs.length, times.length));
+        final int skip = c.historySize - count;
+        for (int i = 0; i < count; i++) {
+            final int index = (c.historyStart + skip + i) % HISTORY_SIZE;
+            freqs[i] = c.historyFreqs[index];
+            times[i] = c.historyTimes[index];
+        }
+        return count;
+    }
+
+    /**
+     * Milliseconds the core was sampled at the given frequency.
+     */
+    public synchronized long getTimeInState(int core, int freq) {
+        final Core c = mCores[core];
+        for (int i = 0; i < c.numStates; i++) {
+            if (c.stateFreqs[i] == freq) {
+                return c.stateTimes[i];
+            }
+        }
+        return 0;
+    }
+
+    synchronized boolean sample(long now, Handler handler) {
+        return sample(now, handler, false);
+    }
+
+    /**
+     * Takes one sample of all cores, and sends a message to the handler,
+     * if any, for each core whose frequency changed, or for every core if
+     * reportAll is set.
+     * @return whether any frequency changed
+     */
+    synchronized boolean sample(long now, Handler handler, boolean reportAll) {
+        readOnline();
+        boolean changed = false;
+        for (int i = 0; i < mCores.length; i++) {
+            final Core core = mCores[i];
+            int freq = 0;
+            if (mOnline[i]) {
+                freq = readFrequency(core);
+            } else {
+                closeCore(core);
+            }
+
+            if (core.lastSampleTime != 0 && core.freq != 0) {
+                addTimeInState(core, core.freq, now - core.lastSampleTime);
+            }
+            core.lastSampleTime = now;
+            addHistory(core, freq, now);
+
+            if (freq != core.freq) {
+                core.freq = freq;
+                changed = true;
+            } else if (!reportAll) {
+                continue;
+            }
+            if (handler != null) {
+                handler.sendMessage(handler.obtainMessage(0, i, freq));
+            }
+        }
+        return changed;
+    }
+
+    synchronized void close() {
+        for (Core core : mCores) {
+            closeCore(core);
+        }
+        if (mOnlineFile != null) {
+            try {
+                mOnlineFile.close();
+            } catch (IOException e) {
+            }
+            mOnlineFile = null;
+        }
+    }
+
+    private int readPossibleCount() {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(new File(mRoot, "possible"), "r");
+            final int length = file.read(mBuffer);
+            final boolean[] possible = new boolean[64];
+            final int last = parseRanges(mBuffer, length, possible);
+            if (last >= 0) {
+                return last + 1;
+            }
+        } catch (IOException e) {
+            // Count the core directories below
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        int count = 0;
+        while (new File(mRoot, "cpu" + count).isDirectory()) {
+            count++;
+        }
+        return count;
+    }
+
+    private void readOnline() {
+        try {
+            if (mOnlineFile == null) {
+                mOnlineFile = new RandomAccessFile(new File(mRoot, "online"), "r");
+            }
+            mOnlineFile.seek(0);
+            final int length = mOnlineFile.read(mBuffer);
+            for (int i = 0; i < mOnline.length; i++) {
+                mOnline[i] = false;
+            }
+            if (parseRanges(mBuffer, length, mOnline) >= 0) {
+                return;
+            }
+        } catch (IOException e) {
+            // fall through
+        }
+        // Without a usable online list, try every core
+        for (int i = 0; i < mOnline.length; i++) {
+            mOnline[i] = true;
+        }
+    }
+
+    private int readFrequency(Core core) {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            if (core.file == null) {
+                for (String name : FREQ_FILES) {
+                    try {
+                        core.file = new RandomAccessFile(new File(core.dir, name), "r");
+                        break;
+                    } catch (IOException e) {
+                        // try the next one
+                    }
+                }
+                if (core.file == null) {
+                    return 0;
+                }
+            }
+            try {
+                core.file.seek(0);
+                final int value = parseInt(mBuffer, core.file.read(mBuffer));
+                if (value >= 0) {
+                    return value;
+                }
+            } catch (IOException e) {
+                // fall through
+            }
+            // The core may have gone offline and back since the file was
+            // opened, which leaves a stale handle; reopen once.
+            closeCore(core);
+        }
+        return 0;
+    }
+
+    private static void closeCore(Core core) {
+        if (core.file != null) {
+            try {
+                core.file.close();
+            } catch (IOException e) {
+            }
+            core.file = null;
+        }
+    }
+
+    private static void addHistory(Core core, int freq, long now) {
+        final int index;
+        if (core.historySize < HISTORY_SIZE) {
+            index = (core.historyStart + core.historySize) % HISTORY_SIZE;
+            core.historySize++;
+        } else {
+            index = core.historyStart;
+            core.historyStart = (core.historyStart + 1) % HISTORY_SIZE;
+        }
+        core.historyFreqs[index] = freq;
+        core.historyTimes[index] = now;
+    }
+
+    private static void addTimeInState(Core core, int freq, long time) {
+        for (int i = 0; i < core.numStates; i++) {
+            if (core.stateFreqs[i] == freq) {
+                core.stateTimes[i] += time;
+                return;
+            }
+        }
+        if (core.numStates == core.stateFreqs.length) {
+            final int[] freqs = new int[core.numStates * 2];
+            final long[] times = new long[core.numStates * 2];
+            System.arraycopy(core.stateFreqs, 0, freqs, 0, core.numStates);
+            System.arraycopy(core.stateTimes, 0, times, 0, core.numStates);
+            core.stateFreqs = freqs;
+            core.stateTimes = times;
+        }
+        core.stateFreqs[core.numStates] = freq;
+        core.stateTimes[core.numStates] = time;
+        core.numStates++;
+    }
+
+    /**
+     * Parses a decimal number at the start of the buffer.
+     * @return the number, or -1 if there is none
+     */
+    static int parseInt(byte[] buffer, int length) {
+        int value = -1;
+        for (int i = 0; i < length; i++) {
+            final int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            value = (value < 0 ? 0 : value * 10) + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Parses a cpu list like "0-1,3" and sets the listed entries of out
+     * that are in range.
+     * @return the highest cpu listed, or -1 if there is none
+     */
+    static int parseRanges(byte[] buffer, int length, boolean[] out) {
+        int last = -1;
+        int start = -1;
+        int value = -1;
+        for (int i = 0; i <= length; i++) {
+            final int c = i < length ? buffer[i] : '\n';
+            if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+            } else if (c == '-' && value >= 0) {
+                start = value;
+                value = -1;
+            } else {
+                if (value >= 0) {
+                    for (int cpu = start >= 0 ? start : value; cpu <= value; cpu++) {
+                        if (cpu < out.length) {
+                            out[cpu] = true;
+                        }
+                    }
+                    last = Math.max(last, value);
+                }
+                start = -1;
+                value = -1;
+                if (c != ',') {
+                    break;
+                }
+            }
+        }
+        return last;
+    }
+}
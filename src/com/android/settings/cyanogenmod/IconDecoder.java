@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2012 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.cyanogenmod;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
+import android.util.Log;
+
+/**
+ * Decodes user picked icon files at the size they are shown at, instead of
+ * their full resolution.  Scaled icons are kept in the cache dir, keyed by
+ * source path, modification time and size, so an icon is only decoded from
+ * its source once.
+ */
+public class IconDecoder {
+    private static final String TAG = "IconDecoder";
+    private static final String CACHE_DIR = "icons";
+
+    public interface OnIconDecodedListener {
+        /**
+         * Called on the main thread.
+         * @param bitmap the scaled icon, or null if the file couldn't be decoded
+         */
+        void iconDecoded(String path, Bitmap bitmap);
+    }
+
+    private IconDecoder() {
+    }
+
+    /**
+     * Decodes the icon in the background, and hands it to the listener.
+     */
+    public static void decodeAsync(Context context, final String path, final int size,
+            final OnIconDecodedListener listener) {
+        final File cacheDir = new File(context.getCacheDir(), CACHE_DIR);
+        new AsyncTask<Void, Void, Bitmap>() {
+            @Override
+            protected Bitmap doInBackground(Void... params) {
+                return decode(cacheDir, path, size);
+            }
+
+            @Override
+            protected void onPostExecute(Bitmap result) {
+                listener.iconDecoded(path, result);
+            }
+        }.execute();
+    }
+
+    /**
+     * Returns the icon scaled to fit a square of the given size, from the
+     * cache if possible.  Does file operations, so not for the main thread.
+     */
+    static Bitmap decode(File cacheDir, String path, int size) {
+        final File source = new File(path);
+        final long mtime = source.lastModified();
+        if (mtime == 0) {
+            // does not exist
+            return null;
+        }
+        final String prefix = Integer.toHexString(path.hashCode()) + "_";
+        final File cached = new File(cacheDir, prefix + mtime + "_" + size + ".png");
+        if (cached.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(cached.getPath());
+            if (bitmap != null) {
+                return bitmap;
+            }
+        }
+
+        // Read the bounds first, so the source can be subsampled while decoding
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= size
+                && options.outHeight / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+        if (bitmap == null) {
+            return null;
+        }
+
+        // Subsampling only gets within a factor of two, scale the rest
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        if (width > size || height > size) {
+            final float scale = Math.min((float) size / width, (float) size / height);
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                    Math.max(1, Math.round(width * scale)),
+                    Math.max(1, Math.round(height * scale)), true);
+            if (scaled != bitmap) {
+                bitmap.recycle();
+                bitmap = scaled;
+            }
+        }
+
+        writeCache(cacheDir, prefix, cached, bitmap);
+        return bitmap;
+    }
+
+    private static void writeCache(File cacheDir, String prefix, File cached, Bitmap bitmap) {
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            return;
+        }
+        // Drop icons scaled from older versions of the source, or to other sizes
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(prefix)) {
+                    file.delete();
+                }
+            }
+        }
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(cached);
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to cache icon " + cached, e);
+            cached.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+}
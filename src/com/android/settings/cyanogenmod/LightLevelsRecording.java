@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2012 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.cyanogenmod;
+
+import android.content.Context;
+
+import com.android.settings.R;
+
+/**
+ * Ring buffer of the light sensor readings and backlight values seen by
+ * {@link LightLevelsActivity}, which can be replayed against edited levels
+ * to see what they would have changed.
+ */
+public class LightLevelsRecording {
+    public static final int CAPACITY = 300;
+
+    /** Stored for the screen when automatic brightness is off. */
+    public static final int NO_VALUE = -1;
+
+    private final long[] mTimes = new long[CAPACITY];
+    private final int[] mLux = new int[CAPACITY];
+    private final int[] mScreen = new int[CAPACITY];
+    private final int[] mButtons = new int[CAPACITY];
+    private final int[] mKeyboard = new int[CAPACITY];
+    private int mFirst;
+    private int mCount;
+
+    public void record(long time, int lux, int screen, int buttons, int keyboard) {
+        final int index;
+        if (mCount < CAPACITY) {
+            index = (mFirst + mCount) % CAPACITY;
+            mCount++;
+        } else {
+            // Full, overwrite the oldest
+            index = mFirst;
+            mFirst = (mFirst + 1) % CAPACITY;
+        }
+        mTimes[index] = time;
+        mLux[index] = lux;
+        mScreen[index] = screen;
+        mButtons[index] = buttons;
+        mKeyboard[index] = keyboard;
+    }
+
+    public void clear() {
+        mFirst = 0;
+        mCount = 0;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public long getTime(int i) {
+        return mTimes[index(i)];
+    }
+
+    public int getLux(int i) {
+        return mLux[index(i)];
+    }
+
+    public int getScreen(int i) {
+        return mScreen[index(i)];
+    }
+
+    public int getButtons(int i) {
+        return mButtons[index(i)];
+    }
+
+    public int getKeyboard(int i) {
+        return mKeyboard[index(i)];
+    }
+
+    private int index(int i) {
+        if (i < 0 || i >= mCount) {
+            throw new IndexOutOfBoundsException("index " + i + ", size " + mCount);
+        }
+        return (mFirst + i) % CAPACITY;
+    }
+
+    /**
+     * Returns the value for the given light level, picked from the given
+     * values the way the power manager does: values[i] applies below
+     * levels[i], and the last value above the last level.
+     */
+    public static int getValue(int[] levels, int[] values, int lux) {
+        int i;
+        for (i = 0; i < levels.length; i++) {
+            if (lux < levels[i]) {
+                break;
+            }
+        }
+        return values[i];
+    }
+
+    /**
+     * Describes the recorded samples next to the values the given levels
+     * would pick for them, one line each time those values change.
+     * Hysteresis and filtering of the power manager are not replayed.
+     */
+    public String describeReplay(Context context, int[] levels, int[] lcdValues,
+            int[] btnValues, int[] kbValues, boolean hasKeyboard) {
+        if (mCount == 0) {
+            return context.getString(R.string.ll_replay_empty);
+        }
+
+        final StringBuilder lines = new StringBuilder();
+        final long start = getTime(0);
+        int screenChanges = 0;
+        int lastScreen = NO_VALUE - 1;
+        int lastButtons = 0;
+        int lastKeyboard = 0;
+        for (int i = 0; i < mCount; i++) {
+            final int lux = getLux(i);
+            final int screen = getValue(levels, lcdValues, lux);
+            final int buttons = getValue(levels, btnValues, lux);
+            final int keyboard = hasKeyboard ? getValue(levels, kbValues, lux) : 0;
+            final int recordedScreen = getScreen(i);
+            if (recordedScreen != NO_VALUE && recordedScreen != screen) {
+                screenChanges++;
+            }
+            if (screen == lastScreen && buttons == lastButtons && keyboard == lastKeyboard) {
+                continue;
+            }
+            lastScreen = screen;
+            lastButtons = buttons;
+            lastKeyboard = keyboard;
+
+            final int seconds = (int) ((getTime(i) - start) / 1000);
+            final String recorded = recordedScreen == NO_VALUE
+                    ? "-" : String.valueOf(recordedScreen);
+            if (lines.length() > 0) {
+                lines.append('\n');
+            }
+            if (hasKeyboard) {
+                lines.append(context.getString(R.string.ll_replay_line_kb, seconds, lux,
+                        recorded, screen, getButtons(i), buttons, getKeyboard(i), keyboard));
+            } else {
+                lines.append(context.getString(R.string.ll_replay_line, seconds, lux,
+                        recorded, screen, getButtons(i), buttons));
+            }
+        }
+
+        final int duration = (int) ((getTime(mCount - 1) - start) / 1000);
+        return context.getString(R.string.ll_replay_summary, mCount, duration, screenChanges)
+                + "\n" + lines;
+    }
+}
@@ -35,7 +35,6 @@ import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.content.res.Resources.NotFoundException;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.InsetDrawable;
@@ -58,6 +57,7 @@ import com.android.internal.widget.multiwaveview.MultiWaveView;
 import com.android.internal.widget.multiwaveview.TargetDrawable;
 import com.android.settings.R;
 import com.android.settings.Utils;
+import com.android.settings.cyanogenmod.IconDecoder.OnIconDecodedListener;
 import com.android.settings.cyanogenmod.IconPicker.OnIconPickListener;
 
 public class LockscreenTargets extends Fragment implements ShortcutPickHelper.OnPickListener,
@@ -71,6 +71,7 @@ public class LockscreenTargets extends Fragment implements ShortcutPickHelper.On
     private ArrayList<TargetInfo> mTargetStore = new ArrayList<TargetInfo>();
     private int mTargetOffset;
     private int mTargetInset;
+    private int mTargetIconSize;
     private boolean mIsLandscape;
     private boolean mIsScreenLarge;
     private ViewGroup mContainer;
@@ -88,6 +89,8 @@ public class LockscreenTargets extends Fragment implements ShortcutPickHelper.On
         Drawable defaultIcon;
         String iconType;
         String iconSource;
+        // Icon file still being decoded for this target
+        String pendingIconFile;
         TargetInfo(StateListDrawable target) {
             icon = target;
         }
@@ -111,6 +114,11 @@ public class LockscreenTargets extends Fragment implements ShortcutPickHelper.On
         mIsLandscape = mResources.getConfiguration().orientation == Configuration.ORIENTATION_LANDSCAPE;
         mTargetOffset = mIsLandscape && !mIsScreenLarge ? 2 : 0;
         mTargetInset = mIsScreenLarge ? MultiWaveView.TABLET_TARGET_INSET : MultiWaveView.PHONE_TARGET_INSET;
+        // Icon files are decoded at the size they are drawn at, but no
+        // smaller than they are shown in the edit dialog
+        final Drawable activeBack = mResources.getDrawable(com.android.internal.R.drawable.ic_lockscreen_target_activated);
+        mTargetIconSize = Math.max(activeBack.getIntrinsicWidth() - 2 * mTargetInset,
+                (int) mResources.getDimension(android.R.dimen.app_icon_size));
         mIconPicker = new IconPicker(mActivity, this);
         mPicker = new ShortcutPickHelper(mActivity, this);
         mImageTmp = new File(mActivity.getCacheDir() + "/target.tmp");
@@ -182,6 +190,7 @@ public class LockscreenTargets extends Fragment implements ShortcutPickHelper.On
             boolean frontBlank = false;
             String iconType = null;
             String iconSource = null;
+            String iconFile = null;
             int tmpInset = mTargetInset;
             if (cc < targetStore.length && cc < maxTargets) {
                 uri = targetStore[cc];
@@ -193,7 +202,9 @@ public class LockscreenTargets extends Fragment implements ShortcutPickHelper.On
                             File fPath = new File(rSource);
                             if (fPath != null) {
                                 if (fPath.exists()) {
-                                    front = new BitmapDrawable(getResources(), BitmapFactory.decodeFile(rSource));
+                                    // Decoded in the background, see loadTargetIcon()
+                                    front = mResources.getDrawable(android.R.color.transparent);
+                                    iconFile = rSource;
                                 }
                             }
                         } else if (in.hasExtra(MultiWaveView.ICON_RESOURCE)) {
@@ -243,8 +254,12 @@ public class LockscreenTargets extends Fragment implements ShortcutPickHelper.On
                 Drawable emptyIcon = mResources.getDrawable(R.drawable.ic_empty).mutate();
                 front = emptyIcon;
             }
-            mTargetStore.add(new TargetInfo(uri, getLayeredDrawable(back,front, tmpInset, frontBlank), iconType,
-                    iconSource, front.getConstantState().newDrawable().mutate()));
+            TargetInfo item = new TargetInfo(uri, getLayeredDrawable(back,front, tmpInset, frontBlank), iconType,
+                    iconSource, front.getConstantState().newDrawable().mutate());
+            mTargetStore.add(item);
+            if (iconFile != null) {
+                loadTargetIcon(item, iconFile, tmpInset);
+            }
         }
         ArrayList<TargetDrawable> tDraw = new ArrayList<TargetDrawable>();
         for (TargetInfo i : mTargetStore) {
@@ -257,6 +272,33 @@ public class LockscreenTargets extends Fragment implements ShortcutPickHelper.On
         mWaveView.setTargetResources(tDraw);
     }
 
+    /**
+     * Decode a target icon file in the background, and put it in place of
+     * the placeholder unless the target was changed meanwhile.
+     */
+    private void loadTargetIcon(final TargetInfo item, String iconFile, final int inset) {
+        item.pendingIconFile = iconFile;
+        IconDecoder.decodeAsync(mActivity, iconFile, mTargetIconSize, new OnIconDecodedListener() {
+            @Override
+            public void iconDecoded(String path, Bitmap bitmap) {
+                if (!path.equals(item.pendingIconFile) || getActivity() == null) {
+                    return;
+                }
+                item.pendingIconFile = null;
+                if (bitmap == null) {
+                    return;
+                }
+                Drawable front = new BitmapDrawable(mResources, bitmap);
+                LayerDrawable inActiveLayer = (LayerDrawable) item.icon.getStateDrawable(0);
+                LayerDrawable activeLayer = (LayerDrawable) item.icon.getStateDrawable(1);
+                inActiveLayer.setDrawableByLayerId(1, new InsetDrawable(front, inset, inset, inset, inset));
+                activeLayer.setDrawableByLayerId(1, new InsetDrawable(front, inset, inset, inset, inset));
+                item.defaultIcon = front.getConstantState().newDrawable().mutate();
+                mWaveView.invalidate();
+            }
+        });
+    }
+
     @Override
     public void onResume() {
         super.onResume();
@@ -372,6 +414,7 @@ public class LockscreenTargets extends Fragment implements ShortcutPickHelper.On
             }
         }
         item.defaultIcon = mDialogIcon.getDrawable().getConstantState().newDrawable().mutate();
+        item.pendingIconFile = null;
         item.uri = uri;
         item.iconType = iconType;
         item.iconSource = iconSource;
@@ -489,9 +532,18 @@ public class LockscreenTargets extends Fragment implements ShortcutPickHelper.On
                     if (type != null && type.equals(MultiWaveView.ICON_RESOURCE)) {
                         targetInset = 0;
                     }
+                    String pendingFile = vObject != null ? vObject.pendingIconFile : null;
+                    if (pendingFile != null) {
+                        // The picked file is still being decoded, so don't
+                        // save whatever the dialog shows meanwhile
+                        mDialogIcon.setImageDrawable(mResources.getDrawable(android.R.color.transparent));
+                    }
                     InsetDrawable pD = new InsetDrawable(mDialogIcon.getDrawable(), targetInset,
                             targetInset, targetInset, targetInset);
                     setTarget(mTargetIndex, mDialogLabel.getTag().toString(), pD, type, source, pkgName);
+                    if (pendingFile != null) {
+                        loadTargetIcon(mTargetStore.get(mTargetIndex), pendingFile, targetInset);
+                    }
                 }
             });
             builder.setNegativeButton(R.string.cancel, null);
@@ -522,7 +574,7 @@ public class LockscreenTargets extends Fragment implements ShortcutPickHelper.On
                 mImage.setReadOnly();
                 iconType = MultiWaveView.ICON_FILE;
                 iconSource = mImage.toString();
-                ic = new BitmapDrawable(getResources(), BitmapFactory.decodeFile(mImage.toString()));
+                // decoded below
             } else {
                 if (mImageTmp.exists()) {
                     mImageTmp.delete();
@@ -549,11 +601,25 @@ public class LockscreenTargets extends Fragment implements ShortcutPickHelper.On
         } else {
             return;
         }
-        TargetInfo tmpIcon = new TargetInfo(null);
+        final TargetInfo tmpIcon = new TargetInfo(null);
         tmpIcon.iconType = iconType;
         tmpIcon.iconSource = iconSource;
         tmpIcon.pkgName = pkgName;
         mDialogIcon.setTag(tmpIcon);
-        mDialogIcon.setImageDrawable(ic);
+        if (iconType.equals(MultiWaveView.ICON_FILE)) {
+            tmpIcon.pendingIconFile = iconSource;
+            IconDecoder.decodeAsync(mActivity, iconSource, mTargetIconSize, new OnIconDecodedListener() {
+                @Override
+                public void iconDecoded(String path, Bitmap bitmap) {
+                    // Only if no other icon was picked meanwhile
+                    if (bitmap != null && mDialogIcon.getTag() == tmpIcon) {
+                        tmpIcon.pendingIconFile = null;
+                        mDialogIcon.setImageDrawable(new BitmapDrawable(mResources, bitmap));
+                    }
+                }
+            });
+        } else {
+            mDialogIcon.setImageDrawable(ic);
+        }
     }
 }
\ No newline at end of file
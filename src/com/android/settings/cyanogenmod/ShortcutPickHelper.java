@@ -18,8 +18,6 @@ package com.android.settings.cyanogenmod;
 
 import java.net.URISyntaxException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
 import android.app.Activity;
@@ -31,7 +29,6 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Intent.ShortcutIconResource;
 import android.content.pm.ActivityInfo;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.view.View;
@@ -41,7 +38,7 @@ import android.widget.ExpandableListView;
 import android.widget.TextView;
 
 import com.android.settings.R;
-import com.android.settings.cyanogenmod.ShortcutPickHelper.AppExpandableAdapter.GroupInfo;
+import com.android.settings.applications.AppCatalog;
 
 public class ShortcutPickHelper {
 
@@ -135,19 +132,18 @@ public class ShortcutPickHelper {
             pickIntent.putExtra(Intent.EXTRA_INTENT, mainIntent);
             startFragmentOrActivity(pickIntent, requestCodeApplication);
         } else if (application2name != null && application2name.equals(shortcutName)){
-            final List<PackageInfo> pInfos = mPackageManager.getInstalledPackages(PackageManager.GET_ACTIVITIES);
             ExpandableListView appListView = new ExpandableListView(mParent);
-            AppExpandableAdapter appAdapter = new AppExpandableAdapter(pInfos, mParent);
+            final AppExpandableAdapter appAdapter = new AppExpandableAdapter(mParent);
             appListView.setAdapter(appAdapter);
             appListView.setOnChildClickListener(new ExpandableListView.OnChildClickListener() {
                 @Override
                 public boolean onChildClick(ExpandableListView parent, View v,
                         int groupPosition, int childPosition, long id) {
                     Intent shortIntent = new Intent(Intent.ACTION_MAIN);
-                    String pkgName = ((GroupInfo)parent.getExpandableListAdapter().getGroup(groupPosition))
-                            .info.packageName;
-                    String actName = ((GroupInfo)parent.getExpandableListAdapter().getGroup(groupPosition))
-                            .info.activities[childPosition].name;
+                    String pkgName = ((AppCatalog.Entry)parent.getExpandableListAdapter().getGroup(groupPosition))
+                            .packageInfo.packageName;
+                    String actName = ((AppCatalog.Entry)parent.getExpandableListAdapter().getGroup(groupPosition))
+                            .packageInfo.activities[childPosition].name;
                     shortIntent.setClassName(pkgName, actName);
                     completeSetCustomApp(shortIntent);
                     mAlertDialog.dismiss();
@@ -165,51 +161,40 @@ public class ShortcutPickHelper {
                     mListener.shortcutPicked(null, null, false);
                 }
             });
+            mAlertDialog.setOnDismissListener(new DialogInterface.OnDismissListener() {
+                @Override
+                public void onDismiss(DialogInterface dialog) {
+                    appAdapter.cancel();
+                }
+            });
         } else {
             startFragmentOrActivity(intent, requestCodeShortcut);
         }
     }
 
-    public class AppExpandableAdapter extends BaseExpandableListAdapter {
+    public class AppExpandableAdapter extends BaseExpandableListAdapter
+            implements AppCatalog.Listener {
 
-        ArrayList<GroupInfo> allList = new ArrayList<GroupInfo>();
+        List<AppCatalog.Entry> allList = new ArrayList<AppCatalog.Entry>();
         final int groupPadding;
 
-        public class LabelCompare implements Comparator<GroupInfo>{
-            @Override
-            public int compare(GroupInfo item1, GroupInfo item2) {
-                String rank1 = item1.label.toLowerCase();
-                String rank2 = item2.label.toLowerCase();
-                int result = rank1.compareTo(rank2);
-                if(result == 0) {
-                    return 0;
-                } else if(result < 0) {
-                    return -1;
-                } else {
-                    return +1;
-                }
-            }
+        public AppExpandableAdapter(Context context) {
+            groupPadding = context.getResources().getDimensionPixelSize(R.dimen.shortcut_picker_left_padding);
+            AppCatalog.getInstance(context).loadPackages(this);
         }
 
-        class GroupInfo {
-            String label;
-            PackageInfo info;
-            GroupInfo (String l, PackageInfo p) {
-                label = l;
-                info = p;
-            }
+        public void cancel() {
+            AppCatalog.getInstance(mParent).cancel(this);
         }
 
-        public AppExpandableAdapter(List<PackageInfo> pInfos, Context context) {
-            for (PackageInfo i : pInfos) {
-                allList.add(new GroupInfo(i.applicationInfo.loadLabel(mPackageManager).toString(), i));
-            }
-            Collections.sort(allList, new LabelCompare());
-            groupPadding = context.getResources().getDimensionPixelSize(R.dimen.shortcut_picker_left_padding);
+        @Override
+        public void onEntriesLoaded(List<AppCatalog.Entry> entries, boolean complete) {
+            allList = entries;
+            notifyDataSetChanged();
         }
 
         public String getChild(int groupPosition, int childPosition) {
-            return allList.get(groupPosition).info.activities[childPosition].name;
+            return allList.get(groupPosition).packageInfo.activities[childPosition].name;
         }
 
         public long getChildId(int groupPosition, int childPosition) {
@@ -217,8 +202,8 @@ public class ShortcutPickHelper {
         }
 
         public int getChildrenCount(int groupPosition) {
-            if (allList.get(groupPosition).info.activities != null) {
-                return allList.get(groupPosition).info.activities.length;
+            if (allList.get(groupPosition).packageInfo.activities != null) {
+                return allList.get(groupPosition).packageInfo.activities.length;
             } else {
                 return 0;
             }
@@ -233,11 +218,11 @@ public class ShortcutPickHelper {
 
             }
             TextView textView = (TextView)convertView.findViewById(android.R.id.text1);
-            textView.setText(getChild(groupPosition, childPosition).replaceFirst(allList.get(groupPosition).info.packageName + ".", ""));
+            textView.setText(getChild(groupPosition, childPosition).replaceFirst(allList.get(groupPosition).packageInfo.packageName + ".", ""));
             return convertView;
         }
 
-        public GroupInfo getGroup(int groupPosition) {
+        public AppCatalog.Entry getGroup(int groupPosition) {
             return allList.get(groupPosition);
         }
 
@@ -256,7 +241,7 @@ public class ShortcutPickHelper {
                 convertView.setPadding(70, 0, 0, 0);
             }
             TextView textView = (TextView)convertView.findViewById(android.R.id.text1);
-            textView.setText(getGroup(groupPosition).label.toString());
+            textView.setText(getGroup(groupPosition).getLabel());
             return convertView;
         }
 
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.os.BatteryStats;
+import android.os.BatteryStats.HistoryItem;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
+
+import java.util.Arrays;
+
+/**
+ * Battery history reduced to what {@link BatteryHistoryChart} draws: the
+ * time, level and state bits of each update, in parallel arrays.  Built
+ * with a single pass over the history, and downsampled so that no more
+ * than one update per {@link #MAX_SAMPLES}th of the history is kept.
+ */
+public class BatteryHistoryModel implements Parcelable {
+    /** Level marking a history reset, where the chart starts a new segment. */
+    static final byte LEVEL_RESET = -1;
+
+    /** More samples than any chart is wide, so downsampling isn't visible. */
+    private static final int MAX_SAMPLES = 2048;
+
+    final long statsPeriod;
+    final long histStart;
+    final long histEnd;
+    /** All state bits seen in any update. */
+    final int aggrStates;
+
+    final int size;
+    final long[] times;
+    final byte[] levels;
+    final int[] states;
+
+    private BatteryHistoryModel(long statsPeriod, long histStart, long histEnd,
+            int aggrStates, int size, long[] times, byte[] levels, int[] states) {
+        this.statsPeriod = statsPeriod;
+        this.histStart = histStart;
+        this.histEnd = histEnd;
+        this.aggrStates = aggrStates;
+        this.size = size;
+        this.times = times;
+        this.levels = levels;
+        this.states = states;
+    }
+
+    /**
+     * Build the model from the history of the given stats.  This iterates
+     * the whole history, so don't call it on the main thread.
+     */
+    static BatteryHistoryModel build(BatteryStats stats) {
+        final long statsPeriod = stats.computeBatteryRealtime(
+                SystemClock.elapsedRealtime() * 1000, BatteryStats.STATS_SINCE_CHARGED);
+
+        int size = 0;
+        long[] times = new long[256];
+        byte[] levels = new byte[256];
+        int[] states = new int[256];
+
+        int lastInteresting = 0;
+        long histStart = 0;
+        long histEnd = 0;
+        int aggrStates = 0;
+        boolean first = true;
+        if (stats.startIteratingHistoryLocked()) {
+            final HistoryItem rec = new HistoryItem();
+            while (stats.getNextHistoryLocked(rec)) {
+                final byte level;
+                if (rec.cmd == HistoryItem.CMD_UPDATE) {
+                    if (first) {
+                        first = false;
+                        histStart = rec.time;
+                    }
+                    histEnd = rec.time;
+                    aggrStates |= rec.states;
+                    level = rec.batteryLevel;
+                } else if (rec.cmd != HistoryItem.CMD_OVERFLOW) {
+                    level = LEVEL_RESET;
+                } else {
+                    continue;
+                }
+
+                if (size == times.length) {
+                    final int capacity = size * 2;
+                    times = Arrays.copyOf(times, capacity);
+                    levels = Arrays.copyOf(levels, capacity);
+                    states = Arrays.copyOf(states, capacity);
+                }
+                times[size] = rec.time;
+                levels[size] = level;
+                states[size] = level != LEVEL_RESET ? rec.states : 0;
+                size++;
+                if (level != LEVEL_RESET) {
+                    lastInteresting = size;
+                }
+            }
+        }
+        // nothing after the last update is drawn
+        size = lastInteresting;
+        if (histEnd <= histStart) histEnd = histStart+1;
+
+        if (size > MAX_SAMPLES) {
+            // Keep the first update in each bucket, and every reset along with
+            // the update following it.
+            final long bucketDuration = Math.max(1, (histEnd - histStart) / MAX_SAMPLES);
+            long lastBucket = -1;
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (levels[i] != LEVEL_RESET) {
+                    final long bucket = (times[i] - histStart) / bucketDuration;
+                    if (bucket == lastBucket) {
+                        continue;
+                    }
+                    lastBucket = bucket;
+                } else {
+                    lastBucket = -1;
+                }
+                times[kept] = times[i];
+                levels[kept] = levels[i];
+                states[kept] = states[i];
+                kept++;
+            }
+            size = kept;
+        }
+
+        return new BatteryHistoryModel(statsPeriod, histStart, histEnd, aggrStates, size,
+                Arrays.copyOf(times, size), Arrays.copyOf(levels, size),
+                Arrays.copyOf(states, size));
+    }
+
+    public int describeContents() {
+        return 0;
+    }
+
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLong(statsPeriod);
+        dest.writeLong(histStart);
+        dest.writeLong(histEnd);
+        dest.writeInt(aggrStates);
+        dest.writeInt(size);
+        dest.writeLongArray(times);
+        dest.writeByteArray(levels);
+        dest.writeIntArray(states);
+    }
+
+    public static final Creator<BatteryHistoryModel> CREATOR = new Creator<BatteryHistoryModel>() {
+        public BatteryHistoryModel createFromParcel(Parcel in) {
+            final long statsPeriod = in.readLong();
+            final long histStart = in.readLong();
+            final long histEnd = in.readLong();
+            final int aggrStates = in.readInt();
+            final int size = in.readInt();
+            final long[] times = in.createLongArray();
+            final byte[] levels = in.createByteArray();
+            final int[] states = in.createIntArray();
+            return new BatteryHistoryModel(statsPeriod, histStart, histEnd, aggrStates, size,
+                    times, levels, states);
+        }
+
+        public BatteryHistoryModel[] newArray(int size) {
+            return new BatteryHistoryModel[size];
+        }
+    };
+}
@@ -24,17 +24,11 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.graphics.drawable.Drawable;
-import android.os.Handler;
 import android.os.BatteryStats.Uid;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-
 class BatterySipper implements Comparable<BatterySipper> {
     final Context mContext;
-    final HashMap<String,UidToDetail> mUidCache = new HashMap<String,UidToDetail>();
-    final ArrayList<BatterySipper> mRequestQueue;
-    final Handler mHandler;
+    final UidToDetailCache mUidCache;
     String name;
     Drawable icon;
     int iconId; // For passing to the detail screen.
@@ -53,6 +47,8 @@ class BatterySipper implements Comparable<BatterySipper> {
     double percent;
     double noCoveragePercent;
     String defaultPackageName;
+    /** Whether {@link #getNameIcon} still needs to be called for this UID. */
+    boolean needsNameIcon;
 
     static class UidToDetail {
         String name;
@@ -60,12 +56,10 @@ class BatterySipper implements Comparable<BatterySipper> {
         Drawable icon;
     }
 
-    BatterySipper(Context context, ArrayList<BatterySipper> requestQueue,
-            Handler handler, String label, DrainType drainType,
+    BatterySipper(Context context, String label, DrainType drainType,
             int iconId, Uid uid, double[] values) {
         mContext = context;
-        mRequestQueue = requestQueue;
-        mHandler = handler;
+        mUidCache = UidToDetailCache.getInstance(context);
         this.values = values;
         name = label;
         this.drainType = drainType;
@@ -98,12 +92,7 @@ class BatterySipper implements Comparable<BatterySipper> {
 
     void getQuickNameIconForUid(Uid uidObj) {
         final int uid = uidObj.getUid();
-        final String uidString = Integer.toString(uid);
-        if (mUidCache.containsKey(uidString)) {
-            UidToDetail utd = mUidCache.get(uidString);
-            defaultPackageName = utd.packageName;
-            name = utd.name;
-            icon = utd.icon;
+        if (getCachedNameIcon(uid)) {
             return;
         }
         PackageManager pm = mContext.getPackageManager();
@@ -123,18 +112,35 @@ class BatterySipper implements Comparable<BatterySipper> {
         } else {
             //name = packages[0];
         }
-        synchronized (mRequestQueue) {
-            mRequestQueue.add(this);
+        needsNameIcon = true;
+    }
+
+    /**
+     * Sets name and icon from the shared cache, if the UID is in it.
+     * @return whether the UID was cached
+     */
+    private boolean getCachedNameIcon(int uid) {
+        UidToDetail utd = mUidCache.get(uid);
+        if (utd == null) {
+            return false;
         }
+        defaultPackageName = utd.packageName;
+        name = utd.name;
+        icon = utd.icon;
+        needsNameIcon = false;
+        return true;
     }
 
     /**
      * Sets name and icon
-     * @param uid Uid of the application
      */
     void getNameIcon() {
-        PackageManager pm = mContext.getPackageManager();
+        needsNameIcon = false;
         final int uid = uidObj.getUid();
+        if (getCachedNameIcon(uid)) {
+            return;
+        }
+        PackageManager pm = mContext.getPackageManager();
         final Drawable defaultActivityIcon = pm.getDefaultActivityIcon();
         String[] packages = pm.getPackagesForUid(uid);
         if (packages == null) {
@@ -189,12 +195,6 @@ class BatterySipper implements Comparable<BatterySipper> {
                 }
             }
         }
-        final String uidString = Integer.toString(uidObj.getUid());
-        UidToDetail utd = new UidToDetail();
-        utd.name = name;
-        utd.icon = icon;
-        utd.packageName = defaultPackageName;
-        mUidCache.put(uidString, utd);
-        mHandler.sendMessage(mHandler.obtainMessage(PowerUsageSummary.MSG_UPDATE_NAME_ICON, this));
+        mUidCache.put(uid, name, defaultPackageName, icon);
     }
 }
\ No newline at end of file
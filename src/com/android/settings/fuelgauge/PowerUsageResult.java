@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import com.android.internal.os.BatteryStatsImpl;
+
+import java.util.List;
+
+/**
+ * Power usage computed by {@link PowerUsageLoader} from one snapshot of
+ * battery stats.
+ */
+class PowerUsageResult {
+    /** The snapshot this result was computed from. */
+    final BatteryStatsImpl stats;
+    /** Size of the parcel the snapshot was read from, or -1 if unknown. */
+    final int generation;
+    final int statsType;
+    final BatteryHistoryModel history;
+
+    /** Whether the power profile has real values; if not, usageList is empty. */
+    final boolean available;
+    /** Sippers sorted by power, highest first. */
+    final List<BatterySipper> usageList;
+    final double maxPower;
+    final double totalPower;
+    final long statsPeriod;
+
+    PowerUsageResult(BatteryStatsImpl stats, int generation, int statsType, BatteryHistoryModel history,
+            boolean available, List<BatterySipper> usageList, double maxPower,
+            double totalPower, long statsPeriod) {
+        this.stats = stats;
+        this.generation = generation;
+        this.statsType = statsType;
+        this.history = history;
+        this.available = available;
+        this.usageList = usageList;
+        this.maxPower = maxPower;
+        this.totalPower = totalPower;
+        this.statsPeriod = statsPeriod;
+    }
+}
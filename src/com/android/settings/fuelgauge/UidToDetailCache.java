@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.graphics.drawable.Drawable;
+import android.util.LruCache;
+
+import com.android.settings.fuelgauge.BatterySipper.UidToDetail;
+
+/**
+ * Process-wide cache of resolved names and icons for UIDs, shared by every
+ * {@link BatterySipper}.  Entries for a UID are dropped when one of its
+ * packages is added, changed or removed.
+ */
+class UidToDetailCache {
+    private static final int MAX_ENTRIES = 100;
+
+    private static UidToDetailCache sInstance;
+
+    private final LruCache<Integer, UidToDetail> mCache =
+            new LruCache<Integer, UidToDetail>(MAX_ENTRIES);
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final int uid = intent.getIntExtra(Intent.EXTRA_UID, -1);
+            if (uid != -1) {
+                mCache.remove(uid);
+            } else {
+                mCache.evictAll();
+            }
+        }
+    };
+
+    static synchronized UidToDetailCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new UidToDetailCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private UidToDetailCache(Context context) {
+        IntentFilter filter = new IntentFilter(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        context.registerReceiver(mPackageReceiver, filter);
+        // Packages on external storage don't carry a UID; drop everything.
+        IntentFilter sdFilter = new IntentFilter(Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
+        sdFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
+        context.registerReceiver(mPackageReceiver, sdFilter);
+    }
+
+    /**
+     * Returns the cached detail for the UID, with its own copy of the icon
+     * so it can be attached to a view, or null if the UID isn't cached.
+     */
+    UidToDetail get(int uid) {
+        UidToDetail cached = mCache.get(uid);
+        if (cached == null) {
+            return null;
+        }
+        UidToDetail utd = new UidToDetail();
+        utd.name = cached.name;
+        utd.packageName = cached.packageName;
+        utd.icon = copyOf(cached.icon);
+        return utd;
+    }
+
+    void put(int uid, String name, String packageName, Drawable icon) {
+        UidToDetail utd = new UidToDetail();
+        utd.name = name;
+        utd.packageName = packageName;
+        utd.icon = copyOf(icon);
+        mCache.put(uid, utd);
+    }
+
+    private static Drawable copyOf(Drawable icon) {
+        if (icon == null) {
+            return null;
+        }
+        Drawable.ConstantState state = icon.getConstantState();
+        return state != null ? state.newDrawable() : icon;
+    }
+}
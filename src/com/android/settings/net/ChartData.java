@@ -20,6 +20,8 @@ import android.net.NetworkStatsHistory;
 
 public class ChartData {
     public NetworkStatsHistory network;
+    /** Running totals of {@link #network}, for range totals in constant time. */
+    public CumulativeUsage networkUsage;
 
     public NetworkStatsHistory detail;
     public NetworkStatsHistory detailDefault;
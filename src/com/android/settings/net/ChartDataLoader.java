@@ -16,29 +16,25 @@
 
 package com.android.settings.net;
 
-import static android.net.NetworkStats.SET_DEFAULT;
-import static android.net.NetworkStats.SET_FOREGROUND;
-import static android.net.NetworkStats.TAG_NONE;
 import static android.net.NetworkStatsHistory.FIELD_RX_BYTES;
 import static android.net.NetworkStatsHistory.FIELD_TX_BYTES;
 
 import android.content.AsyncTaskLoader;
 import android.content.Context;
-import android.net.INetworkStatsService;
-import android.net.NetworkStatsHistory;
 import android.net.NetworkTemplate;
 import android.os.Bundle;
 import android.os.RemoteException;
 
 /**
- * Loader for historical chart data for both network and UID details.
+ * Loader for historical chart data for both network and UID details, served
+ * from a {@link NetworkStatsCache} when possible.
  */
 public class ChartDataLoader extends AsyncTaskLoader<ChartData> {
     private static final String KEY_TEMPLATE = "template";
     private static final String KEY_UIDS = "uids";
     private static final String KEY_FIELDS = "fields";
 
-    private final INetworkStatsService mStatsService;
+    private final NetworkStatsCache mStatsCache;
     private final Bundle mArgs;
 
     public static Bundle buildArgs(NetworkTemplate template, int[] uids) {
@@ -53,9 +49,9 @@ public class ChartDataLoader extends AsyncTaskLoader<ChartData> {
         return args;
     }
 
-    public ChartDataLoader(Context context, INetworkStatsService statsService, Bundle args) {
+    public ChartDataLoader(Context context, NetworkStatsCache statsCache, Bundle args) {
         super(context);
-        mStatsService = statsService;
+        mStatsCache = statsCache;
         mArgs = args;
     }
 
@@ -83,23 +79,15 @@ public class ChartDataLoader extends AsyncTaskLoader<ChartData> {
     private ChartData loadInBackground(NetworkTemplate template, int[] uids, int fields)
             throws RemoteException {
         final ChartData data = new ChartData();
-        data.network = mStatsService.getHistoryForNetwork(template, fields);
+        data.network = mStatsCache.getHistoryForNetwork(template, fields);
+        data.networkUsage = new CumulativeUsage(data.network);
 
         if (uids != null) {
-            data.detailDefault = null;
-            data.detailForeground = null;
-
-            // load stats for current uid and template
-            for (int uid : uids) {
-                data.detailDefault = collectHistoryForUid(
-                        template, uid, SET_DEFAULT, data.detailDefault);
-                data.detailForeground = collectHistoryForUid(
-                        template, uid, SET_FOREGROUND, data.detailForeground);
-            }
-
-            data.detail = new NetworkStatsHistory(data.detailForeground.getBucketDuration());
-            data.detail.recordEntireHistory(data.detailDefault);
-            data.detail.recordEntireHistory(data.detailForeground);
+            // load stats for current uids and template
+            final ChartData detail = mStatsCache.getHistoryForUids(template, uids);
+            data.detail = detail.detail;
+            data.detailDefault = detail.detailDefault;
+            data.detailForeground = detail.detailForeground;
         }
 
         return data;
@@ -116,22 +104,4 @@ public class ChartDataLoader extends AsyncTaskLoader<ChartData> {
         super.onReset();
         cancelLoad();
     }
-
-    /**
-     * Collect {@link NetworkStatsHistory} for the requested UID, combining with
-     * an existing {@link NetworkStatsHistory} if provided.
-     */
-    private NetworkStatsHistory collectHistoryForUid(
-            NetworkTemplate template, int uid, int set, NetworkStatsHistory existing)
-            throws RemoteException {
-        final NetworkStatsHistory history = mStatsService.getHistoryForUid(
-                template, uid, set, TAG_NONE, FIELD_RX_BYTES | FIELD_TX_BYTES);
-
-        if (existing != null) {
-            existing.recordEntireHistory(history);
-            return existing;
-        } else {
-            return history;
-        }
-    }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.net;
+
+import android.net.NetworkStatsHistory;
+
+/**
+ * Running totals of the bytes in a {@link NetworkStatsHistory}, laid out on
+ * a dense grid of its buckets, so that usage during any range can be read
+ * in constant time instead of walking the buckets.
+ */
+public class CumulativeUsage {
+    private final long mBucketDuration;
+    private final long mFirstBucketStart;
+    private final int mBucketCount;
+
+    /** Bytes of all buckets before each index. */
+    private final long[] mTotals;
+
+    public CumulativeUsage(NetworkStatsHistory history) {
+        mBucketDuration = history.getBucketDuration();
+
+        final int size = history.size();
+        if (size == 0) {
+            mFirstBucketStart = 0;
+            mBucketCount = 0;
+            mTotals = new long[1];
+            return;
+        }
+
+        NetworkStatsHistory.Entry entry = history.getValues(0, null);
+        mFirstBucketStart = entry.bucketStart;
+        entry = history.getValues(size - 1, entry);
+        mBucketCount = (int) ((entry.bucketStart - mFirstBucketStart) / mBucketDuration) + 1;
+
+        // missing buckets stay empty, which keeps the running total flat
+        mTotals = new long[mBucketCount + 1];
+        for (int i = 0; i < size; i++) {
+            entry = history.getValues(i, entry);
+            final int index = (int) ((entry.bucketStart - mFirstBucketStart) / mBucketDuration);
+            mTotals[index + 1] += entry.rxBytes + entry.txBytes;
+        }
+        for (int i = 1; i <= mBucketCount; i++) {
+            mTotals[i] += mTotals[i - 1];
+        }
+    }
+
+    public long getBucketDuration() {
+        return mBucketDuration;
+    }
+
+    public long getStart() {
+        return mFirstBucketStart;
+    }
+
+    public long getEnd() {
+        return mFirstBucketStart + mBucketCount * mBucketDuration;
+    }
+
+    /**
+     * Return the start of the bucket containing the given time, clamped to
+     * the buckets present.
+     */
+    public long getBucketStart(long time) {
+        if (time <= mFirstBucketStart || mBucketCount == 0) return mFirstBucketStart;
+        final long index = Math.min((time - mFirstBucketStart) / mBucketDuration, mBucketCount - 1);
+        return mFirstBucketStart + index * mBucketDuration;
+    }
+
+    /**
+     * Return bytes used before the given time, treating usage within a
+     * bucket as spread evenly over it.  This is the series drawn by
+     * {@link com.android.settings.widget.ChartNetworkSeriesView}.
+     */
+    public long getTotalBefore(long time) {
+        if (time <= mFirstBucketStart) return 0;
+        if (time >= getEnd()) return mTotals[mBucketCount];
+
+        final int index = (int) ((time - mFirstBucketStart) / mBucketDuration);
+        final long offset = time - (mFirstBucketStart + index * mBucketDuration);
+        final long bytes = mTotals[index + 1] - mTotals[index];
+        return mTotals[index] + bytes * offset / mBucketDuration;
+    }
+
+    /**
+     * Return bytes used during the given range, counted the same way as
+     * {@link NetworkStatsHistory#getValues(long, long, long,
+     * NetworkStatsHistory.Entry)}.
+     */
+    public long getTotal(long start, long end, long now) {
+        return getTotal(mTotals, mFirstBucketStart, mBucketDuration, start, end, now);
+    }
+
+    /**
+     * Return bytes used during the given range from running totals laid out
+     * on a grid of buckets, where bucket i holds
+     * {@code totals[i + 1] - totals[i]}.  Partial buckets count for the
+     * fraction of them inside the range, except for the active bucket which
+     * counts in full, like {@link NetworkStatsHistory} does.
+     */
+    static long getTotal(long[] totals, long firstBucketStart, long bucketDuration,
+            long start, long end, long now) {
+        final int bucketCount = totals.length - 1;
+        start = Math.max(start, firstBucketStart);
+        end = Math.min(end, firstBucketStart + bucketCount * bucketDuration);
+        if (end <= start) return 0;
+
+        final int first = (int) ((start - firstBucketStart) / bucketDuration);
+        final int last = (int) ((end - 1 - firstBucketStart) / bucketDuration);
+        final long firstBytes = getPartial(
+                totals, firstBucketStart, bucketDuration, first, start, end, now);
+        if (first == last) {
+            return firstBytes;
+        }
+
+        // buckets between the first and last are covered entirely
+        return firstBytes + (totals[last] - totals[first + 1]) + getPartial(
+                totals, firstBucketStart, bucketDuration, last, start, end, now);
+    }
+
+    private static long getPartial(long[] totals, long firstBucketStart, long bucketDuration,
+            int index, long start, long end, long now) {
+        final long bytes = totals[index + 1] - totals[index];
+        final long curStart = firstBucketStart + index * bucketDuration;
+        final long curEnd = curStart + bucketDuration;
+
+        // include full value for active buckets, otherwise only fractional
+        final boolean activeBucket = curStart < now && curEnd > now;
+        final long overlap;
+        if (activeBucket) {
+            overlap = bucketDuration;
+        } else {
+            final long overlapEnd = curEnd < end ? curEnd : end;
+            final long overlapStart = curStart > start ? curStart : start;
+            overlap = overlapEnd - overlapStart;
+        }
+        if (overlap <= 0) return 0;
+        return bytes * overlap / bucketDuration;
+    }
+}
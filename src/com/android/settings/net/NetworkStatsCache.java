@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.net;
+
+import static android.net.NetworkStats.SET_DEFAULT;
+import static android.net.NetworkStats.SET_FOREGROUND;
+import static android.net.NetworkStats.TAG_NONE;
+import static android.net.NetworkStatsHistory.FIELD_RX_BYTES;
+import static android.net.NetworkStatsHistory.FIELD_TX_BYTES;
+
+import android.net.INetworkStatsService;
+import android.net.NetworkStats;
+import android.net.NetworkStatsHistory;
+import android.net.NetworkTemplate;
+import android.os.RemoteException;
+import android.text.format.DateUtils;
+import android.util.LruCache;
+import android.util.SparseBooleanArray;
+
+import com.android.internal.util.Objects;
+
+import java.util.Arrays;
+
+/**
+ * Recently loaded {@link INetworkStatsService} results, keyed by the
+ * template, range and UIDs they were requested with, so switching back to a
+ * previously viewed tab or cycle does not ask the service again.  Cached
+ * values are shared and must be treated as read-only.
+ * <p>
+ * Call {@link #invalidate()} once the service has new data, such as after
+ * {@link INetworkStatsService#forceUpdate()} returns.
+ */
+public class NetworkStatsCache {
+    private static final int MAX_SUMMARIES = 16;
+    private static final int MAX_HISTORIES = 8;
+    private static final int MAX_MATRICES = 4;
+
+    private static final int[] UID_SETS = { SET_DEFAULT, SET_FOREGROUND };
+
+    private final INetworkStatsService mStatsService;
+
+    private final LruCache<Key, NetworkStats> mSummaries;
+    private final LruCache<Key, NetworkStatsHistory> mNetworkHistories;
+    private final LruCache<Key, ChartData> mUidHistories;
+    private final LruCache<Key, UidUsageMatrix> mUsageMatrices;
+
+    /** Bumped on every {@link #invalidate()} to discard loads already running. */
+    private int mGeneration;
+
+    public NetworkStatsCache(INetworkStatsService statsService) {
+        mStatsService = statsService;
+        mSummaries = new LruCache<Key, NetworkStats>(MAX_SUMMARIES);
+        mNetworkHistories = new LruCache<Key, NetworkStatsHistory>(MAX_HISTORIES);
+        mUidHistories = new LruCache<Key, ChartData>(MAX_HISTORIES);
+        mUsageMatrices = new LruCache<Key, UidUsageMatrix>(MAX_MATRICES);
+    }
+
+    /**
+     * Drop all cached results.
+     */
+    public synchronized void invalidate() {
+        mGeneration++;
+        mSummaries.evictAll();
+        mNetworkHistories.evictAll();
+        mUidHistories.evictAll();
+        mUsageMatrices.evictAll();
+    }
+
+    private synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Return usage summary of all UIDs for the given template and range.
+     */
+    public NetworkStats getSummaryForAllUid(NetworkTemplate template, long start, long end)
+            throws RemoteException {
+        final Key key = new Key(template, start, end, null, 0);
+        final NetworkStats cached = mSummaries.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final int generation = getGeneration();
+        final NetworkStats stats = mStatsService.getSummaryForAllUid(template, start, end, false);
+        synchronized (this) {
+            if (generation == mGeneration && stats != null) {
+                mSummaries.put(key, stats);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Return history of the entire network for the given template.
+     */
+    public NetworkStatsHistory getHistoryForNetwork(NetworkTemplate template, int fields)
+            throws RemoteException {
+        final Key key = new Key(template, 0, 0, null, fields);
+        final NetworkStatsHistory cached = mNetworkHistories.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final int generation = getGeneration();
+        final NetworkStatsHistory history = mStatsService.getHistoryForNetwork(template, fields);
+        synchronized (this) {
+            if (generation == mGeneration && history != null) {
+                mNetworkHistories.put(key, history);
+            }
+        }
+        return history;
+    }
+
+    /**
+     * Return combined history of all the given UIDs, as a {@link ChartData}
+     * with only its detail histories filled in.  Default and foreground
+     * histories of every UID are collected in a single pass and cached
+     * together.
+     */
+    public ChartData getHistoryForUids(NetworkTemplate template, int[] uids)
+            throws RemoteException {
+        final Key key = new Key(template, 0, 0, uids, 0);
+        final ChartData cached = mUidHistories.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final int generation = getGeneration();
+        final ChartData detail = new ChartData();
+        for (int uid : uids) {
+            detail.detailDefault = collectHistoryForUid(
+                    template, uid, SET_DEFAULT, detail.detailDefault);
+            detail.detailForeground = collectHistoryForUid(
+                    template, uid, SET_FOREGROUND, detail.detailForeground);
+        }
+
+        detail.detail = new NetworkStatsHistory(detail.detailForeground.getBucketDuration());
+        detail.detail.recordEntireHistory(detail.detailDefault);
+        detail.detail.recordEntireHistory(detail.detailForeground);
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mUidHistories.put(key, detail);
+            }
+        }
+        return detail;
+    }
+
+    /**
+     * Return bucketed usage of every UID seen on the given template during
+     * the given range, so that summaries of any range inside it can be
+     * computed without asking the service again.
+     */
+    public UidUsageMatrix getUsageMatrix(NetworkTemplate template, long start, long end)
+            throws RemoteException {
+        final Key key = new Key(template, start, end, null, 0);
+        final UidUsageMatrix cached = mUsageMatrices.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final int generation = getGeneration();
+        final int[] uids = collectUids(getSummaryForAllUid(template, start, end));
+
+        UidUsageMatrix matrix = null;
+        for (int i = 0; i < uids.length; i++) {
+            for (int set : UID_SETS) {
+                final NetworkStatsHistory history = mStatsService.getHistoryForUid(
+                        template, uids[i], set, TAG_NONE, FIELD_RX_BYTES | FIELD_TX_BYTES);
+                if (matrix == null) {
+                    matrix = new UidUsageMatrix(
+                            template, start, end, history.getBucketDuration(), uids);
+                }
+                matrix.recordHistory(i, history);
+            }
+        }
+        if (matrix == null) {
+            matrix = new UidUsageMatrix(template, start, end, DateUtils.HOUR_IN_MILLIS, uids);
+        }
+        matrix.finish();
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mUsageMatrices.put(key, matrix);
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Return the distinct UIDs appearing in the given summary.
+     */
+    private static int[] collectUids(NetworkStats stats) {
+        final SparseBooleanArray known = new SparseBooleanArray();
+        NetworkStats.Entry entry = null;
+        final int size = stats != null ? stats.size() : 0;
+        for (int i = 0; i < size; i++) {
+            entry = stats.getValues(i, entry);
+            known.put(entry.uid, true);
+        }
+        final int[] uids = new int[known.size()];
+        for (int i = 0; i < uids.length; i++) {
+            uids[i] = known.keyAt(i);
+        }
+        return uids;
+    }
+
+    /**
+     * Collect {@link NetworkStatsHistory} for the requested UID, combining with
+     * an existing {@link NetworkStatsHistory} if provided.
+     */
+    private NetworkStatsHistory collectHistoryForUid(
+            NetworkTemplate template, int uid, int set, NetworkStatsHistory existing)
+            throws RemoteException {
+        final NetworkStatsHistory history = mStatsService.getHistoryForUid(
+                template, uid, set, TAG_NONE, FIELD_RX_BYTES | FIELD_TX_BYTES);
+
+        if (existing != null) {
+            existing.recordEntireHistory(history);
+            return existing;
+        } else {
+            return history;
+        }
+    }
+
+    private static class Key {
+        private final NetworkTemplate mTemplate;
+        private final long mStart;
+        private final long mEnd;
+        private final int[] mUids;
+        private final int mFields;
+
+        Key(NetworkTemplate template, long start, long end, int[] uids, int fields) {
+            mTemplate = template;
+            mStart = start;
+            mEnd = end;
+            mUids = uids != null ? uids.clone() : null;
+            mFields = fields;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(mTemplate, mStart, mEnd, Arrays.hashCode(mUids), mFields);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                final Key other = (Key) obj;
+                return Objects.equal(mTemplate, other.mTemplate) && mStart == other.mStart
+                        && mEnd == other.mEnd && Arrays.equals(mUids, other.mUids)
+                        && mFields == other.mFields;
+            }
+            return false;
+        }
+    }
+}
@@ -18,18 +18,21 @@ package com.android.settings.net;
 
 import android.content.AsyncTaskLoader;
 import android.content.Context;
-import android.net.INetworkStatsService;
 import android.net.NetworkStats;
 import android.net.NetworkTemplate;
 import android.os.Bundle;
 import android.os.RemoteException;
 
+/**
+ * Loader for usage summary of all UIDs, served from a
+ * {@link NetworkStatsCache} when possible.
+ */
 public class SummaryForAllUidLoader extends AsyncTaskLoader<NetworkStats> {
     private static final String KEY_TEMPLATE = "template";
     private static final String KEY_START = "start";
     private static final String KEY_END = "end";
 
-    private final INetworkStatsService mStatsService;
+    private final NetworkStatsCache mStatsCache;
     private final Bundle mArgs;
 
     public static Bundle buildArgs(NetworkTemplate template, long start, long end) {
@@ -41,9 +44,9 @@ public class SummaryForAllUidLoader extends AsyncTaskLoader<NetworkStats> {
     }
 
     public SummaryForAllUidLoader(
-            Context context, INetworkStatsService statsService, Bundle args) {
+            Context context, NetworkStatsCache statsCache, Bundle args) {
         super(context);
-        mStatsService = statsService;
+        mStatsCache = statsCache;
         mArgs = args;
     }
 
@@ -60,7 +63,7 @@ public class SummaryForAllUidLoader extends AsyncTaskLoader<NetworkStats> {
         final long end = mArgs.getLong(KEY_END);
 
         try {
-            return mStatsService.getSummaryForAllUid(template, start, end, false);
+            return mStatsCache.getSummaryForAllUid(template, start, end);
         } catch (RemoteException e) {
             return null;
         }
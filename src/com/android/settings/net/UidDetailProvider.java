@@ -24,29 +24,46 @@ import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Resources;
 import android.net.ConnectivityManager;
 import android.net.TrafficStats;
+import android.os.AsyncTask;
 import android.text.TextUtils;
-import android.util.SparseArray;
+import android.util.Log;
 
 import com.android.settings.R;
 import com.android.settings.Utils;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Resolves and caches {@link UidDetail} for UIDs.  Lookups for different
+ * UIDs proceed in parallel; concurrent lookups for the same UID share a
+ * single resolution.
+ */
 public class UidDetailProvider {
+    private static final String TAG = "UidDetailProvider";
+
     private final Context mContext;
-    private final SparseArray<UidDetail> mUidDetailCache;
+    private final ConcurrentHashMap<Integer, UidDetail> mUidDetailCache;
+    private final ConcurrentHashMap<Integer, FutureTask<UidDetail>> mPending;
 
     public UidDetailProvider(Context context) {
         mContext = context.getApplicationContext();
-        mUidDetailCache = new SparseArray<UidDetail>();
+        mUidDetailCache = new ConcurrentHashMap<Integer, UidDetail>();
+        mPending = new ConcurrentHashMap<Integer, FutureTask<UidDetail>>();
     }
 
-    public synchronized void clearCache() {
+    public void clearCache() {
         mUidDetailCache.clear();
     }
 
     /**
-     * Resolve best descriptive label for the given UID.
+     * Resolve best descriptive label for the given UID.  When not
+     * {@code blocking}, only returns an already cached result.
      */
-    public synchronized UidDetail getUidDetail(int uid, boolean blocking) {
+    public UidDetail getUidDetail(int uid, boolean blocking) {
         final UidDetail cached = mUidDetailCache.get(uid);
         if (cached != null) {
             return cached;
@@ -54,6 +71,65 @@ public class UidDetailProvider {
             return null;
         }
 
+        final FutureTask<UidDetail> task = obtainTask(uid);
+        // runs inline unless another thread already started it
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.w(TAG, "problem resolving uid " + uid, e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Start resolving the given UIDs in parallel on
+     * {@link AsyncTask#THREAD_POOL_EXECUTOR}, so they are cached by the
+     * time they are asked for.
+     */
+    public void prefetch(int[] uids) {
+        final Executor executor = AsyncTask.THREAD_POOL_EXECUTOR;
+        for (int uid : uids) {
+            if (mUidDetailCache.containsKey(uid) || mPending.containsKey(uid)) {
+                continue;
+            }
+            executor.execute(obtainTask(uid));
+        }
+    }
+
+    /**
+     * Return the in-flight resolution of the given UID, creating one if
+     * none exists.
+     */
+    private FutureTask<UidDetail> obtainTask(final int uid) {
+        FutureTask<UidDetail> task = mPending.get(uid);
+        if (task != null) {
+            return task;
+        }
+        task = new FutureTask<UidDetail>(new Callable<UidDetail>() {
+            @Override
+            public UidDetail call() {
+                try {
+                    final UidDetail detail = buildUidDetail(uid);
+                    mUidDetailCache.put(uid, detail);
+                    return detail;
+                } finally {
+                    mPending.remove(uid);
+                }
+            }
+        });
+        final FutureTask<UidDetail> existing = mPending.putIfAbsent(uid, task);
+        return existing != null ? existing : task;
+    }
+
+    /**
+     * Resolve best descriptive label for the given UID, without consulting
+     * the cache.
+     */
+    private UidDetail buildUidDetail(int uid) {
         final Resources res = mContext.getResources();
         final PackageManager pm = mContext.getPackageManager();
 
@@ -66,19 +142,16 @@ public class UidDetailProvider {
             case android.os.Process.SYSTEM_UID:
                 detail.label = res.getString(R.string.process_kernel_label);
                 detail.icon = pm.getDefaultActivityIcon();
-                mUidDetailCache.put(uid, detail);
                 return detail;
             case TrafficStats.UID_REMOVED:
                 detail.label = res.getString(R.string.data_usage_uninstalled_apps);
                 detail.icon = pm.getDefaultActivityIcon();
-                mUidDetailCache.put(uid, detail);
                 return detail;
             case TrafficStats.UID_TETHERING:
                 final ConnectivityManager cm = (ConnectivityManager) mContext.getSystemService(
                         Context.CONNECTIVITY_SERVICE);
                 detail.label = res.getString(Utils.getTetheringLabel(cm));
                 detail.icon = pm.getDefaultActivityIcon();
-                mUidDetailCache.put(uid, detail);
                 return detail;
         }
 
@@ -113,7 +186,6 @@ public class UidDetailProvider {
             detail.label = Integer.toString(uid);
         }
 
-        mUidDetailCache.put(uid, detail);
         return detail;
     }
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.net;
+
+import static android.net.NetworkStats.IFACE_ALL;
+import static android.net.NetworkStats.SET_DEFAULT;
+import static android.net.NetworkStats.TAG_NONE;
+
+import android.net.NetworkStats;
+import android.net.NetworkStatsHistory;
+import android.net.NetworkTemplate;
+import android.os.SystemClock;
+
+import com.android.internal.util.Objects;
+
+/**
+ * Bucketed usage of every UID seen on a template during one range, kept as
+ * running totals per UID, so the usage of all UIDs over any range inside it
+ * can be computed locally instead of asking {@code INetworkStatsService}.
+ * Instances are shared and read-only once built.
+ */
+public class UidUsageMatrix {
+    private final NetworkTemplate mTemplate;
+    private final long mStart;
+    private final long mEnd;
+
+    private final long mBucketDuration;
+    private final long mFirstBucketStart;
+    private final int mBucketCount;
+
+    private final int[] mUids;
+    /**
+     * Per UID, the bytes of all buckets before each index, so bucket i holds
+     * {@code totals[i + 1] - totals[i]}.
+     */
+    private final long[][] mRxTotals;
+    private final long[][] mTxTotals;
+
+    /**
+     * Start a matrix covering the given range; fill it with
+     * {@link #recordHistory(int, NetworkStatsHistory)} and finish it with
+     * {@link #finish()}.
+     */
+    UidUsageMatrix(NetworkTemplate template, long start, long end, long bucketDuration,
+            int[] uids) {
+        mTemplate = template;
+        mStart = start;
+        mEnd = end;
+        mBucketDuration = bucketDuration;
+        // the service aligns its buckets to multiples of their duration
+        mFirstBucketStart = start - (start % bucketDuration);
+        mBucketCount = (int) ((end - mFirstBucketStart + bucketDuration - 1) / bucketDuration);
+        mUids = uids;
+        mRxTotals = new long[uids.length][mBucketCount + 1];
+        mTxTotals = new long[uids.length][mBucketCount + 1];
+    }
+
+    /**
+     * Add the buckets of the given history to the UID at the given index.
+     */
+    void recordHistory(int uidIndex, NetworkStatsHistory history) {
+        final long[] rx = mRxTotals[uidIndex];
+        final long[] tx = mTxTotals[uidIndex];
+
+        NetworkStatsHistory.Entry entry = null;
+        final int size = history.size();
+        for (int i = 0; i < size; i++) {
+            entry = history.getValues(i, entry);
+            final long bucketIndex = (entry.bucketStart - mFirstBucketStart) / mBucketDuration;
+            if (entry.bucketStart < mFirstBucketStart || bucketIndex >= mBucketCount) {
+                continue;
+            }
+            // stored one slot ahead; finish() turns these into running totals
+            rx[(int) bucketIndex + 1] += entry.rxBytes;
+            tx[(int) bucketIndex + 1] += entry.txBytes;
+        }
+    }
+
+    void finish() {
+        for (int u = 0; u < mUids.length; u++) {
+            final long[] rx = mRxTotals[u];
+            final long[] tx = mTxTotals[u];
+            for (int i = 1; i <= mBucketCount; i++) {
+                rx[i] += rx[i - 1];
+                tx[i] += tx[i - 1];
+            }
+        }
+    }
+
+    /**
+     * Return whether this matrix can answer {@link #getSummary} for the given
+     * template and range.
+     */
+    public boolean covers(NetworkTemplate template, long start, long end) {
+        return Objects.equal(mTemplate, template) && start >= mStart && end <= mEnd;
+    }
+
+    /**
+     * Return usage of every UID during the given range, like
+     * {@code INetworkStatsService#getSummaryForAllUid()} would, including how
+     * partial buckets are counted.  Runs in time proportional to the number
+     * of UIDs.
+     */
+    public NetworkStats getSummary(long start, long end, long now) {
+        start = Math.max(start, mStart);
+        end = Math.min(end, mEnd);
+
+        final NetworkStats stats = new NetworkStats(SystemClock.elapsedRealtime(), mUids.length);
+        final NetworkStats.Entry entry = new NetworkStats.Entry();
+        entry.iface = IFACE_ALL;
+        entry.set = SET_DEFAULT;
+        entry.tag = TAG_NONE;
+
+        for (int u = 0; u < mUids.length; u++) {
+            entry.uid = mUids[u];
+            entry.rxBytes = getBytes(mRxTotals[u], start, end, now);
+            entry.txBytes = getBytes(mTxTotals[u], start, end, now);
+            if (entry.rxBytes > 0 || entry.txBytes > 0) {
+                stats.addValues(entry);
+            }
+        }
+        return stats;
+    }
+
+    private long getBytes(long[] totals, long start, long end, long now) {
+        return CumulativeUsage.getTotal(
+                totals, mFirstBucketStart, mBucketDuration, start, end, now);
+    }
+}
@@ -17,12 +17,9 @@
 package com.android.settings.notificationlight;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 
 import android.app.AlertDialog;
 import android.app.Dialog;
@@ -34,21 +31,18 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
-import android.content.pm.ResolveInfo;
 import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
 import android.os.Bundle;
-import android.os.Handler;
 import android.preference.CheckBoxPreference;
 import android.preference.Preference;
 import android.preference.PreferenceGroup;
 import android.preference.PreferenceScreen;
 import android.provider.Settings;
 import android.telephony.TelephonyManager;
-import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -66,9 +60,11 @@ import android.widget.Toast;
 
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
+import com.android.settings.applications.AppCatalog;
 
 public class NotificationLightSettings extends SettingsPreferenceFragment implements
-        Preference.OnPreferenceChangeListener, View.OnLongClickListener {
+        Preference.OnPreferenceChangeListener, View.OnLongClickListener,
+        NotificationLightStore.Listener {
     private static final String TAG = "NotificationLightSettings";
     private static final String NOTIFICATION_LIGHT_PULSE_DEFAULT_COLOR = "notification_light_pulse_default_color";
     private static final String NOTIFICATION_LIGHT_PULSE_DEFAULT_LED_ON = "notification_light_pulse_default_led_on";
@@ -94,7 +90,6 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
     public static final int ACTION_DELETE = 1;
     private static final int MENU_ADD = 0;
     private static final int DIALOG_APPS = 0;
-    private List<ResolveInfo> mInstalledApps;
     private PackageManager mPackageManager;
     private boolean mCustomEnabled;
     private boolean mLightEnabled;
@@ -106,8 +101,15 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
     CheckBoxPreference mLedScreenOn;
     private Menu mMenu;
     AppAdapter mAppAdapter;
-    private String mApplicationList;
-    private Map<String, Application> mApplications;
+    private NotificationLightStore mStore;
+    /** Rows of the configured applications, by package name. */
+    private final HashMap<String, ApplicationLightPreference> mAppPrefs =
+            new HashMap<String, ApplicationLightPreference>();
+    /** Packages whose label and icon are being loaded. */
+    private final HashSet<String> mLoading = new HashSet<String>();
+    /** Packages waiting for the running load task to finish. */
+    private final ArrayList<String> mLoadQueue = new ArrayList<String>();
+    private LoadApplicationsTask mLoadTask;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -116,10 +118,7 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
 
         // Get launch-able applications
         mPackageManager = getPackageManager();
-        final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
-        mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
-        mInstalledApps = mPackageManager.queryIntentActivities(mainIntent, 0);
-        mAppAdapter = new AppAdapter(mInstalledApps);
+        mAppAdapter = new AppAdapter();
         mAppAdapter.update();
 
 	mLedScreenOn = (CheckBoxPreference) findPreference(PREF_LED_SCREEN_ON);
@@ -127,7 +126,7 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
 		Settings.Secure.LED_SCREEN_ON, 0) == 1);
 
 
-        mApplications = new HashMap<String, Application>();
+        mStore = NotificationLightStore.getInstance(getActivity());
 
         // Determine if the device has voice capabilities
         mVoiceCapable = (((TelephonyManager) getActivity().getSystemService(Context.TELEPHONY_SERVICE)).getPhoneType()
@@ -157,10 +156,23 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
     public void onResume() {
         super.onResume();
         refreshDefault();
+        mStore.registerListener(this);
         refreshCustomApplications();
         setCustomEnabled();
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        mStore.unregisterListener(this);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mAppAdapter.cancel();
+    }
+
     private void refreshDefault() {
         ContentResolver resolver = getContentResolver();
         int color = Settings.System.getInt(resolver, NOTIFICATION_LIGHT_PULSE_DEFAULT_COLOR, DEFAULT_COLOR);
@@ -222,48 +234,121 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
 
     }
 
+    /**
+     * Bring the application rows in line with the store. Only rows that
+     * are missing get their label and icon loaded.
+     */
     private void refreshCustomApplications() {
-        Context context = getActivity();
+        final HashSet<String> packages = new HashSet<String>(mStore.getPackages());
+        packages.addAll(mAppPrefs.keySet());
+        for (String packageName : packages) {
+            onApplicationChanged(packageName);
+        }
+    }
 
-        if (!parseApplicationList()) {
+    /**
+     * Add, update or remove the row of a single application.
+     */
+    public void onApplicationChanged(String packageName) {
+        final PreferenceGroup appList =
+                (PreferenceGroup) getPreferenceScreen().findPreference("applications_list");
+        if (appList == null) {
             return;
         }
 
-        // Add the Application Preferences
-        final PreferenceScreen prefSet = getPreferenceScreen();
-        final PackageManager pm = getPackageManager();
-        final PreferenceGroup appList = (PreferenceGroup) prefSet.findPreference("applications_list");
+        final NotificationLightStore.Application app = mStore.get(packageName);
+        final ApplicationLightPreference pref = mAppPrefs.get(packageName);
+        if (app == null) {
+            if (pref != null) {
+                appList.removePreference(pref);
+                mAppPrefs.remove(packageName);
+            }
+        } else if (pref != null) {
+            if (pref.getColor() != app.color || pref.getOnValue() != app.timeon
+                    || pref.getOffValue() != app.timeoff) {
+                pref.setAllValues(app.color, app.timeon, app.timeoff);
+            }
+        } else if (mLoading.add(packageName)) {
+            mLoadQueue.add(packageName);
+            startLoading();
+        }
+    }
 
-        if (appList != null) {
-            final Map<CharSequence, ApplicationLightPreference> prefs =
-                    new TreeMap<CharSequence, ApplicationLightPreference>();
+    private void startLoading() {
+        if (mLoadTask == null && !mLoadQueue.isEmpty()) {
+            final String[] packages = mLoadQueue.toArray(new String[mLoadQueue.size()]);
+            mLoadQueue.clear();
+            mLoadTask = new LoadApplicationsTask();
+            mLoadTask.execute(packages);
+        }
+    }
 
-            appList.removeAll();
+    private static class LoadedApplication {
+        String packageName;
+        CharSequence label;
+        Drawable icon;
+    }
 
-            for (Application i : mApplications.values()) {
+    /**
+     * Loads the labels and icons of applications, adding the row of each one
+     * as soon as it is loaded, sorted by label.
+     */
+    private class LoadApplicationsTask extends AsyncTask<String, LoadedApplication, Void> {
+        @Override
+        protected Void doInBackground(String... params) {
+            final PackageManager pm = mPackageManager;
+            for (String packageName : params) {
+                final LoadedApplication loaded = new LoadedApplication();
+                loaded.packageName = packageName;
                 try {
-                    PackageInfo info = pm.getPackageInfo(i.name, PackageManager.GET_META_DATA);
-                    ApplicationLightPreference pref =
-                            new ApplicationLightPreference(context, this, i.color, i.timeon, i.timeoff);
-                    final CharSequence label = info.applicationInfo.loadLabel(pm);
-
-                    pref.setKey(i.name);
-                    pref.setTitle(label);
-                    pref.setIcon(info.applicationInfo.loadIcon(pm));
-                    // Does not fit on low res devices, we need it so we hide the view in the preference
-                    pref.setSummary(i.name);
-                    pref.setPersistent(false);
-                    pref.setOnPreferenceChangeListener(this);
-
-                    prefs.put(label, pref);
+                    PackageInfo info = pm.getPackageInfo(packageName,
+                            PackageManager.GET_META_DATA);
+                    loaded.label = info.applicationInfo.loadLabel(pm);
+                    loaded.icon = info.applicationInfo.loadIcon(pm);
                 } catch (NameNotFoundException e) {
                     // Do nothing
                 }
+                publishProgress(loaded);
             }
+            return null;
+        }
 
-            for (ApplicationLightPreference pref : prefs.values()) {
-                appList.addPreference(pref);
+        @Override
+        protected void onProgressUpdate(LoadedApplication... values) {
+            final LoadedApplication loaded = values[0];
+            final String packageName = loaded.packageName;
+            mLoading.remove(packageName);
+            if (getActivity() == null) {
+                return;
             }
+            final NotificationLightStore.Application app = mStore.get(packageName);
+            final PreferenceGroup appList =
+                    (PreferenceGroup) getPreferenceScreen().findPreference("applications_list");
+            if (loaded.label == null || app == null || appList == null
+                    || mAppPrefs.containsKey(packageName)) {
+                return;
+            }
+
+            ApplicationLightPreference pref = new ApplicationLightPreference(getActivity(),
+                    NotificationLightSettings.this, app.color, app.timeon, app.timeoff);
+            pref.setKey(packageName);
+            pref.setTitle(loaded.label);
+            pref.setIcon(loaded.icon);
+            // Does not fit on low res devices, we need it so we hide the view in the preference
+            pref.setSummary(packageName);
+            pref.setPersistent(false);
+            pref.setOnPreferenceChangeListener(NotificationLightSettings.this);
+
+            // Inserted by title, as all rows have the same order
+            appList.setOrderingAsAdded(false);
+            appList.addPreference(pref);
+            mAppPrefs.put(packageName, pref);
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            mLoadTask = null;
+            startLoading();
         }
     }
 
@@ -287,60 +372,11 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
     }
 
     private void addCustomApplication(String packageName) {
-        Application app = mApplications.get(packageName);
-        if (app == null) {
-            app = new Application(packageName, DEFAULT_COLOR, DEFAULT_TIME, DEFAULT_TIME);
-            mApplications.put(packageName, app);
-            saveApplicationList(false);
-            refreshCustomApplications();
-        }
+        mStore.add(packageName, DEFAULT_COLOR, DEFAULT_TIME, DEFAULT_TIME);
     }
 
     private void removeCustomApplication(String packageName) {
-        if (mApplications.remove(packageName) != null) {
-            saveApplicationList(false);
-            refreshCustomApplications();
-        }
-    }
-
-    private boolean parseApplicationList() {
-        final String baseString = Settings.System.getString(getContentResolver(),
-                Settings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_VALUES);
-
-        if (TextUtils.equals(mApplicationList, baseString)) {
-            return false;
-        }
-
-        mApplicationList = baseString;
-        mApplications.clear();
-
-        if (baseString != null) {
-            final String[] array = TextUtils.split(baseString, "\\|");
-            for (String item : array) {
-                if (TextUtils.isEmpty(item)) {
-                    continue;
-                }
-                Application app = Application.fromString(item);
-                if (app != null) {
-                    mApplications.put(app.name, app);
-                }
-            }
-        }
-
-        return true;
-    }
-
-    private void saveApplicationList(boolean preferencesUpdated) {
-        List<String> settings = new ArrayList<String>();
-        for (Application app : mApplications.values()) {
-            settings.add(app.toString());
-        }
-        final String value = TextUtils.join("|", settings);
-        if (preferencesUpdated) {
-            mApplicationList = value;
-        }
-        Settings.System.putString(getContentResolver(),
-                                  Settings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_VALUES, value);
+        mStore.remove(packageName);
     }
 
     /**
@@ -374,14 +410,8 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
             return;
         }
 
-        // Find the custom app and sets its new values
-        Application app = mApplications.get(application);
-        if (app != null) {
-            app.color = color;
-            app.timeon = timeon;
-            app.timeoff = timeoff;
-            saveApplicationList(true);
-        }
+        // Set the custom app's new values
+        mStore.update(application, color, timeon, timeoff);
     }
 
     public boolean onLongClick(View v) {
@@ -469,7 +499,8 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
                     @Override
                     public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
                         // Add empty application definition, the user will be able to edit it later
-                        AppItem info = (AppItem) parent.getItemAtPosition(position);
+                        AppCatalog.Entry info =
+                                (AppCatalog.Entry) parent.getItemAtPosition(position);
                         addCustomApplication(info.packageName);
                         dialog.cancel();
                     }
@@ -482,124 +513,25 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
     }
 
     /**
-     * Application class
+     * AppAdapter class
      */
-    private static class Application {
-        public String name;
-        public Integer color;
-        public Integer timeon;
-        public Integer timeoff;
-
-        /**
-         * Stores all the application values in one call
-         * @param name
-         * @param color
-         * @param timeon
-         * @param timeoff
-         */
-        public Application(String name, Integer color, Integer timeon, Integer timeoff) {
-            this.name = name;
-            this.color = color;
-            this.timeon = timeon;
-            this.timeoff = timeoff;
-        }
+    class AppAdapter extends BaseAdapter implements AppCatalog.Listener {
+        protected List<AppCatalog.Entry> mInstalledApps = new ArrayList<AppCatalog.Entry>();
 
-        public Application() {
-        }
-
-        public String toString() {
-            StringBuilder builder = new StringBuilder();
-            builder.append(name);
-            builder.append("=");
-            builder.append(color);
-            builder.append(";");
-            builder.append(timeon);
-            builder.append(";");
-            builder.append(timeoff);
-            return builder.toString();
+        public void update() {
+            final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
+            mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+            AppCatalog.getInstance(getActivity()).loadActivities(mainIntent, this);
         }
 
-        public static Application fromString(String value) {
-            if (TextUtils.isEmpty(value)) {
-                return null;
-            }
-            String[] app = value.split("=", -1);
-            if (app.length != 2)
-                return null;
-
-            String[] values = app[1].split(";", -1);
-            if (values.length != 3)
-                return null;
-
-            try {
-                Application item = new Application(app[0], Integer.parseInt(values[0]), Integer
-                        .parseInt(values[1]), Integer.parseInt(values[2]));
-                return item;
-            } catch (NumberFormatException e) {
-                return null;
-            }
+        public void cancel() {
+            AppCatalog.getInstance(getActivity()).cancel(this);
         }
 
-    };
-
-    /**
-     * AppItem class
-     */
-    class AppItem implements Comparable<AppItem> {
-        CharSequence title;
-        String packageName;
-        Drawable icon;
-
         @Override
-        public int compareTo(AppItem another) {
-            return this.title.toString().compareTo(another.title.toString());
-        }
-    }
-
-    /**
-     * AppAdapter class
-     */
-    class AppAdapter extends BaseAdapter {
-        protected List<ResolveInfo> mInstalledAppInfo;
-        protected List<AppItem> mInstalledApps = new LinkedList<AppItem>();
-
-        private void reloadList() {
-            final Handler handler = new Handler();
-            new Thread(new Runnable() {
-
-                @Override
-                public void run() {
-                    synchronized (mInstalledApps) {
-                        mInstalledApps.clear();
-                        for (ResolveInfo info : mInstalledAppInfo) {
-                            final AppItem item = new AppItem();
-                            item.title = info.loadLabel(mPackageManager);
-                            item.icon = info.loadIcon(mPackageManager);
-                            item.packageName = info.activityInfo.packageName;
-                            handler.post(new Runnable() {
-
-                                @Override
-                                public void run() {
-                                    int index = Collections.binarySearch(mInstalledApps, item);
-                                    if (index < 0) {
-                                        index = -index - 1;
-                                        mInstalledApps.add(index, item);
-                                    }
-                                    notifyDataSetChanged();
-                                }
-                            });
-                        }
-                    }
-                }
-            }).start();
-        }
-
-        public AppAdapter(List<ResolveInfo> installedAppsInfo) {
-            mInstalledAppInfo = installedAppsInfo;
-        }
-
-        public void update() {
-            reloadList();
+        public void onEntriesLoaded(List<AppCatalog.Entry> entries, boolean complete) {
+            mInstalledApps = entries;
+            notifyDataSetChanged();
         }
 
         @Override
@@ -608,7 +540,7 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
         }
 
         @Override
-        public AppItem getItem(int position) {
+        public AppCatalog.Entry getItem(int position) {
             return mInstalledApps.get(position);
         }
 
@@ -631,16 +563,16 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
                 holder.summary = (TextView) convertView.findViewById(com.android.internal.R.id.summary);
                 holder.icon = (ImageView) convertView.findViewById(R.id.icon);
             }
-            AppItem applicationInfo = getItem(position);
+            AppCatalog.Entry applicationInfo = getItem(position);
 
             if (holder.title != null) {
-                holder.title.setText(applicationInfo.title);
+                holder.title.setText(applicationInfo.getLabel());
             }
             if (holder.summary != null) {
                 holder.summary.setVisibility(View.GONE);
             }
             if (holder.icon != null) {
-                Drawable loadIcon = applicationInfo.icon;
+                Drawable loadIcon = applicationInfo.getIcon();
                 holder.icon.setImageDrawable(loadIcon);
             }
             return convertView;
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2012 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notificationlight;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.provider.Settings;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-package notification light overrides, keyed by package name.
+ * <p>
+ * The notification service reads all overrides from the single
+ * {@link Settings.System#NOTIFICATION_LIGHT_PULSE_CUSTOM_VALUES} string, so
+ * that is still where they are stored, but changes are made per package in
+ * memory and written back in the background, once per burst of changes.
+ * Listeners are told which package changed, including when the setting is
+ * changed by someone else.
+ */
+class NotificationLightStore {
+    /** Changes made within this window are written together. */
+    private static final long WRITE_DELAY_MS = 500;
+
+    private static NotificationLightStore sInstance;
+
+    /**
+     * Light values of one application.
+     */
+    static class Application {
+        public String name;
+        public Integer color;
+        public Integer timeon;
+        public Integer timeoff;
+
+        /**
+         * Stores all the application values in one call
+         * @param name
+         * @param color
+         * @param timeon
+         * @param timeoff
+         */
+        public Application(String name, Integer color, Integer timeon, Integer timeoff) {
+            this.name = name;
+            this.color = color;
+            this.timeon = timeon;
+            this.timeoff = timeoff;
+        }
+
+        public Application() {
+        }
+
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(name);
+            builder.append("=");
+            builder.append(color);
+            builder.append(";");
+            builder.append(timeon);
+            builder.append(";");
+            builder.append(timeoff);
+            return builder.toString();
+        }
+
+        public static Application fromString(String value) {
+            if (TextUtils.isEmpty(value)) {
+                return null;
+            }
+            String[] app = value.split("=", -1);
+            if (app.length != 2)
+                return null;
+
+            String[] values = app[1].split(";", -1);
+            if (values.length != 3)
+                return null;
+
+            try {
+                Application item = new Application(app[0], Integer.parseInt(values[0]), Integer
+                        .parseInt(values[1]), Integer.parseInt(values[2]));
+                return item;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        boolean hasValues(int color, int timeon, int timeoff) {
+            return this.color == color && this.timeon == timeon && this.timeoff == timeoff;
+        }
+    }
+
+    interface Listener {
+        /**
+         * Called on the main thread when the application was added, removed
+         * or had its values changed.
+         */
+        void onApplicationChanged(String packageName);
+    }
+
+    private final ContentResolver mResolver;
+    private final Handler mMainHandler;
+    private final Handler mWriteHandler;
+    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
+
+    // Guarded by this
+    private final HashMap<String, Application> mApplications = new HashMap<String, Application>();
+    /** The setting value as last read or written by us. */
+    private String mStoredValue;
+    /** Packages changed here whose write is still pending. */
+    private final HashSet<String> mPendingEdits = new HashSet<String>();
+
+    private final ContentObserver mObserver;
+
+    private final Runnable mWriteRunnable = new Runnable() {
+        public void run() {
+            final String value;
+            synchronized (NotificationLightStore.this) {
+                mPendingEdits.clear();
+                value = serializeLocked();
+                if (TextUtils.equals(value, mStoredValue)) {
+                    return;
+                }
+                mStoredValue = value;
+            }
+            Settings.System.putString(mResolver,
+                    Settings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_VALUES, value);
+        }
+    };
+
+    static synchronized NotificationLightStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NotificationLightStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private NotificationLightStore(Context context) {
+        mResolver = context.getContentResolver();
+        mMainHandler = new Handler(Looper.getMainLooper());
+
+        HandlerThread thread = new HandlerThread("NotificationLightStore",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mWriteHandler = new Handler(thread.getLooper());
+
+        mObserver = new ContentObserver(mMainHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                reload();
+            }
+        };
+        mResolver.registerContentObserver(Settings.System.getUriFor(
+                Settings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_VALUES), false, mObserver);
+
+        synchronized (this) {
+            mStoredValue = Settings.System.getString(mResolver,
+                    Settings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_VALUES);
+            parseLocked(mStoredValue, mApplications);
+        }
+    }
+
+    void registerListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    void unregisterListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /** Package names of all configured applications. */
+    synchronized List<String> getPackages() {
+        return new ArrayList<String>(mApplications.keySet());
+    }
+
+    /** A copy of the application's values, or null if it isn't configured. */
+    synchronized Application get(String packageName) {
+        final Application app = mApplications.get(packageName);
+        return app != null ? new Application(app.name, app.color, app.timeon, app.timeoff)
+                : null;
+    }
+
+    /**
+     * Add the application with the given values, unless it is already
+     * configured.  Must be called on the main thread, as are the methods
+     * below.
+     */
+    void add(String packageName, int color, int timeon, int timeoff) {
+        synchronized (this) {
+            if (mApplications.containsKey(packageName)) {
+                return;
+            }
+            mApplications.put(packageName,
+                    new Application(packageName, color, timeon, timeoff));
+        }
+        onChanged(packageName);
+    }
+
+    void remove(String packageName) {
+        synchronized (this) {
+            if (mApplications.remove(packageName) == null) {
+                return;
+            }
+        }
+        onChanged(packageName);
+    }
+
+    void update(String packageName, int color, int timeon, int timeoff) {
+        synchronized (this) {
+            final Application app = mApplications.get(packageName);
+            if (app == null || app.hasValues(color, timeon, timeoff)) {
+                return;
+            }
+            app.color = color;
+            app.timeon = timeon;
+            app.timeoff = timeoff;
+        }
+        onChanged(packageName);
+    }
+
+    private void onChanged(String packageName) {
+        synchronized (this) {
+            mPendingEdits.add(packageName);
+        }
+        mWriteHandler.removeCallbacks(mWriteRunnable);
+        mWriteHandler.postDelayed(mWriteRunnable, WRITE_DELAY_MS);
+        notifyChanged(packageName);
+    }
+
+    private void notifyChanged(String packageName) {
+        // copy, since listeners may unregister themselves
+        for (Listener listener : new ArrayList<Listener>(mListeners)) {
+            listener.onApplicationChanged(packageName);
+        }
+    }
+
+    /**
+     * Re-read the setting after it changed, and tell listeners about the
+     * applications that differ.  Our own writes are ignored.  Applications
+     * changed here but not written yet keep their local values; the pending
+     * write then stores them along with the other changes read.
+     */
+    private void reload() {
+        final String value = Settings.System.getString(mResolver,
+                Settings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_VALUES);
+        final HashSet<String> changed = new HashSet<String>();
+        synchronized (this) {
+            if (TextUtils.equals(value, mStoredValue)) {
+                return;
+            }
+            mStoredValue = value;
+
+            final HashMap<String, Application> apps = new HashMap<String, Application>();
+            parseLocked(value, apps);
+            for (String packageName : mPendingEdits) {
+                final Application local = mApplications.get(packageName);
+                if (local != null) {
+                    apps.put(packageName, local);
+                } else {
+                    apps.remove(packageName);
+                }
+            }
+            for (Application app : apps.values()) {
+                final Application old = mApplications.get(app.name);
+                if (old == null || !old.hasValues(app.color, app.timeon, app.timeoff)) {
+                    changed.add(app.name);
+                }
+            }
+            for (String packageName : mApplications.keySet()) {
+                if (!apps.containsKey(packageName)) {
+                    changed.add(packageName);
+                }
+            }
+            mApplications.clear();
+            mApplications.putAll(apps);
+        }
+        for (String packageName : changed) {
+            notifyChanged(packageName);
+        }
+    }
+
+    private static void parseLocked(String value, Map<String, Application> apps) {
+        if (value == null) {
+            return;
+        }
+        final String[] array = TextUtils.split(value, "\\|");
+        for (String item : array) {
+            if (TextUtils.isEmpty(item)) {
+                continue;
+            }
+            Application app = Application.fromString(item);
+            if (app != null) {
+                apps.put(app.name, app);
+            }
+        }
+    }
+
+    private String serializeLocked() {
+        List<String> settings = new ArrayList<String>();
+        for (Application app : mApplications.values()) {
+            settings.add(app.toString());
+        }
+        return TextUtils.join("|", settings);
+    }
+}
@@ -22,8 +22,6 @@ import java.io.FileWriter;
 import java.io.IOException;
 
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
 import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceScreen;
@@ -32,6 +30,7 @@ import android.util.Log;
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
 import com.android.settings.Utils;
+import com.android.settings.cyanogenmod.CpuFreqSampler;
 
 //
 // CPU Related Settings
@@ -40,9 +39,6 @@ public class Processor extends SettingsPreferenceFragment implements
         Preference.OnPreferenceChangeListener {
 
     public static final String FREQ_CUR_PREF = "pref_cpu_freq_cur";
-    public static final String SCALE_CUR_FILE = "/sys/devices/system/cpu/cpu0/cpufreq/scaling_cur_freq";
-    public static final String FREQINFO_CUR_FILE = "/sys/devices/system/cpu/cpu0/cpufreq/cpuinfo_cur_freq";
-    private static String FREQ_CUR_FILE = SCALE_CUR_FILE;
     public static final String GOV_PREF = "pref_cpu_gov";
     public static final String GOV_LIST_FILE = "/sys/devices/system/cpu/cpu0/cpufreq/scaling_available_governors";
     public static final String GOV_FILE = "/sys/devices/system/cpu/cpu0/cpufreq/scaling_governor";
@@ -64,31 +60,13 @@ public class Processor extends SettingsPreferenceFragment implements
     private ListPreference mMinFrequencyPref;
     private ListPreference mMaxFrequencyPref;
 
-    private class CurCPUThread extends Thread {
-        private boolean mInterrupt = false;
+    private CpuFreqSampler mCpuFreqSampler;
+    private int[] mCurFrequencies;
 
-        public void interrupt() {
-            mInterrupt = true;
-        }
-
-        @Override
-        public void run() {
-            try {
-                while (!mInterrupt) {
-                    sleep(500);
-                    final String curFreq = Utils.fileReadOneLine(FREQ_CUR_FILE);
-                    mCurCPUHandler.sendMessage(mCurCPUHandler.obtainMessage(0, curFreq));
-                }
-            } catch (InterruptedException e) {
-            }
-        }
-    };
-
-    private CurCPUThread mCurCPUThread = new CurCPUThread();
-
-    private Handler mCurCPUHandler = new Handler() {
-        public void handleMessage(Message msg) {
-            mCurFrequencyPref.setSummary(toMHz((String) msg.obj));
+    private final CpuFreqSampler.Listener mCpuFreqListener = new CpuFreqSampler.Listener() {
+        public void onFrequencyChanged(int core, int freq) {
+            mCurFrequencies[core] = freq;
+            updateCurFrequencySummary();
         }
     };
 
@@ -132,15 +110,11 @@ public class Processor extends SettingsPreferenceFragment implements
             prefScreen.removePreference(mGovernorPref);
         }
 
-        if (!Utils.fileExists(FREQ_CUR_FILE)) {
-            FREQ_CUR_FILE = FREQINFO_CUR_FILE;
-        }
-
-        // Cur frequency
-        temp = Utils.fileReadOneLine(FREQ_CUR_FILE);
+        // Cur frequency of every core, sampled while we're resumed
+        mCpuFreqSampler = new CpuFreqSampler();
+        mCurFrequencies = new int[mCpuFreqSampler.getCoreCount()];
 
         mCurFrequencyPref = (Preference) prefScreen.findPreference(FREQ_CUR_PREF);
-        mCurFrequencyPref.setSummary(toMHz(temp));
 
         // Min frequency
         temp = Utils.fileReadOneLine(FREQ_MIN_FILE);
@@ -175,8 +149,6 @@ public class Processor extends SettingsPreferenceFragment implements
             mMinFrequencyPref.setEnabled(false);
             mMaxFrequencyPref.setEnabled(false);
         }
-
-        mCurCPUThread.start();
     }
 
     @Override
@@ -195,16 +167,14 @@ public class Processor extends SettingsPreferenceFragment implements
 
         temp = Utils.fileReadOneLine(GOV_FILE);
         mGovernorPref.setSummary(String.format(mGovernorFormat, temp));
+
+        mCpuFreqSampler.start(mCpuFreqListener);
     }
 
     @Override
-    public void onDestroy() {
-        super.onDestroy();
-        mCurCPUThread.interrupt();
-        try {
-            mCurCPUThread.join();
-        } catch (InterruptedException e) {
-        }
+    public void onPause() {
+        super.onPause();
+        mCpuFreqSampler.stop();
     }
 
     public boolean onPreferenceChange(Preference preference, Object newValue) {
@@ -237,6 +207,23 @@ public class Processor extends SettingsPreferenceFragment implements
         return false;
     }
 
+    private void updateCurFrequencySummary() {
+        StringBuilder summary = new StringBuilder();
+        for (int freq : mCurFrequencies) {
+            // Offline cores are left out
+            if (freq == 0) {
+                continue;
+            }
+            if (summary.length() > 0) {
+                summary.append(" / ");
+            }
+            summary.append(freq / 1000).append(" MHz");
+        }
+        if (summary.length() > 0) {
+            mCurFrequencyPref.setSummary(summary.toString());
+        }
+    }
+
     private String toMHz(String mhzString) {
         return new StringBuilder().append(Integer.valueOf(mhzString) / 1000).append(" MHz")
                 .toString();
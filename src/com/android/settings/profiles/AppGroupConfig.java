@@ -16,8 +16,7 @@
 
 package com.android.settings.profiles;
 
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import android.app.AlertDialog;
@@ -26,13 +25,11 @@ import android.app.NotificationGroup;
 import android.app.ProfileManager;
 import android.content.Context;
 import android.content.DialogInterface;
-import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
-import android.os.Handler;
 import android.preference.Preference;
 import android.preference.PreferenceGroup;
 import android.preference.PreferenceScreen;
@@ -56,6 +53,7 @@ import android.widget.Toast;
 
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
+import com.android.settings.applications.AppCatalog;
 
 public class AppGroupConfig extends SettingsPreferenceFragment
     implements Preference.OnPreferenceChangeListener {
@@ -74,7 +72,6 @@ public class AppGroupConfig extends SettingsPreferenceFragment
 
     private PackageManager mPackageManager;
 
-    private List<PackageInfo> mInstalledPackages;
 
     private NotificationGroup mNotificationGroup;
 
@@ -99,8 +96,7 @@ public class AppGroupConfig extends SettingsPreferenceFragment
         if (args != null) {
             mNotificationGroup = (NotificationGroup) args.getParcelable("NotificationGroup");
             mPackageManager = getPackageManager();
-            mInstalledPackages = mPackageManager.getInstalledPackages(0);
-            mAppAdapter = new PackageAdaptor(mInstalledPackages);
+            mAppAdapter = new PackageAdaptor();
             mAppAdapter.update();
 
             updatePackages();
@@ -184,7 +180,8 @@ public class AppGroupConfig extends SettingsPreferenceFragment
     @Override
     public boolean onContextItemSelected(MenuItem item) {
         AdapterContextMenuInfo aMenuInfo = (AdapterContextMenuInfo) item.getMenuInfo();
-        PackageItem selectedGroup = (PackageItem) mListView.getItemAtPosition(aMenuInfo.position);
+        AppCatalog.Entry selectedGroup =
+                (AppCatalog.Entry) mListView.getItemAtPosition(aMenuInfo.position);
         switch (item.getItemId()) {
             case R.string.profile_menu_delete:
                 deleteAppFromGroup(selectedGroup);
@@ -193,7 +190,7 @@ public class AppGroupConfig extends SettingsPreferenceFragment
         return super.onOptionsItemSelected(item);
     }
 
-    private void deleteAppFromGroup(PackageItem selectedGroup) {
+    private void deleteAppFromGroup(AppCatalog.Entry selectedGroup) {
         if (selectedGroup != null) {
             mNotificationGroup.removePackage(selectedGroup.packageName);
             updatePackages();
@@ -208,6 +205,14 @@ public class AppGroupConfig extends SettingsPreferenceFragment
         super.onPause();
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (mAppAdapter != null) {
+            mAppAdapter.cancel();
+        }
+    }
+
     @Override
     public boolean onPreferenceChange(Preference preference, Object newValue) {
         if (preference == mNamePreference) {
@@ -262,7 +267,8 @@ public class AppGroupConfig extends SettingsPreferenceFragment
                 list.setOnItemClickListener(new OnItemClickListener() {
                     @Override
                     public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                        PackageItem info = (PackageItem) parent.getItemAtPosition(position);
+                        AppCatalog.Entry info =
+                                (AppCatalog.Entry) parent.getItemAtPosition(position);
                         mNotificationGroup.addPackage(info.packageName);
                         updatePackages();
                         dialog.cancel();
@@ -322,63 +328,22 @@ public class AppGroupConfig extends SettingsPreferenceFragment
         updatePackages();
     }
 
-    class PackageItem implements Comparable<PackageItem> {
-        CharSequence title;
+    class PackageAdaptor extends BaseAdapter implements AppCatalog.Listener {
 
-        String packageName;
-
-        Drawable icon;
-
-        @Override
-        public int compareTo(PackageItem another) {
-            return this.title.toString().compareTo(another.title.toString());
-        }
-    }
+        protected List<AppCatalog.Entry> mInstalledPackages = new ArrayList<AppCatalog.Entry>();
 
-    class PackageAdaptor extends BaseAdapter {
-
-        protected List<PackageInfo> mInstalledPackageInfo;
-
-        protected List<PackageItem> mInstalledPackages = new LinkedList<PackageItem>();
-
-        private void reloadList() {
-            final Handler handler = new Handler();
-            new Thread(new Runnable() {
-
-                @Override
-                public void run() {
-                    synchronized (mInstalledPackages) {
-                        mInstalledPackages.clear();
-                        for (PackageInfo info : mInstalledPackageInfo) {
-                            final PackageItem item = new PackageItem();
-                            ApplicationInfo applicationInfo = info.applicationInfo;
-                            item.title = applicationInfo.loadLabel(mPackageManager);
-                            item.icon = applicationInfo.loadIcon(mPackageManager);
-                            item.packageName = applicationInfo.packageName;
-                            handler.post(new Runnable() {
-
-                                @Override
-                                public void run() {
-                                    int index = Collections.binarySearch(mInstalledPackages, item);
-                                    if (index < 0) {
-                                        index = -index - 1;
-                                        mInstalledPackages.add(index, item);
-                                    }
-                                    notifyDataSetChanged();
-                                }
-                            });
-                        }
-                    }
-                }
-            }).start();
+        public void update() {
+            AppCatalog.getInstance(getActivity()).loadPackages(this);
         }
 
-        public PackageAdaptor(List<PackageInfo> installedPackagesInfo) {
-            mInstalledPackageInfo = installedPackagesInfo;
+        public void cancel() {
+            AppCatalog.getInstance(getActivity()).cancel(this);
         }
 
-        public void update() {
-            reloadList();
+        @Override
+        public void onEntriesLoaded(List<AppCatalog.Entry> entries, boolean complete) {
+            mInstalledPackages = entries;
+            notifyDataSetChanged();
         }
 
         @Override
@@ -387,7 +352,7 @@ public class AppGroupConfig extends SettingsPreferenceFragment
         }
 
         @Override
-        public PackageItem getItem(int position) {
+        public AppCatalog.Entry getItem(int position) {
             return mInstalledPackages.get(position);
         }
 
@@ -411,16 +376,16 @@ public class AppGroupConfig extends SettingsPreferenceFragment
                         .findViewById(com.android.internal.R.id.summary);
                 holder.icon = (ImageView) convertView.findViewById(R.id.icon);
             }
-            PackageItem applicationInfo = getItem(position);
+            AppCatalog.Entry applicationInfo = getItem(position);
 
             if (holder.title != null) {
-                holder.title.setText(applicationInfo.title);
+                holder.title.setText(applicationInfo.getLabel());
             }
             if (holder.summary != null) {
                 holder.summary.setVisibility(View.GONE);
             }
             if (holder.icon != null) {
-                Drawable loadIcon = applicationInfo.icon;
+                Drawable loadIcon = applicationInfo.getIcon();
                 holder.icon.setImageDrawable(loadIcon);
             }
             return convertView;
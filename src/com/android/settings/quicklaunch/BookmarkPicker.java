@@ -17,15 +17,14 @@
 package com.android.settings.quicklaunch;
 
 import com.android.settings.R;
+import com.android.settings.applications.AppCatalog;
 
 import android.app.ListActivity;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
-import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
-import android.os.Handler;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -34,7 +33,6 @@ import android.widget.ListView;
 import android.widget.SimpleAdapter;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -70,16 +68,16 @@ public class BookmarkPicker extends ListActivity implements SimpleAdapter.ViewBi
     private static Intent sShortcutIntent;
     
     /**
-     * List of ResolveInfo for activities that we can bookmark (either directly
-     * to the activity, or by launching the activity and it returning a bookmark
-     * WITHIN that application).
+     * List of catalog entries for activities that we can bookmark (either
+     * directly to the activity, or by launching the activity and it returning
+     * a bookmark WITHIN that application).
      */
-    private List<ResolveInfo> mResolveList;
+    private List<AppCatalog.Entry> mResolveList = new ArrayList<AppCatalog.Entry>();
     
     // List adapter stuff
     private static final String KEY_TITLE = "TITLE";
-    private static final String KEY_RESOLVE_INFO = "RESOLVE_INFO";
-    private static final String sKeys[] = new String[] { KEY_TITLE, KEY_RESOLVE_INFO };
+    private static final String KEY_ENTRY = "ENTRY";
+    private static final String sKeys[] = new String[] { KEY_TITLE, KEY_ENTRY };
     private static final int sResourceIds[] = new int[] { R.id.title, R.id.icon };
     private SimpleAdapter mMyAdapter;
 
@@ -89,7 +87,16 @@ public class BookmarkPicker extends ListActivity implements SimpleAdapter.ViewBi
     private static final int DISPLAY_MODE_SHORTCUT = 1;
     private int mDisplayMode = DISPLAY_MODE_LAUNCH;
     
-    private Handler mUiHandler = new Handler();
+    private final AppCatalog.Listener mCatalogListener = new AppCatalog.Listener() {
+        public void onEntriesLoaded(List<AppCatalog.Entry> entries, boolean complete) {
+            if (entries == mResolveList && mMyAdapter != null) {
+                // Same list, only icons were loaded
+                mMyAdapter.notifyDataSetChanged();
+            } else {
+                updateAdapterToUseNewList(entries);
+            }
+        }
+    };
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -97,6 +104,12 @@ public class BookmarkPicker extends ListActivity implements SimpleAdapter.ViewBi
 
         updateListAndAdapter();
     }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        AppCatalog.getInstance(this).cancel(mCatalogListener);
+    }
     
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
@@ -146,61 +159,25 @@ public class BookmarkPicker extends ListActivity implements SimpleAdapter.ViewBi
      * This should be called from the UI thread.
      */
     private void updateListAndAdapter() {
-        // Get the activities in a separate thread
-        new Thread("data updater") {
-            @Override
-            public void run() {
-                synchronized (BookmarkPicker.this) {
-                    /*
-                     * Don't touch any of the lists that are being used by the
-                     * adapter in this thread!
-                     */
-                    ArrayList<ResolveInfo> newResolveList = new ArrayList<ResolveInfo>();
-                    ArrayList<Map<String, ?>> newAdapterList = new ArrayList<Map<String, ?>>();
-
-                    fillResolveList(newResolveList);
-                    Collections.sort(newResolveList,
-                            new ResolveInfo.DisplayNameComparator(getPackageManager()));
-                    
-                    fillAdapterList(newAdapterList, newResolveList);
-                    
-                    updateAdapterToUseNewLists(newAdapterList, newResolveList);
-                }
-            }
-        }.start();  
-    }
-    
-    private void updateAdapterToUseNewLists(final ArrayList<Map<String, ?>> newAdapterList,
-            final ArrayList<ResolveInfo> newResolveList) {
-        // Post this back on the UI thread
-        mUiHandler.post(new Runnable() {
-            public void run() {
-                /*
-                 * SimpleAdapter does not support changing the lists after it
-                 * has been created. We just create a new instance.
-                 */
-                mMyAdapter = createResolveAdapter(newAdapterList);
-                mResolveList = newResolveList;
-                setListAdapter(mMyAdapter);
-            }
-        });
+        // The catalog loads the activities in the background, and calls back
+        // on the UI thread as labels and icons come in
+        ensureIntents();
+        final Intent intent = mDisplayMode == DISPLAY_MODE_SHORTCUT
+                ? sShortcutIntent : sLaunchIntent;
+        AppCatalog.getInstance(this).loadActivities(intent, mCatalogListener);
     }
     
-    /**
-     * Gets all activities matching our current display mode.
-     * 
-     * @param list The list to fill.
-     */
-    private void fillResolveList(List<ResolveInfo> list) {
-        ensureIntents();
-        PackageManager pm = getPackageManager();
-        list.clear();
-        
-        if (mDisplayMode == DISPLAY_MODE_LAUNCH) {
-            list.addAll(pm.queryIntentActivities(sLaunchIntent, 0));
-        } else if (mDisplayMode == DISPLAY_MODE_SHORTCUT) {
-            list.addAll(pm.queryIntentActivities(sShortcutIntent, 0)); 
-        }
+    private void updateAdapterToUseNewList(List<AppCatalog.Entry> newResolveList) {
+        ArrayList<Map<String, ?>> newAdapterList = new ArrayList<Map<String, ?>>();
+        fillAdapterList(newAdapterList, newResolveList);
+
+        /*
+         * SimpleAdapter does not support changing the lists after it
+         * has been created. We just create a new instance.
+         */
+        mMyAdapter = createResolveAdapter(newAdapterList);
+        mResolveList = newResolveList;
+        setListAdapter(mMyAdapter);
     }
     
     private SimpleAdapter createResolveAdapter(List<Map<String, ?>> list) {
@@ -211,11 +188,11 @@ public class BookmarkPicker extends ListActivity implements SimpleAdapter.ViewBi
     }
 
     private void fillAdapterList(List<Map<String, ?>> list,
-            List<ResolveInfo> resolveList) {
+            List<AppCatalog.Entry> resolveList) {
         list.clear();
         int resolveListSize = resolveList.size();
         for (int i = 0; i < resolveListSize; i++) {
-            ResolveInfo info = resolveList.get(i);
+            AppCatalog.Entry info = resolveList.get(i);
             /*
              * Simple adapter craziness. For each item, we need to create a map
              * from a key to its value (the value can be any object--the view
@@ -224,23 +201,22 @@ public class BookmarkPicker extends ListActivity implements SimpleAdapter.ViewBi
              */
             Map<String, Object> map = new TreeMap<String, Object>();
             map.put(KEY_TITLE, getResolveInfoTitle(info));
-            map.put(KEY_RESOLVE_INFO, info);
+            map.put(KEY_ENTRY, info);
             list.add(map);
         }
     }
 
-    /** Get the title for a resolve info. */
-    private String getResolveInfoTitle(ResolveInfo info) {
-        CharSequence label = info.loadLabel(getPackageManager());
-        if (label == null) label = info.activityInfo.name;
-        return label != null ? label.toString() : null;
+    /** Get the title for a catalog entry. */
+    private String getResolveInfoTitle(AppCatalog.Entry info) {
+        String label = info.getLabel();
+        return label != null ? label : info.className;
     }
 
     @Override
     protected void onListItemClick(ListView l, View v, int position, long id) {
         if (position >= mResolveList.size()) return;
 
-        ResolveInfo info = mResolveList.get(position);
+        ResolveInfo info = mResolveList.get(position).resolveInfo;
         
         switch (mDisplayMode) {
 
@@ -248,7 +224,7 @@ public class BookmarkPicker extends ListActivity implements SimpleAdapter.ViewBi
                 // We can go ahead and return the clicked info's intent
                 Intent intent = getIntentForResolveInfo(info, Intent.ACTION_MAIN);
                 intent.addCategory(Intent.CATEGORY_LAUNCHER);
-                finish(intent, getResolveInfoTitle(info));
+                finish(intent, getResolveInfoTitle(mResolveList.get(position)));
                 break;
 
             case DISPLAY_MODE_SHORTCUT:
@@ -318,10 +294,9 @@ public class BookmarkPicker extends ListActivity implements SimpleAdapter.ViewBi
      */
     public boolean setViewValue(View view, Object data, String textRepresentation) {
         if (view.getId() == R.id.icon) {
-            Drawable icon = ((ResolveInfo) data).loadIcon(getPackageManager());
-            if (icon != null) {
-                ((ImageView) view).setImageDrawable(icon);
-            }
+            // May still be null while the catalog loads icons
+            Drawable icon = ((AppCatalog.Entry) data).getIcon();
+            ((ImageView) view).setImageDrawable(icon);
             return true;
         } else {
             return false;
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.vpn2;
+
+import android.os.AsyncTask;
+import android.security.Credentials;
+import android.security.KeyStore;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * VPN profiles decoded from KeyStore, kept for the life of the process.
+ * Profiles are loaded in the background once, and kept up to date by
+ * writing them through this class.  All methods must be called on the main
+ * thread.
+ */
+class VpnProfileStore {
+    private static final String TAG = "VpnProfileStore";
+
+    interface Callback {
+        void onProfilesLoaded(List<VpnProfile> profiles);
+    }
+
+    private static VpnProfileStore sInstance;
+
+    private final KeyStore mKeyStore = KeyStore.getInstance();
+
+    // null until loaded, or after being invalidated.
+    private HashMap<String, VpnProfile> mProfiles;
+    // Bumped by every write, so that a load racing with it is redone.
+    private int mGeneration;
+    private LoadTask mLoadTask;
+    private final ArrayList<Callback> mCallbacks = new ArrayList<Callback>();
+
+    static VpnProfileStore getInstance() {
+        if (sInstance == null) {
+            sInstance = new VpnProfileStore();
+        }
+        return sInstance;
+    }
+
+    private VpnProfileStore() {
+    }
+
+    /**
+     * Delivers all profiles to the callback; right away if they are
+     * loaded, otherwise once they are.  KeyStore must be unlocked.
+     */
+    void load(Callback callback) {
+        if (mProfiles != null) {
+            callback.onProfilesLoaded(new ArrayList<VpnProfile>(mProfiles.values()));
+            return;
+        }
+        if (!mCallbacks.contains(callback)) {
+            mCallbacks.add(callback);
+        }
+        if (mLoadTask == null) {
+            mLoadTask = new LoadTask(mGeneration);
+            mLoadTask.execute();
+        }
+    }
+
+    /**
+     * Stops a pending delivery to the callback.
+     */
+    void cancel(Callback callback) {
+        mCallbacks.remove(callback);
+    }
+
+    /**
+     * Saves the profile to KeyStore.
+     */
+    void put(VpnProfile profile) {
+        mKeyStore.put(Credentials.VPN + profile.key, profile.encode());
+        mGeneration++;
+        if (mProfiles != null) {
+            mProfiles.put(profile.key, profile);
+        }
+    }
+
+    /**
+     * Deletes the profile from KeyStore.
+     */
+    void delete(String key) {
+        mKeyStore.delete(Credentials.VPN + key);
+        mGeneration++;
+        if (mProfiles != null) {
+            mProfiles.remove(key);
+        }
+    }
+
+    /**
+     * Forgets the loaded profiles, e.g. because KeyStore was locked or
+     * reset behind our back.
+     */
+    void invalidate() {
+        mGeneration++;
+        mProfiles = null;
+    }
+
+    private class LoadTask extends AsyncTask<Void, Void, HashMap<String, VpnProfile>> {
+        private final int mStartGeneration;
+
+        LoadTask(int generation) {
+            mStartGeneration = generation;
+        }
+
+        @Override
+        protected HashMap<String, VpnProfile> doInBackground(Void... params) {
+            HashMap<String, VpnProfile> profiles = new HashMap<String, VpnProfile>();
+            String[] keys = mKeyStore.saw(Credentials.VPN);
+            if (keys != null) {
+                for (String key : keys) {
+                    VpnProfile profile = VpnProfile.decode(key,
+                            mKeyStore.get(Credentials.VPN + key));
+                    if (profile == null) {
+                        Log.w(TAG, "bad profile: key = " + key);
+                        mKeyStore.delete(Credentials.VPN + key);
+                    } else {
+                        profiles.put(key, profile);
+                    }
+                }
+            }
+            return profiles;
+        }
+
+        @Override
+        protected void onPostExecute(HashMap<String, VpnProfile> profiles) {
+            mLoadTask = null;
+            if (mStartGeneration != mGeneration) {
+                // Written or invalidated meanwhile; what we read may be stale.
+                if (!mCallbacks.isEmpty()) {
+                    mLoadTask = new LoadTask(mGeneration);
+                    mLoadTask.execute();
+                }
+                return;
+            }
+            mProfiles = profiles;
+            ArrayList<Callback> callbacks = new ArrayList<Callback>(mCallbacks);
+            mCallbacks.clear();
+            for (Callback callback : callbacks) {
+                callback.onProfilesLoaded(new ArrayList<VpnProfile>(profiles.values()));
+            }
+        }
+    }
+}
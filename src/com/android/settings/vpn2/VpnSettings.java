@@ -18,8 +18,12 @@ package com.android.settings.vpn2;
 
 import com.android.settings.R;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
 import android.net.IConnectivityManager;
 import android.net.LinkProperties;
 import android.net.RouteInfo;
@@ -47,16 +51,22 @@ import java.net.Inet4Address;
 import java.nio.charset.Charsets;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
 public class VpnSettings extends SettingsPreferenceFragment implements
         Handler.Callback, Preference.OnPreferenceClickListener,
-        DialogInterface.OnClickListener, DialogInterface.OnDismissListener {
+        DialogInterface.OnClickListener, DialogInterface.OnDismissListener,
+        VpnProfileStore.Callback {
 
     private static final String TAG = "VpnSettings";
 
+    // How often the state is polled while a connection is being set up.
+    private static final long POLL_DELAY = 1000;
+
     private final IConnectivityManager mService = IConnectivityManager.Stub
             .asInterface(ServiceManager.getService(Context.CONNECTIVITY_SERVICE));
     private final KeyStore mKeyStore = KeyStore.getInstance();
+    private final VpnProfileStore mStore = VpnProfileStore.getInstance();
     private boolean mUnlocking = false;
 
     private HashMap<String, VpnPreference> mPreferences;
@@ -64,6 +74,17 @@ public class VpnSettings extends SettingsPreferenceFragment implements
 
     private Handler mUpdater;
     private LegacyVpnInfo mInfo;
+    private boolean mReceiverRegistered;
+
+    // Connectivity changes are what usually bring a VPN up or down.
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (mUpdater != null) {
+                mUpdater.sendEmptyMessage(0);
+            }
+        }
+    };
 
     // The key of the profile for the current ContextMenu.
     private String mSelectedKey;
@@ -102,6 +123,8 @@ public class VpnSettings extends SettingsPreferenceFragment implements
 
         // Check KeyStore here, so others do not need to deal with it.
         if (mKeyStore.state() != KeyStore.State.UNLOCKED) {
+            // It may have been reset, so the cached profiles can't be trusted.
+            mStore.invalidate();
             if (!mUnlocking) {
                 // Let us unlock KeyStore. See you later!
                 Credentials.getInstance().unlock(getActivity());
@@ -118,29 +141,12 @@ public class VpnSettings extends SettingsPreferenceFragment implements
 
         // Currently we are the only user of profiles in KeyStore.
         // Assuming KeyStore and KeyGuard do the right thing, we can
-        // safely cache profiles in the memory.
+        // safely cache profiles in the memory, see VpnProfileStore.
         if (mPreferences == null) {
             mPreferences = new HashMap<String, VpnPreference>();
-            PreferenceGroup group = getPreferenceScreen();
-
-            String[] keys = mKeyStore.saw(Credentials.VPN);
-            if (keys != null && keys.length > 0) {
-                Context context = getActivity();
-
-                for (String key : keys) {
-                    VpnProfile profile = VpnProfile.decode(key,
-                            mKeyStore.get(Credentials.VPN + key));
-                    if (profile == null) {
-                        Log.w(TAG, "bad profile: key = " + key);
-                        mKeyStore.delete(Credentials.VPN + key);
-                    } else {
-                        VpnPreference preference = new VpnPreference(context, profile);
-                        mPreferences.put(key, preference);
-                        group.addPreference(preference);
-                    }
-                }
-            }
-            group.findPreference("add_network").setOnPreferenceClickListener(this);
+            getPreferenceScreen().findPreference("add_network")
+                    .setOnPreferenceClickListener(this);
+            mStore.load(this);
         }
 
         // Show the dialog if there is one.
@@ -154,6 +160,9 @@ public class VpnSettings extends SettingsPreferenceFragment implements
             mUpdater = new Handler(this);
         }
         mUpdater.sendEmptyMessage(0);
+        getActivity().registerReceiver(mReceiver,
+                new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        mReceiverRegistered = true;
 
         // Register for context menu. Hmmm, getListView() is hidden?
         registerForContextMenu(getListView());
@@ -169,12 +178,48 @@ public class VpnSettings extends SettingsPreferenceFragment implements
             mDialog.dismiss();
         }
 
+        // Stop monitoring.
+        if (mReceiverRegistered) {
+            getActivity().unregisterReceiver(mReceiver);
+            mReceiverRegistered = false;
+        }
+        if (mUpdater != null) {
+            mUpdater.removeMessages(0);
+        }
+
         // Unregister for context menu.
         if (getView() != null) {
             unregisterForContextMenu(getListView());
         }
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mStore.cancel(this);
+    }
+
+    @Override
+    public void onProfilesLoaded(List<VpnProfile> profiles) {
+        Context context = getActivity();
+        if (context == null || mPreferences == null) {
+            return;
+        }
+        PreferenceGroup group = getPreferenceScreen();
+        for (VpnProfile profile : profiles) {
+            // Profiles saved before the load finished are already shown.
+            if (!mPreferences.containsKey(profile.key)) {
+                VpnPreference preference = new VpnPreference(context, profile);
+                mPreferences.put(profile.key, preference);
+                group.addPreference(preference);
+            }
+        }
+        // Show the state of the profile which is connected, if any.
+        if (mUpdater != null) {
+            mUpdater.sendEmptyMessage(0);
+        }
+    }
+
     @Override
     public void onDismiss(DialogInterface dialog) {
         // Here is the exit of a dialog.
@@ -186,7 +231,7 @@ public class VpnSettings extends SettingsPreferenceFragment implements
         if (button == DialogInterface.BUTTON_POSITIVE) {
             // Always save the profile.
             VpnProfile profile = mDialog.getProfile();
-            mKeyStore.put(Credentials.VPN + profile.key, profile.encode());
+            mStore.put(profile);
 
             // Update the preference.
             VpnPreference preference = mPreferences.get(profile.key);
@@ -206,6 +251,8 @@ public class VpnSettings extends SettingsPreferenceFragment implements
                 } catch (Exception e) {
                     Log.e(TAG, "connect", e);
                 }
+                // Follow the connection while it is set up.
+                mUpdater.sendEmptyMessage(0);
             }
         }
     }
@@ -253,7 +300,7 @@ public class VpnSettings extends SettingsPreferenceFragment implements
                 disconnect(mSelectedKey);
                 getPreferenceScreen().removePreference(preference);
                 mPreferences.remove(mSelectedKey);
-                mKeyStore.delete(Credentials.VPN + mSelectedKey);
+                mStore.delete(mSelectedKey);
                 return true;
         }
         return false;
@@ -316,7 +363,12 @@ public class VpnSettings extends SettingsPreferenceFragment implements
             } catch (Exception e) {
                 // ignore
             }
-            mUpdater.sendEmptyMessageDelayed(0, 1000);
+            // Poll only while a connection is being set up; otherwise the
+            // connectivity broadcasts tell us when to look again.
+            if (mInfo != null && (mInfo.state == LegacyVpnInfo.STATE_INITIALIZING
+                    || mInfo.state == LegacyVpnInfo.STATE_CONNECTING)) {
+                mUpdater.sendEmptyMessageDelayed(0, POLL_DELAY);
+            }
         }
         return true;
     }
@@ -454,6 +506,9 @@ public class VpnSettings extends SettingsPreferenceFragment implements
             } catch (Exception e) {
                 // ignore
             }
+            if (mUpdater != null) {
+                mUpdater.sendEmptyMessage(0);
+            }
         }
     }
 
@@ -74,6 +74,8 @@ public class ChartDataUsageView extends ChartView {
     private long mVertMax;
 
     public interface DataUsageChartListener {
+        /** Inspection range is still being dragged. */
+        public void onInspectRangeChanging();
         public void onInspectRangeChanged();
         public void onWarningChanged();
         public void onLimitChanged();
@@ -312,9 +314,12 @@ public class ChartDataUsageView extends ChartView {
         public void onSweep(ChartSweepView sweep, boolean sweepDone) {
             updatePrimaryRange();
 
-            // update detail list only when done sweeping
-            if (sweepDone && mListener != null) {
-                mListener.onInspectRangeChanged();
+            if (mListener != null) {
+                if (sweepDone) {
+                    mListener.onInspectRangeChanged();
+                } else {
+                    mListener.onInspectRangeChanging();
+                }
             }
         }
 
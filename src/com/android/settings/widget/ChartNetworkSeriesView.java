@@ -34,6 +34,7 @@ import android.util.Log;
 import android.view.View;
 
 import com.android.settings.R;
+import com.android.settings.net.CumulativeUsage;
 import com.google.common.base.Preconditions;
 
 /**
@@ -53,6 +54,8 @@ public class ChartNetworkSeriesView extends View {
     private Paint mPaintEstimate;
 
     private NetworkStatsHistory mStats;
+    /** Running totals of {@link #mStats}, built once per bind. */
+    private CumulativeUsage mUsage;
 
     private Path mPathStroke;
     private Path mPathFill;
@@ -134,6 +137,7 @@ public class ChartNetworkSeriesView extends View {
 
     public void bindNetworkStats(NetworkStatsHistory stats) {
         mStats = stats;
+        mUsage = stats != null ? new CumulativeUsage(stats) : null;
         invalidatePath();
         invalidate();
     }
@@ -180,57 +184,42 @@ public class ChartNetworkSeriesView extends View {
         final int width = getWidth();
         final int height = getHeight();
 
-        boolean started = false;
-        float lastX = 0;
+        // series starts counting at the first bucket on screen, and covers
+        // data through the end of the visible range.
+        final long firstTime = mUsage.getBucketStart(mHoriz.convertToValue(0));
+        final long lastTime = Math.min(mUsage.getEnd(),
+                mUsage.getBucketStart(mEnd) + mUsage.getBucketDuration());
+        final long baseData = mUsage.getTotalBefore(firstTime);
+
+        float lastX = mHoriz.convertToPoint(firstTime);
         float lastY = height;
-        long lastTime = mHoriz.convertToValue(lastX);
 
         // move into starting position
-        mPathStroke.moveTo(lastX, lastY);
-        mPathFill.moveTo(lastX, lastY);
-
-        // TODO: count fractional data from first bucket crossing start;
-        // currently it only accepts first full bucket.
-
-        long totalData = 0;
-
-        NetworkStatsHistory.Entry entry = null;
-
-        final int start = mStats.getIndexBefore(mStart);
-        final int end = mStats.getIndexAfter(mEnd);
-        for (int i = start; i <= end; i++) {
-            entry = mStats.getValues(i, entry);
-
-            final long startTime = entry.bucketStart;
-            final long endTime = startTime + entry.bucketDuration;
-
-            final float startX = mHoriz.convertToPoint(startTime);
-            final float endX = mHoriz.convertToPoint(endTime);
-
-            // skip until we find first stats on screen
-            if (endX < 0) continue;
-
-            // increment by current bucket total
-            totalData += entry.rxBytes + entry.txBytes;
-
-            final float startY = lastY;
-            final float endY = mVert.convertToPoint(totalData);
-
-            if (lastTime != startTime) {
-                // gap in buckets; line to start of current bucket
-                mPathStroke.lineTo(startX, startY);
-                mPathFill.lineTo(startX, startY);
-            }
-
-            // always draw to end of current bucket
-            mPathStroke.lineTo(endX, endY);
-            mPathFill.lineTo(endX, endY);
-
-            lastX = endX;
-            lastY = endY;
-            lastTime = endTime;
+        mPathStroke.moveTo(0, lastY);
+        mPathFill.moveTo(0, lastY);
+        mPathStroke.lineTo(lastX, lastY);
+        mPathFill.lineTo(lastX, lastY);
+
+        // The series is cumulative, so the lowest and highest values within
+        // each pixel column are those at its edges.  One vertex per column,
+        // read from running totals, traces the per-bucket outline exactly
+        // while keeping the path bounded by the chart width.
+        final float endX = mHoriz.convertToPoint(lastTime);
+        final int lastColumn = (int) Math.min(Math.ceil(endX) - 1, width);
+        for (int x = (int) Math.max(Math.ceil(lastX), 0); x <= lastColumn; x++) {
+            final long data = mUsage.getTotalBefore(mHoriz.convertToValue(x)) - baseData;
+            final float y = mVert.convertToPoint(Math.max(data, 0));
+            mPathStroke.lineTo(x, y);
+            mPathFill.lineTo(x, y);
         }
 
+        // always draw to end of last bucket
+        long totalData = mUsage.getTotalBefore(lastTime) - baseData;
+        lastX = endX;
+        lastY = mVert.convertToPoint(totalData);
+        mPathStroke.lineTo(lastX, lastY);
+        mPathFill.lineTo(lastX, lastY);
+
         // when data falls short, extend to requested end time
         if (lastTime < mEndTime) {
             lastX = mHoriz.convertToPoint(mEndTime);
@@ -259,9 +248,8 @@ public class ChartNetworkSeriesView extends View {
         final long bucketDuration = mStats.getBucketDuration();
 
         // long window is average over two weeks
-        entry = mStats.getValues(lastTime - WEEK_IN_MILLIS * 2, lastTime, now, entry);
-        final long longWindow = (entry.rxBytes + entry.txBytes) * bucketDuration
-                / entry.bucketDuration;
+        final long longWindow = mUsage.getTotal(lastTime - WEEK_IN_MILLIS * 2, lastTime, now)
+                * bucketDuration / (WEEK_IN_MILLIS * 2);
 
         long futureTime = 0;
         while (lastX < width) {
@@ -269,9 +257,8 @@ public class ChartNetworkSeriesView extends View {
 
             // short window is day average last week
             final long lastWeekTime = lastTime - WEEK_IN_MILLIS + (futureTime % WEEK_IN_MILLIS);
-            entry = mStats.getValues(lastWeekTime - DAY_IN_MILLIS, lastWeekTime, now, entry);
-            final long shortWindow = (entry.rxBytes + entry.txBytes) * bucketDuration
-                    / entry.bucketDuration;
+            final long shortWindow = mUsage.getTotal(lastWeekTime - DAY_IN_MILLIS, lastWeekTime,
+                    now) * bucketDuration / DAY_IN_MILLIS;
 
             totalData += (longWindow * 7 + shortWindow * 3) / 10;
 
@@ -307,8 +294,7 @@ public class ChartNetworkSeriesView extends View {
         final long maxVisible = mEstimateVisible ? mMaxEstimate : mMax;
         if (maxVisible <= 0 && mStats != null) {
             // haven't generated path yet; fall back to raw data
-            final NetworkStatsHistory.Entry entry = mStats.getValues(mStart, mEnd, null);
-            return entry.rxBytes + entry.txBytes;
+            return mUsage.getTotal(mStart, mEnd, Long.MAX_VALUE);
         } else {
             return maxVisible;
         }
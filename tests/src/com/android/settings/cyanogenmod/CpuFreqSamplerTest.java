@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2012 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.cyanogenmod;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+
+public class CpuFreqSamplerTest extends AndroidTestCase {
+    private File mRoot;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRoot = new File(getContext().getCacheDir(), "fake_cpu");
+        deleteRecursive(mRoot);
+        write("possible", "0-1\n");
+        write("online", "0-1\n");
+        write("cpu0/cpufreq/scaling_cur_freq", "384000\n");
+        // Only the cpuinfo file, to check the fallback
+        write("cpu1/cpufreq/cpuinfo_cur_freq", "1188000\n");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursive(mRoot);
+        super.tearDown();
+    }
+
+    public void testSamplesAllCores() throws IOException {
+        CpuFreqSampler sampler = new CpuFreqSampler(mRoot);
+        assertEquals(2, sampler.getCoreCount());
+        assertTrue(sampler.sample(1000, null));
+        assertEquals(384000, sampler.getFrequency(0));
+        assertEquals(1188000, sampler.getFrequency(1));
+
+        // Unchanged files are no change
+        assertFalse(sampler.sample(1500, null));
+
+        // Rewritten in place, read through the open handle
+        write("cpu0/cpufreq/scaling_cur_freq", "1512000\n");
+        assertTrue(sampler.sample(2000, null));
+        assertEquals(1512000, sampler.getFrequency(0));
+        assertEquals(1000, sampler.getTimeInState(0, 384000));
+
+        write("online", "0\n");
+        assertTrue(sampler.sample(2500, null));
+        assertEquals(0, sampler.getFrequency(1));
+
+        int[] freqs = new int[CpuFreqSampler.HISTORY_SIZE];
+        long[] times = new long[CpuFreqSampler.HISTORY_SIZE];
+        assertEquals(4, sampler.getHistory(0, freqs, times));
+        assertEquals(384000, freqs[0]);
+        assertEquals(1512000, freqs[3]);
+        assertEquals(2500, times[3]);
+        sampler.close();
+    }
+
+    public void testReportsAllCoresWhenAsked() throws IOException {
+        final ArrayList<Message> sent = new ArrayList<Message>();
+        Handler handler = new Handler(Looper.getMainLooper()) {
+            @Override
+            public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
+                sent.add(Message.obtain(msg));
+                msg.recycle();
+                return true;
+            }
+        };
+        CpuFreqSampler sampler = new CpuFreqSampler(mRoot);
+        sampler.sample(1000, handler);
+        assertEquals(2, sent.size());
+
+        // Nothing changed, so only a full report sends anything
+        sent.clear();
+        assertFalse(sampler.sample(1500, handler));
+        assertEquals(0, sent.size());
+        assertFalse(sampler.sample(2000, handler, true));
+        assertEquals(2, sent.size());
+        assertEquals(0, sent.get(0).arg1);
+        assertEquals(384000, sent.get(0).arg2);
+        sampler.close();
+    }
+
+    public void testParseRanges() {
+        byte[] buffer = "0-1,3\n".getBytes();
+        boolean[] online = new boolean[4];
+        assertEquals(3, CpuFreqSampler.parseRanges(buffer, buffer.length, online));
+        assertTrue(online[0]);
+        assertTrue(online[1]);
+        assertFalse(online[2]);
+        assertTrue(online[3]);
+    }
+
+    private void write(String name, String contents) throws IOException {
+        File file = new File(mRoot, name);
+        file.getParentFile().mkdirs();
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(contents);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void deleteRecursive(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        file.delete();
+    }
+}
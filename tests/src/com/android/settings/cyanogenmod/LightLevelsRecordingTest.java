@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2012 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.cyanogenmod;
+
+import android.test.AndroidTestCase;
+
+public class LightLevelsRecordingTest extends AndroidTestCase {
+    private static final int[] LEVELS = { 10, 100, 1000 };
+    private static final int[] VALUES = { 20, 60, 120, 255 };
+
+    public void testGetValue() {
+        assertEquals(20, LightLevelsRecording.getValue(LEVELS, VALUES, 0));
+        assertEquals(20, LightLevelsRecording.getValue(LEVELS, VALUES, 9));
+        // Levels are the lower bound of the next value
+        assertEquals(60, LightLevelsRecording.getValue(LEVELS, VALUES, 10));
+        assertEquals(120, LightLevelsRecording.getValue(LEVELS, VALUES, 999));
+        assertEquals(255, LightLevelsRecording.getValue(LEVELS, VALUES, 50000));
+    }
+
+    public void testKeepsNewestSamples() {
+        LightLevelsRecording recording = new LightLevelsRecording();
+        final int total = LightLevelsRecording.CAPACITY + 5;
+        for (int i = 0; i < total; i++) {
+            recording.record(i * 1000L, i, i + 1, i + 2, i + 3);
+        }
+        assertEquals(LightLevelsRecording.CAPACITY, recording.size());
+        assertEquals(5, recording.getLux(0));
+        assertEquals(5000L, recording.getTime(0));
+        assertEquals(total - 1, recording.getLux(recording.size() - 1));
+        assertEquals(total, recording.getScreen(recording.size() - 1));
+        assertEquals(total + 2, recording.getKeyboard(recording.size() - 1));
+
+        recording.clear();
+        assertEquals(0, recording.size());
+        recording.record(0, 7, 8, 9, 10);
+        assertEquals(7, recording.getLux(0));
+    }
+
+    public void testDescribeReplay() {
+        LightLevelsRecording recording = new LightLevelsRecording();
+        recording.record(0, 5, 20, 20, 0);
+        recording.record(1000, 6, 20, 20, 0);
+        recording.record(2000, 500, 60, 60, 0);
+
+        String report = recording.describeReplay(getContext(), LEVELS, VALUES, VALUES,
+                VALUES, false);
+        // The summary, then a line for the first sample and one where the values change
+        assertEquals(3, report.split("\n").length);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.net;
+
+import static android.text.format.DateUtils.DAY_IN_MILLIS;
+import static android.text.format.DateUtils.HOUR_IN_MILLIS;
+
+import android.net.NetworkStats;
+import android.net.NetworkStatsHistory;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Compares range totals read from {@link CumulativeUsage} against walking
+ * the buckets of a {@link NetworkStatsHistory}, over several months of
+ * hourly buckets.  Timings are logged.  Results may only differ by the
+ * rounding of the two partial buckets, since rx and tx are prorated
+ * together instead of separately.
+ */
+public class CumulativeUsageBenchmark extends AndroidTestCase {
+    private static final String TAG = "CumulativeUsageBenchmark";
+
+    private static final long START = 1325376000000L; // 2012-01-01 UTC
+    private static final int DAYS = 120;
+    private static final int QUERIES = 2000;
+
+    private NetworkStatsHistory mHistory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        final Random random = new Random(42);
+        final int buckets = (int) (DAYS * DAY_IN_MILLIS / HOUR_IN_MILLIS);
+        mHistory = new NetworkStatsHistory(HOUR_IN_MILLIS, buckets);
+        final NetworkStats.Entry entry = new NetworkStats.Entry();
+        for (int i = 0; i < buckets; i++) {
+            // leave some hours empty, like a device that was switched off
+            if (random.nextInt(10) == 0) continue;
+            entry.rxBytes = random.nextInt(50 * 1024 * 1024);
+            entry.txBytes = random.nextInt(5 * 1024 * 1024);
+            final long bucketStart = START + i * HOUR_IN_MILLIS;
+            mHistory.recordData(bucketStart, bucketStart + HOUR_IN_MILLIS, entry);
+        }
+    }
+
+    public void testRangeTotals() {
+        final Random random = new Random(7);
+        final long end = START + DAYS * DAY_IN_MILLIS;
+        final long now = end - HOUR_IN_MILLIS / 2;
+        final long[] starts = new long[QUERIES];
+        final long[] ends = new long[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            final long a = START + (long) (random.nextDouble() * (end - START));
+            final long b = START + (long) (random.nextDouble() * (end - START));
+            starts[i] = Math.min(a, b);
+            ends[i] = Math.max(a, b);
+        }
+
+        long t = System.nanoTime();
+        final CumulativeUsage usage = new CumulativeUsage(mHistory);
+        final long buildNanos = System.nanoTime() - t;
+
+        final long[] expected = new long[QUERIES];
+        NetworkStatsHistory.Entry entry = null;
+        t = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            entry = mHistory.getValues(starts[i], ends[i], now, entry);
+            expected[i] = entry.rxBytes + entry.txBytes;
+        }
+        final long walkNanos = System.nanoTime() - t;
+
+        final long[] actual = new long[QUERIES];
+        t = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            actual[i] = usage.getTotal(starts[i], ends[i], now);
+        }
+        final long totalsNanos = System.nanoTime() - t;
+
+        for (int i = 0; i < QUERIES; i++) {
+            assertTrue("range " + starts[i] + "-" + ends[i] + ": expected " + expected[i]
+                    + " but was " + actual[i], Math.abs(expected[i] - actual[i]) <= 2);
+        }
+
+        Log.i(TAG, mHistory.size() + " buckets: build " + buildNanos / 1000 + "us, "
+                + QUERIES + " queries walking buckets " + walkNanos / 1000 + "us, "
+                + "from running totals " + totalsNanos / 1000 + "us");
+    }
+}
@@ -19,6 +19,9 @@ package com.android.settings.tests;
 import android.app.Activity;
 import android.test.LaunchPerformanceBase;
 import android.os.Bundle;
+import android.util.Log;
+
+import com.android.settings.LaunchTimings;
 
 import java.util.Map;
 
@@ -29,6 +32,14 @@ public class SettingsLaunchPerformance extends LaunchPerformanceBase {
 
     public static final String LOG_TAG = "SettingsLaunchPerformance";
 
+    private static final long PHASE_TIMEOUT = 5000;
+
+    private static final String[] PHASES = {
+        LaunchTimings.PHASE_HEADERS_BUILT,
+        LaunchTimings.PHASE_FIRST_DRAW,
+        LaunchTimings.PHASE_ENABLERS_READY,
+    };
+
     public SettingsLaunchPerformance() {
         super();
     }
@@ -42,12 +53,32 @@ public class SettingsLaunchPerformance extends LaunchPerformanceBase {
     }
 
     /**
-     * Calls LaunchApp and finish.
+     * Calls LaunchApp, reports the time each phase of the launch took and
+     * finishes.
      */
     @Override
     public void onStart() {
         super.onStart();
         LaunchApp();
+        addPhaseTimings();
         finish(Activity.RESULT_OK, mResults);
     }
+
+    /**
+     * Adds the milliseconds from the start of Settings#onCreate to each
+     * phase, as "phase_<name>", waiting for the phases that run after the
+     * first frame.  Phases not reached in time are reported as -1.
+     */
+    private void addPhaseTimings() {
+        try {
+            LaunchTimings.await(LaunchTimings.PHASE_ENABLERS_READY, PHASE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Interrupted waiting for launch phases");
+        }
+        for (String phase : PHASES) {
+            final long elapsed = LaunchTimings.getElapsed(phase);
+            mResults.putLong("phase_" + phase, elapsed);
+            Log.i(LOG_TAG, phase + ": " + elapsed + "ms");
+        }
+    }
 }